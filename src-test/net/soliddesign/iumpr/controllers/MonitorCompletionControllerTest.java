@@ -3,6 +3,7 @@
  */
 package net.soliddesign.iumpr.controllers;
 
+import static org.junit.Assert.assertFalse;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
@@ -13,14 +14,17 @@ import static org.mockito.Mockito.when;
 
 import java.time.LocalDateTime;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 
 import javax.swing.JOptionPane;
 
 import org.etools.j1939tools.j1939.J1939;
+import org.etools.j1939tools.j1939.ResponseCache;
 import org.etools.j1939tools.j1939.packets.MonitoredSystem;
 import org.etools.j1939tools.j1939.packets.PerformanceRatio;
+import org.etools.j1939tools.j1939.packets.VehicleIdentificationPacket;
 import org.etools.j1939tools.modules.DateTimeModule;
 import org.junit.After;
 import org.junit.Before;
@@ -147,6 +151,9 @@ public class MonitorCompletionControllerTest {
     @Test
     public void testAbortWithoutEngineComm() throws Exception {
         final boolean[] lock = new boolean[] { false };
+        ResponseCache cache = new ResponseCache();
+        cache.putGlobal(VehicleIdentificationPacket.PGN, List.of(), List.of());
+        when(j1939.getResponseCache()).thenReturn(cache);
 
         when(engineSpeedModule.isEngineCommunicating()).thenAnswer(arg0 -> {
             Thread.sleep(1);
@@ -185,6 +192,9 @@ public class MonitorCompletionControllerTest {
         }
 
         verify(j1939).interrupt();
+        // the key may have been turned off, so the identity data is read again
+        verify(j1939).getResponseCache();
+        assertFalse(cache.getGlobal(VehicleIdentificationPacket.PGN).isPresent());
         InOrder inOrder = inOrder(listener, engineSpeedModule, comparisonModule, bannerModule,
                 reportFileModule, vehicleInformationModule, diagnosticReadinessModule);
 
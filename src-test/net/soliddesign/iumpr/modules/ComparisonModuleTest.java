@@ -5,6 +5,7 @@ package net.soliddesign.iumpr.modules;
 
 import static net.soliddesign.iumpr.IUMPR.NL;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -21,6 +22,7 @@ import java.util.stream.Stream;
 import javax.swing.JOptionPane;
 
 import org.etools.j1939tools.j1939.J1939;
+import org.etools.j1939tools.j1939.ResponseCache;
 import org.etools.j1939tools.j1939.packets.DM19CalibrationInformationPacket;
 import org.etools.j1939tools.j1939.packets.DM19CalibrationInformationPacket.CalibrationInformation;
 import org.etools.j1939tools.j1939.packets.DM21DiagnosticReadinessPacket;
@@ -148,9 +150,15 @@ public class ComparisonModuleTest {
         when(reportFileModule.isNewFile()).thenReturn(false);
 
         assertEquals(true, instance.compareFileToVehicle(listener, reportFileModule, 0, 4));
+        ResponseCache cache = new ResponseCache();
+        cache.putGlobal(VehicleIdentificationPacket.PGN, List.of(), List.of());
+        when(j1939.getResponseCache()).thenReturn(cache);
         instance.reset();
+        assertFalse(cache.getGlobal(VehicleIdentificationPacket.PGN).isPresent());
         assertEquals(true, instance.compareFileToVehicle(listener, reportFileModule, 0, 4));
 
+        verify(j1939).getResponseCache();
+
         verify(j1939, times(2)).requestMultiple(DM19CalibrationInformationPacket.class);
         verify(j1939, times(2)).requestMultiple(DM21DiagnosticReadinessPacket.class);
         verify(j1939, times(2)).requestMultiple(VehicleIdentificationPacket.class);
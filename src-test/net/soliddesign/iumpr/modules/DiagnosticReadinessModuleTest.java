@@ -14,13 +14,16 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.stream.Stream;
 
 import org.etools.j1939tools.bus.Packet;
+import org.etools.j1939tools.bus.RequestResult;
 import org.etools.j1939tools.j1939.J1939;
 import org.etools.j1939tools.j1939.packets.CompositeMonitoredSystem;
 import org.etools.j1939tools.j1939.packets.CompositeSystem;
@@ -28,6 +31,7 @@ import org.etools.j1939tools.j1939.packets.DM20MonitorPerformanceRatioPacket;
 import org.etools.j1939tools.j1939.packets.DM21DiagnosticReadinessPacket;
 import org.etools.j1939tools.j1939.packets.DM26TripDiagnosticReadinessPacket;
 import org.etools.j1939tools.j1939.packets.DM5DiagnosticReadinessPacket;
+import org.etools.j1939tools.j1939.packets.GenericPacket;
 import org.etools.j1939tools.j1939.packets.MonitoredSystem;
 import org.etools.j1939tools.j1939.packets.PerformanceRatio;
 import org.junit.After;
@@ -39,6 +43,7 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import net.soliddesign.iumpr.controllers.TestResultsListener;
+import net.soliddesign.iumpr.modules.DiagnosticReadinessModule.ReadinessPackets;
 
 /**
  * Unit tests for the {@link DiagnosticReadinessModule}
@@ -1153,6 +1158,45 @@ public class DiagnosticReadinessModuleTest {
         verify(j1939).requestMultiple(DM5DiagnosticReadinessPacket.class, requestPacket);
     }
 
+    @Test
+    public void testGetReadinessPackets() {
+        Set<Integer> expected = Set.of(0x00);
+        DM5DiagnosticReadinessPacket dm5 = new DM5DiagnosticReadinessPacket(
+                Packet.create(DM5DiagnosticReadinessPacket.PGN, 0x00, 1, 2, 3, 4, 5, 6, 7, 8));
+        DM20MonitorPerformanceRatioPacket dm20 = new DM20MonitorPerformanceRatioPacket(
+                Packet.create(DM20MonitorPerformanceRatioPacket.PGN, 0x00, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11));
+        DM26TripDiagnosticReadinessPacket dm26 = new DM26TripDiagnosticReadinessPacket(
+                Packet.create(DM26TripDiagnosticReadinessPacket.PGN, 0x00, 1, 2, 3, 4, 5, 6, 7, 8));
+        DM21DiagnosticReadinessPacket dm21 = new DM21DiagnosticReadinessPacket(
+                Packet.create(DM21DiagnosticReadinessPacket.PGN, 0x00, 1, 2, 3, 4, 5, 6, 7, 8));
+        Map<Integer, RequestResult<GenericPacket>> results = new HashMap<>();
+        results.put(DM5DiagnosticReadinessPacket.PGN, new RequestResult<>(false, List.of(dm5), List.of()));
+        results.put(DM20MonitorPerformanceRatioPacket.PGN, new RequestResult<>(false, List.of(dm20), List.of()));
+        results.put(DM26TripDiagnosticReadinessPacket.PGN, new RequestResult<>(false, List.of(dm26), List.of()));
+        // the engine did not answer the DM21 request in the batch
+        results.put(DM21DiagnosticReadinessPacket.PGN, new RequestResult<>(false, List.of(), List.of()));
+        when(j1939.requestGlobals(expected, DM5DiagnosticReadinessPacket.PGN, DM20MonitorPerformanceRatioPacket.PGN,
+                DM26TripDiagnosticReadinessPacket.PGN, DM21DiagnosticReadinessPacket.PGN)).thenReturn(results);
+
+        final int pgn = DM21DiagnosticReadinessPacket.PGN;
+        Packet requestPacket = Packet.create(0xEA00 | 0xFF, BUS_ADDR, true, pgn, pgn >> 8, pgn >> 16);
+        when(j1939.createRequestPacket(pgn, 0xFF)).thenReturn(requestPacket);
+        when(j1939.requestMultiple(DM21DiagnosticReadinessPacket.class, requestPacket, expected))
+                .thenReturn(Stream.of(dm21));
+
+        ReadinessPackets packets = instance.getReadinessPackets(null, false, expected);
+        assertEquals(List.of(dm5), packets.getDM5Packets());
+        assertEquals(List.of(dm20), packets.getDM20Packets());
+        assertEquals(List.of(dm26), packets.getDM26Packets());
+        assertEquals(List.of(dm21), packets.getDM21Packets());
+
+        verify(j1939).requestGlobals(expected, DM5DiagnosticReadinessPacket.PGN,
+                DM20MonitorPerformanceRatioPacket.PGN, DM26TripDiagnosticReadinessPacket.PGN,
+                DM21DiagnosticReadinessPacket.PGN);
+        verify(j1939).createRequestPacket(pgn, 0xFF);
+        verify(j1939).requestMultiple(DM21DiagnosticReadinessPacket.class, requestPacket, expected);
+    }
+
     @Test
     public void testGetRatios() {
         PerformanceRatio ratio01 = new PerformanceRatio(1, 1, 1, 0);
@@ -7,7 +7,9 @@ import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static net.soliddesign.iumpr.IUMPR.NL;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -36,6 +38,7 @@ import org.mockito.exceptions.base.MockitoException;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import net.soliddesign.iumpr.controllers.TestResultsListener;
+import net.soliddesign.iumpr.modules.DiagnosticReadinessModule.ReadinessPackets;
 
 /**
  * Unit tests for the {@link MonitorTrackingModule} class
@@ -144,16 +147,11 @@ public class MonitorTrackingModuleTest {
     public void testDoesNotWriteOnChangeOfDM21() throws Exception {
         when(engineSpeedModule.isEngineCommunicating()).thenReturn(true);
 
-        when(diagnosticReadinessModule.getDM5Packets(null, false)).thenReturn(getDm5Packets());
-
-        when(diagnosticReadinessModule.getDM20Packets(null, false)).thenReturn(getDm20Packets());
-
-        when(diagnosticReadinessModule.getDM26Packets(null, false)).thenReturn(getDm26Packets());
-
         List<DM21DiagnosticReadinessPacket> dm21Packets2 = singletonList(
                 new DM21DiagnosticReadinessPacket(Packet.create(49408, 0, 8, 7, 6, 5, 4, 3, 2, 1)));
-        when(diagnosticReadinessModule.getDM21Packets(null, false)).thenReturn(getDm21Packets())
-                .thenReturn(dm21Packets2);
+        when(diagnosticReadinessModule.getReadinessPackets(isNull(), eq(false), anyCollection()))
+                .thenReturn(new ReadinessPackets(getDm5Packets(), getDm20Packets(), getDm26Packets(), getDm21Packets()))
+                .thenReturn(new ReadinessPackets(getDm5Packets(), getDm20Packets(), getDm26Packets(), dm21Packets2));
 
         Runnable runnable = runInstance();
         runnable.run(); // Initial Read Vehicle
@@ -183,10 +181,7 @@ public class MonitorTrackingModuleTest {
 
         String expectedMessages = "";
         expectedMessages += "Monitors/Ratios Update #1: Reading Engine Speed" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM20" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM26" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM21" + NL;
+        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5, DM20, DM26 and DM21" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 10 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 9 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 8 Seconds Until Next Update" + NL;
@@ -198,20 +193,14 @@ public class MonitorTrackingModuleTest {
         expectedMessages += "Monitors/Ratios Update #1: 2 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 1 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #2: Reading Engine Speed" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM5" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM20" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM26" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM21" + NL;
+        expectedMessages += "Monitors/Ratios Update #2: Requesting DM5, DM20, DM26 and DM21" + NL;
         expectedMessages += "Monitors/Ratios Update #2: 10 Seconds Until Next Update";
         assertEquals(expectedMessages, listener.getMessages());
 
         verify(executor).scheduleAtFixedRate(runnable, 0L, 1L, TimeUnit.SECONDS);
         verify(engineSpeedModule, times(2)).isEngineCommunicating();
         verify(reportFileModule, times(8)).incrementQueries();
-        verify(diagnosticReadinessModule, times(2)).getDM5Packets(null, false);
-        verify(diagnosticReadinessModule, times(2)).getDM20Packets(null, false);
-        verify(diagnosticReadinessModule, times(2)).getDM26Packets(null, false);
-        verify(diagnosticReadinessModule, times(2)).getDM21Packets(null, false);
+        verify(diagnosticReadinessModule, times(2)).getReadinessPackets(isNull(), eq(false), anyCollection());
         verify(j1939).interrupt();
     }
 
@@ -219,16 +208,11 @@ public class MonitorTrackingModuleTest {
     public void testDoesNotWriteOnChangeOfDM26() throws Exception {
         when(engineSpeedModule.isEngineCommunicating()).thenReturn(true);
 
-        when(diagnosticReadinessModule.getDM5Packets(null, false)).thenReturn(getDm5Packets());
-
-        when(diagnosticReadinessModule.getDM20Packets(null, false)).thenReturn(getDm20Packets());
-
         List<DM26TripDiagnosticReadinessPacket> dm26Packets2 = singletonList(
                 new DM26TripDiagnosticReadinessPacket(Packet.create(64952, 0, 8, 7, 6, 5, 4, 3, 2, 1)));
-        when(diagnosticReadinessModule.getDM26Packets(null, false)).thenReturn(getDm26Packets())
-                .thenReturn(dm26Packets2);
-
-        when(diagnosticReadinessModule.getDM21Packets(null, false)).thenReturn(getDm21Packets());
+        when(diagnosticReadinessModule.getReadinessPackets(isNull(), eq(false), anyCollection()))
+                .thenReturn(new ReadinessPackets(getDm5Packets(), getDm20Packets(), getDm26Packets(), getDm21Packets()))
+                .thenReturn(new ReadinessPackets(getDm5Packets(), getDm20Packets(), dm26Packets2, getDm21Packets()));
 
         Runnable runnable = runInstance();
         runnable.run(); // Initial Read Vehicle
@@ -258,10 +242,7 @@ public class MonitorTrackingModuleTest {
 
         String expectedMessages = "";
         expectedMessages += "Monitors/Ratios Update #1: Reading Engine Speed" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM20" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM26" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM21" + NL;
+        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5, DM20, DM26 and DM21" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 10 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 9 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 8 Seconds Until Next Update" + NL;
@@ -273,30 +254,22 @@ public class MonitorTrackingModuleTest {
         expectedMessages += "Monitors/Ratios Update #1: 2 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 1 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #2: Reading Engine Speed" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM5" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM20" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM26" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM21" + NL;
+        expectedMessages += "Monitors/Ratios Update #2: Requesting DM5, DM20, DM26 and DM21" + NL;
         expectedMessages += "Monitors/Ratios Update #2: 10 Seconds Until Next Update";
         assertEquals(expectedMessages, listener.getMessages());
 
         verify(executor).scheduleAtFixedRate(runnable, 0L, 1L, TimeUnit.SECONDS);
         verify(engineSpeedModule, times(2)).isEngineCommunicating();
         verify(reportFileModule, times(8)).incrementQueries();
-        verify(diagnosticReadinessModule, times(2)).getDM5Packets(null, false);
-        verify(diagnosticReadinessModule, times(2)).getDM20Packets(null, false);
-        verify(diagnosticReadinessModule, times(2)).getDM26Packets(null, false);
-        verify(diagnosticReadinessModule, times(2)).getDM21Packets(null, false);
+        verify(diagnosticReadinessModule, times(2)).getReadinessPackets(isNull(), eq(false), anyCollection());
         verify(j1939).interrupt();
     }
 
     @Test
     public void testHaltsOnEnd() throws Exception {
         when(engineSpeedModule.isEngineCommunicating()).thenReturn(true);
-        when(diagnosticReadinessModule.getDM5Packets(null, false)).thenReturn(getDm5Packets());
-        when(diagnosticReadinessModule.getDM20Packets(null, false)).thenReturn(getDm20Packets());
-        when(diagnosticReadinessModule.getDM26Packets(null, false)).thenReturn(getDm26Packets());
-        when(diagnosticReadinessModule.getDM21Packets(null, false)).thenReturn(getDm21Packets());
+        when(diagnosticReadinessModule.getReadinessPackets(isNull(), eq(false), anyCollection()))
+                .thenReturn(new ReadinessPackets(getDm5Packets(), getDm20Packets(), getDm26Packets(), getDm21Packets()));
 
         Runnable runnable = runInstance();
         runnable.run();
@@ -319,10 +292,7 @@ public class MonitorTrackingModuleTest {
 
         String expectedMessages = "";
         expectedMessages += "Monitors/Ratios Update #1: Reading Engine Speed" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM20" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM26" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM21" + NL;
+        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5, DM20, DM26 and DM21" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 10 Seconds Until Next Update";
 
         assertEquals(expectedMessages, listener.getMessages());
@@ -330,10 +300,7 @@ public class MonitorTrackingModuleTest {
         verify(executor).scheduleAtFixedRate(runnable, 0L, 1L, TimeUnit.SECONDS);
         verify(engineSpeedModule).isEngineCommunicating();
         verify(reportFileModule, times(4)).incrementQueries();
-        verify(diagnosticReadinessModule).getDM5Packets(null, false);
-        verify(diagnosticReadinessModule).getDM20Packets(null, false);
-        verify(diagnosticReadinessModule).getDM26Packets(null, false);
-        verify(diagnosticReadinessModule).getDM21Packets(null, false);
+        verify(diagnosticReadinessModule).getReadinessPackets(isNull(), eq(false), anyCollection());
         verify(j1939).interrupt();
     }
 
@@ -353,10 +320,8 @@ public class MonitorTrackingModuleTest {
     @Test
     public void testQueriesEvery10SecondsAndWritesEvery3Minutes() throws Exception {
         when(engineSpeedModule.isEngineCommunicating()).thenReturn(true);
-        when(diagnosticReadinessModule.getDM5Packets(null, false)).thenReturn(getDm5Packets());
-        when(diagnosticReadinessModule.getDM20Packets(null, false)).thenReturn(getDm20Packets());
-        when(diagnosticReadinessModule.getDM26Packets(null, false)).thenReturn(getDm26Packets());
-        when(diagnosticReadinessModule.getDM21Packets(null, false)).thenReturn(getDm21Packets());
+        when(diagnosticReadinessModule.getReadinessPackets(isNull(), eq(false), anyCollection()))
+                .thenReturn(new ReadinessPackets(getDm5Packets(), getDm20Packets(), getDm26Packets(), getDm21Packets()));
 
         Runnable runnable = runInstance();
 
@@ -420,25 +385,23 @@ public class MonitorTrackingModuleTest {
         assertEquals(expectedResults, listener.getResults());
 
         if (NL.length() == 2) {
-            assertEquals(28150, listener.getMessages().length());
+            assertEquals(24073, listener.getMessages().length());
         } else {
-            assertEquals(27620, listener.getMessages().length());
+            assertEquals(23651, listener.getMessages().length());
         }
 
         verify(executor).scheduleAtFixedRate(runnable, 0L, 1L, TimeUnit.SECONDS);
         verify(reportFileModule, times(36 * 4)).incrementQueries();
         verify(engineSpeedModule, times(36)).isEngineCommunicating();
-        verify(diagnosticReadinessModule, times(36)).getDM5Packets(null, false);
-        verify(diagnosticReadinessModule, times(36)).getDM20Packets(null, false);
-        verify(diagnosticReadinessModule, times(36)).getDM26Packets(null, false);
-        verify(diagnosticReadinessModule, times(36)).getDM21Packets(null, false);
+        verify(diagnosticReadinessModule, times(36)).getReadinessPackets(isNull(), eq(false), anyCollection());
         verify(j1939).interrupt();
     }
 
     @Test
     public void testStopsWithDM5() throws Exception {
         when(engineSpeedModule.isEngineCommunicating()).thenReturn(true);
-        when(diagnosticReadinessModule.getDM5Packets(null, false)).thenReturn(emptyList());
+        when(diagnosticReadinessModule.getReadinessPackets(isNull(), eq(false), anyCollection()))
+                .thenReturn(new ReadinessPackets(emptyList(), emptyList(), emptyList(), emptyList()));
 
         Runnable runnable = runInstance();
         runnable.run();
@@ -461,22 +424,22 @@ public class MonitorTrackingModuleTest {
 
         String expectedMessages = "";
         expectedMessages += "Monitors/Ratios Update #1: Reading Engine Speed" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5";
+        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5, DM20, DM26 and DM21";
 
         assertEquals(expectedMessages, listener.getMessages());
 
         verify(executor).scheduleAtFixedRate(runnable, 0L, 1L, TimeUnit.SECONDS);
         verify(engineSpeedModule).isEngineCommunicating();
-        verify(reportFileModule).incrementQueries();
-        verify(diagnosticReadinessModule).getDM5Packets(null, false);
+        verify(reportFileModule, times(4)).incrementQueries();
+        verify(diagnosticReadinessModule).getReadinessPackets(isNull(), eq(false), anyCollection());
         verify(j1939).interrupt();
     }
 
     @Test
     public void testStopsWithoutDM20() throws Exception {
         when(engineSpeedModule.isEngineCommunicating()).thenReturn(true);
-        when(diagnosticReadinessModule.getDM5Packets(null, false)).thenReturn(getDm5Packets());
-        when(diagnosticReadinessModule.getDM20Packets(null, false)).thenReturn(emptyList());
+        when(diagnosticReadinessModule.getReadinessPackets(isNull(), eq(false), anyCollection()))
+                .thenReturn(new ReadinessPackets(getDm5Packets(), emptyList(), emptyList(), emptyList()));
 
         Runnable runnable = runInstance();
         runnable.run();
@@ -499,26 +462,22 @@ public class MonitorTrackingModuleTest {
 
         String expectedMessages = "";
         expectedMessages += "Monitors/Ratios Update #1: Reading Engine Speed" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM20";
+        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5, DM20, DM26 and DM21";
 
         assertEquals(expectedMessages, listener.getMessages());
 
         verify(executor).scheduleAtFixedRate(runnable, 0L, 1L, TimeUnit.SECONDS);
         verify(engineSpeedModule).isEngineCommunicating();
-        verify(reportFileModule, times(2)).incrementQueries();
-        verify(diagnosticReadinessModule).getDM5Packets(null, false);
-        verify(diagnosticReadinessModule).getDM20Packets(null, false);
+        verify(reportFileModule, times(4)).incrementQueries();
+        verify(diagnosticReadinessModule).getReadinessPackets(isNull(), eq(false), anyCollection());
         verify(j1939).interrupt();
     }
 
     @Test
     public void testStopsWithoutDM21() throws Exception {
         when(engineSpeedModule.isEngineCommunicating()).thenReturn(true);
-        when(diagnosticReadinessModule.getDM5Packets(null, false)).thenReturn(getDm5Packets());
-        when(diagnosticReadinessModule.getDM20Packets(null, false)).thenReturn(getDm20Packets());
-        when(diagnosticReadinessModule.getDM26Packets(null, false)).thenReturn(getDm26Packets());
-        when(diagnosticReadinessModule.getDM21Packets(null, false)).thenReturn(emptyList());
+        when(diagnosticReadinessModule.getReadinessPackets(isNull(), eq(false), anyCollection()))
+                .thenReturn(new ReadinessPackets(getDm5Packets(), getDm20Packets(), getDm26Packets(), emptyList()));
 
         Runnable runnable = runInstance();
         runnable.run();
@@ -541,29 +500,22 @@ public class MonitorTrackingModuleTest {
 
         String expectedMessages = "";
         expectedMessages += "Monitors/Ratios Update #1: Reading Engine Speed" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM20" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM26" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM21";
+        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5, DM20, DM26 and DM21";
 
         assertEquals(expectedMessages, listener.getMessages());
 
         verify(executor).scheduleAtFixedRate(runnable, 0L, 1L, TimeUnit.SECONDS);
         verify(engineSpeedModule).isEngineCommunicating();
         verify(reportFileModule, times(4)).incrementQueries();
-        verify(diagnosticReadinessModule).getDM5Packets(null, false);
-        verify(diagnosticReadinessModule).getDM20Packets(null, false);
-        verify(diagnosticReadinessModule).getDM26Packets(null, false);
-        verify(diagnosticReadinessModule).getDM21Packets(null, false);
+        verify(diagnosticReadinessModule).getReadinessPackets(isNull(), eq(false), anyCollection());
         verify(j1939).interrupt();
     }
 
     @Test
     public void testStopsWithoutDM26() throws Exception {
         when(engineSpeedModule.isEngineCommunicating()).thenReturn(true);
-        when(diagnosticReadinessModule.getDM5Packets(null, false)).thenReturn(getDm5Packets());
-        when(diagnosticReadinessModule.getDM20Packets(null, false)).thenReturn(getDm20Packets());
-        when(diagnosticReadinessModule.getDM26Packets(null, false)).thenReturn(emptyList());
+        when(diagnosticReadinessModule.getReadinessPackets(isNull(), eq(false), anyCollection()))
+                .thenReturn(new ReadinessPackets(getDm5Packets(), getDm20Packets(), emptyList(), emptyList()));
 
         Runnable runnable = runInstance();
         runnable.run();
@@ -586,18 +538,14 @@ public class MonitorTrackingModuleTest {
 
         String expectedMessages = "";
         expectedMessages += "Monitors/Ratios Update #1: Reading Engine Speed" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM20" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM26";
+        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5, DM20, DM26 and DM21";
 
         assertEquals(expectedMessages, listener.getMessages());
 
         verify(executor).scheduleAtFixedRate(runnable, 0L, 1L, TimeUnit.SECONDS);
         verify(engineSpeedModule).isEngineCommunicating();
-        verify(reportFileModule, times(3)).incrementQueries();
-        verify(diagnosticReadinessModule).getDM5Packets(null, false);
-        verify(diagnosticReadinessModule).getDM20Packets(null, false);
-        verify(diagnosticReadinessModule).getDM26Packets(null, false);
+        verify(reportFileModule, times(4)).incrementQueries();
+        verify(diagnosticReadinessModule).getReadinessPackets(isNull(), eq(false), anyCollection());
         verify(j1939).interrupt();
     }
 
@@ -637,17 +585,12 @@ public class MonitorTrackingModuleTest {
     public void testWritesOnChangeOfDM20() throws Exception {
         when(engineSpeedModule.isEngineCommunicating()).thenReturn(true);
 
-        when(diagnosticReadinessModule.getDM5Packets(null, false)).thenReturn(getDm5Packets());
-
         DM20MonitorPerformanceRatioPacket dm20Packet = new DM20MonitorPerformanceRatioPacket(
                 Packet.create(49664, 0x00, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1));
         List<DM20MonitorPerformanceRatioPacket> dm20Packets2 = singletonList(dm20Packet);
-        when(diagnosticReadinessModule.getDM20Packets(null, false)).thenReturn(getDm20Packets())
-                .thenReturn(dm20Packets2);
-
-        when(diagnosticReadinessModule.getDM26Packets(null, false)).thenReturn(getDm26Packets());
-
-        when(diagnosticReadinessModule.getDM21Packets(null, false)).thenReturn(getDm21Packets());
+        when(diagnosticReadinessModule.getReadinessPackets(isNull(), eq(false), anyCollection()))
+                .thenReturn(new ReadinessPackets(getDm5Packets(), getDm20Packets(), getDm26Packets(), getDm21Packets()))
+                .thenReturn(new ReadinessPackets(getDm5Packets(), dm20Packets2, getDm26Packets(), getDm21Packets()));
 
         Runnable runnable = runInstance();
         runnable.run(); // Initial Read Vehicle
@@ -688,10 +631,7 @@ public class MonitorTrackingModuleTest {
 
         String expectedMessages = "";
         expectedMessages += "Monitors/Ratios Update #1: Reading Engine Speed" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM20" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM26" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM21" + NL;
+        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5, DM20, DM26 and DM21" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 10 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 9 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 8 Seconds Until Next Update" + NL;
@@ -703,20 +643,14 @@ public class MonitorTrackingModuleTest {
         expectedMessages += "Monitors/Ratios Update #1: 2 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 1 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #2: Reading Engine Speed" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM5" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM20" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM26" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM21" + NL;
+        expectedMessages += "Monitors/Ratios Update #2: Requesting DM5, DM20, DM26 and DM21" + NL;
         expectedMessages += "Monitors/Ratios Update #2: 10 Seconds Until Next Update";
         assertEquals(expectedMessages, listener.getMessages());
 
         verify(executor).scheduleAtFixedRate(runnable, 0L, 1L, TimeUnit.SECONDS);
         verify(engineSpeedModule, times(2)).isEngineCommunicating();
         verify(reportFileModule, times(8)).incrementQueries();
-        verify(diagnosticReadinessModule, times(2)).getDM5Packets(null, false);
-        verify(diagnosticReadinessModule, times(2)).getDM20Packets(null, false);
-        verify(diagnosticReadinessModule, times(2)).getDM26Packets(null, false);
-        verify(diagnosticReadinessModule, times(2)).getDM21Packets(null, false);
+        verify(diagnosticReadinessModule, times(2)).getReadinessPackets(isNull(), eq(false), anyCollection());
         verify(j1939).interrupt();
     }
 
@@ -727,13 +661,9 @@ public class MonitorTrackingModuleTest {
         DM5DiagnosticReadinessPacket dm5Packet2 = new DM5DiagnosticReadinessPacket(
                 Packet.create(65230, 0x00, 8, 7, 6, 5, 4, 3, 2, 1));
         List<DM5DiagnosticReadinessPacket> dm5Packets2 = singletonList(dm5Packet2);
-        when(diagnosticReadinessModule.getDM5Packets(null, false)).thenReturn(getDm5Packets()).thenReturn(dm5Packets2);
-
-        when(diagnosticReadinessModule.getDM20Packets(null, false)).thenReturn(getDm20Packets());
-
-        when(diagnosticReadinessModule.getDM26Packets(null, false)).thenReturn(getDm26Packets());
-
-        when(diagnosticReadinessModule.getDM21Packets(null, false)).thenReturn(getDm21Packets());
+        when(diagnosticReadinessModule.getReadinessPackets(isNull(), eq(false), anyCollection()))
+                .thenReturn(new ReadinessPackets(getDm5Packets(), getDm20Packets(), getDm26Packets(), getDm21Packets()))
+                .thenReturn(new ReadinessPackets(dm5Packets2, getDm20Packets(), getDm26Packets(), getDm21Packets()));
 
         Runnable runnable = runInstance();
         runnable.run(); // Initial Read Vehicle
@@ -774,10 +704,7 @@ public class MonitorTrackingModuleTest {
 
         String expectedMessages = "";
         expectedMessages += "Monitors/Ratios Update #1: Reading Engine Speed" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM20" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM26" + NL;
-        expectedMessages += "Monitors/Ratios Update #1: Requesting DM21" + NL;
+        expectedMessages += "Monitors/Ratios Update #1: Requesting DM5, DM20, DM26 and DM21" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 10 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 9 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 8 Seconds Until Next Update" + NL;
@@ -789,20 +716,14 @@ public class MonitorTrackingModuleTest {
         expectedMessages += "Monitors/Ratios Update #1: 2 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #1: 1 Seconds Until Next Update" + NL;
         expectedMessages += "Monitors/Ratios Update #2: Reading Engine Speed" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM5" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM20" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM26" + NL;
-        expectedMessages += "Monitors/Ratios Update #2: Requesting DM21" + NL;
+        expectedMessages += "Monitors/Ratios Update #2: Requesting DM5, DM20, DM26 and DM21" + NL;
         expectedMessages += "Monitors/Ratios Update #2: 10 Seconds Until Next Update";
         assertEquals(expectedMessages, listener.getMessages());
 
         verify(executor).scheduleAtFixedRate(runnable, 0L, 1L, TimeUnit.SECONDS);
         verify(engineSpeedModule, times(2)).isEngineCommunicating();
         verify(reportFileModule, times(8)).incrementQueries();
-        verify(diagnosticReadinessModule, times(2)).getDM5Packets(null, false);
-        verify(diagnosticReadinessModule, times(2)).getDM20Packets(null, false);
-        verify(diagnosticReadinessModule, times(2)).getDM26Packets(null, false);
-        verify(diagnosticReadinessModule, times(2)).getDM21Packets(null, false);
+        verify(diagnosticReadinessModule, times(2)).getReadinessPackets(isNull(), eq(false), anyCollection());
         verify(j1939).interrupt();
     }
 }
@@ -0,0 +1,65 @@
+package net.soliddesign.j1939;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.etools.j1939tools.bus.AdapterClock;
+import org.junit.Test;
+
+public class AdapterClockTest {
+
+    /** 2021-01-01 in ns since the epoch. */
+    private static final long EPOCH = 1_609_459_200_000_000_000L;
+
+    /**
+     * Verify that the drift of an adapter clock running 100 ppm fast is
+     * estimated through jittery samples, and that ticks keep converting across
+     * a rollover.
+     */
+    @Test
+    public void testDrift() {
+        Random random = new Random(1);
+        long[] tick = { 0xF000_0000L };
+        // the system time a frame is read: the true time plus up to 200 us
+        long start = tick[0];
+        AdapterClock clock = new AdapterClock(1000,
+                                              () -> EPOCH + Math.round((tick[0] - start) * 1000 / 1.0001)
+                                                      + random.nextInt(200_000));
+        long last = 0;
+        // 80 s of frames every 10 ms, rolling over at about 68 s
+        for (int i = 0; i < 8000; i++) {
+            tick[0] = start + i * 10_000L;
+            long nanos = clock.toEpochNanos(tick[0] & 0xFFFF_FFFFL);
+            assertTrue(nanos >= last);
+            last = nanos;
+            long expected = EPOCH + 100_000 + Math.round((tick[0] - start) * 1000 / 1.0001);
+            if (i > 1000) {
+                assertEquals(expected, nanos, 50_000);
+            }
+        }
+        assertEquals(100, clock.getSkewPpm(), 10);
+        assertEquals(AdapterClock.WINDOW, Math.min(clock.getSamples(), AdapterClock.WINDOW));
+        // uniform 0 to 200 us has a standard deviation of 58 us
+        assertEquals(58_000, clock.getJitterNanos(), 15_000);
+    }
+
+    /**
+     * Verify that an adapter reset starts a new fit rather than being taken as
+     * a rollover.
+     */
+    @Test
+    public void testReset() {
+        long[] wall = { EPOCH };
+        AdapterClock clock = new AdapterClock(1000, () -> wall[0]);
+        assertEquals(EPOCH, clock.toEpochNanos(50_000_000));
+        wall[0] += 1_000_000_000L;
+        assertEquals(EPOCH + 1_000_000_000L, clock.toEpochNanos(51_000_000));
+        assertEquals(2, clock.getSamples());
+
+        wall[0] += 1_000_000_000L;
+        assertEquals(EPOCH + 2_000_000_000L, clock.toEpochNanos(10));
+        assertEquals(1, clock.getSamples());
+    }
+}
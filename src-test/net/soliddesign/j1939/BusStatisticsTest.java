@@ -0,0 +1,121 @@
+package net.soliddesign.j1939;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.etools.j1939tools.bus.EchoBus;
+import org.etools.j1939tools.bus.Packet;
+import org.etools.j1939tools.j1939.BusStatistics;
+import org.junit.Test;
+
+public class BusStatisticsTest {
+
+    private static final long BASE = 1_600_000_000_000_000_000L;
+
+    private static Packet packet(long timeNanos, int id, int source, int... data) {
+        byte[] bytes = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            bytes[i] = (byte) data[i];
+        }
+        return Packet.create(timeNanos, Packet.NO_TICK, 6, id, source, false, bytes);
+    }
+
+    /**
+     * Verify the rates, jitter and TP counts of a known stream of frames.
+     */
+    @Test
+    public void testRates() throws Exception {
+        try (EchoBus bus = new EchoBus(0xF9);
+                BusStatistics stats = new BusStatistics(bus)) {
+            int count = 0;
+            for (int ms = 0; ms <= 3000; ms += 10) {
+                long time = BASE + ms * 1_000_000L;
+                // engine speed every 10 ms, 1 ms late every other frame
+                bus.send(packet(time + (ms % 20 == 0 ? 0 : 1_000_000L), 0xF004, 0x00, 1, 2, 3, 4, 5, 6, 7, 8));
+                count++;
+                if (ms % 100 == 0) {
+                    bus.send(packet(time, 0xFEF1, 0x17, 1, 2, 3, 4, 5, 6, 7, 8));
+                    count++;
+                }
+            }
+            bus.send(packet(BASE + 3_001_000_000L, 0xECFF, 0x00, 0x20, 11, 0, 2, 0xFF, 0xCA, 0xFE, 0));
+            bus.send(packet(BASE + 3_002_000_000L, 0xECF9, 0x00, 0xFF, 1, 0xFF, 0xFF, 0xFF, 0xD3, 0xFE, 0));
+            count += 2;
+
+            for (int i = 0; i < 100 && stats.getFrames() < count; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(count, stats.getFrames());
+            assertEquals(100, stats.getPgnRate(0xF004));
+            assertEquals(10, stats.getPgnRate(0xFEF1));
+            assertEquals(100, stats.getSourceRate(0x00));
+            assertEquals(10, stats.getSourceRate(0x17));
+            assertEquals(110, stats.getFramesPerSecond());
+            assertEquals(10_000_000, stats.getPgnInterval(0xF004), 1_000_000);
+            assertEquals(1_000_000, stats.getPgnJitter(0xF004), 300_000);
+            assertEquals(0, stats.getPgnJitter(0xFEF1), 1);
+            assertEquals(1, stats.getTpSessions());
+            assertEquals(1, stats.getTpAborts());
+            // EchoBus can't tell its speed
+            assertEquals(-1, stats.getBusLoad(), 0);
+        }
+    }
+
+    /**
+     * Verify the rates fall to 0 when the bus goes quiet, without another
+     * frame to roll the window.
+     */
+    @Test
+    public void testRatesRollWhenQuiet() throws Exception {
+        AtomicLong clock = new AtomicLong();
+        try (EchoBus bus = new EchoBus(0xF9);
+                BusStatistics stats = new BusStatistics(bus, clock::get)) {
+            for (int ms = 0; ms <= 1000; ms += 10) {
+                bus.send(packet(BASE + ms * 1_000_000L, 0xF004, 0x00, 1, 2, 3, 4, 5, 6, 7, 8));
+            }
+            for (int i = 0; i < 100 && stats.getFrames() < 101; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(100, stats.getFramesPerSecond());
+            assertEquals(100, stats.getPgnRate(0xF004));
+
+            clock.addAndGet(1_000_000_000L);
+            assertEquals(1, stats.getFramesPerSecond());
+            assertEquals(1, stats.getSourceRate(0x00));
+
+            clock.addAndGet(1_000_000_000L);
+            assertEquals(0, stats.getFramesPerSecond());
+            assertEquals(0, stats.getPgnRate(0xF004));
+            assertEquals(0, stats.getSourceRate(0x00));
+        }
+    }
+
+    /**
+     * Verify that once the PGN table is full, the frames of other PGNs are
+     * counted as untracked and the tracked PGNs are still found.
+     */
+    @Test
+    public void testTableFull() throws Exception {
+        try (EchoBus bus = new EchoBus(0xF9);
+                BusStatistics stats = new BusStatistics(bus)) {
+            bus.send(packet(BASE, 0xF004, 0x00, 1, 2, 3, 4, 5, 6, 7, 8));
+            int count = 1;
+            // PDU2 PGNs, so each is distinct
+            for (int pgn = 0x1F000; pgn < 0x20000; pgn++) {
+                bus.send(packet(BASE + count * 1_000L, pgn, 0x00, 1, 2, 3, 4, 5, 6, 7, 8));
+                count++;
+            }
+            bus.send(packet(BASE + count * 1_000L, 0xF004, 0x00, 1, 2, 3, 4, 5, 6, 7, 8));
+            long interval = count * 1_000L;
+            count++;
+            for (int i = 0; i < 100 && stats.getFrames() < count; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(count, stats.getFrames());
+            assertTrue(stats.getUntracked() >= count - 1 - BusStatistics.PGN_SLOTS);
+            assertEquals(interval, stats.getPgnInterval(0xF004), 0);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package net.soliddesign.j1939;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.etools.j1939tools.bus.CaptureLogger;
+import org.etools.j1939tools.bus.CaptureLogger.SyncPolicy;
+import org.etools.j1939tools.bus.CaptureReader;
+import org.etools.j1939tools.bus.CaptureWriter;
+import org.etools.j1939tools.bus.Packet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CaptureLoggerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Verify that offering to a full buffer drops without blocking, and that
+     * every packet offered is either in the capture or counted in a gap. Gaps
+     * are stamped in the time base of the packets, so the capture stays in
+     * time order.
+     */
+    @Test
+    public void testDropsAreRecorded() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        int count = 100_000;
+        CaptureLogger logger = new CaptureLogger(new CaptureWriter(directory,
+                                                                   "log",
+                                                                   CaptureWriter.DEFAULT_SEGMENT_BYTES),
+                                                 16,
+                                                 10,
+                                                 TimeUnit.MILLISECONDS,
+                                                 SyncPolicy.NEVER);
+        try {
+            for (int i = 0; i < count; i++) {
+                logger.offer(Packet.create(1_600_000_000_000_000_000L + i,
+                                           Packet.NO_TICK,
+                                           6,
+                                           0xF004,
+                                           0,
+                                           false,
+                                           new byte[] { (byte) i, 2, 3, 4, 5, 6, 7, 8 }));
+            }
+            logger.recordDropped(5);
+        } finally {
+            logger.close();
+        }
+        assertTrue(logger.getDropped() > 5);
+        assertEquals(count + 5, logger.getWritten() + logger.getDropped());
+
+        long frames = 0;
+        long dropped = 0;
+        long time = 0;
+        try (CaptureReader reader = new CaptureReader(CaptureReader.findSegments(directory, "log"))) {
+            while (reader.next()) {
+                assertTrue(reader.getTimeNanos() >= time);
+                time = reader.getTimeNanos();
+                if (reader.isGap()) {
+                    dropped += reader.getDropped();
+                } else {
+                    frames++;
+                }
+            }
+        }
+        assertEquals(logger.getWritten(), frames);
+        assertEquals(logger.getDropped(), dropped);
+    }
+}
@@ -0,0 +1,103 @@
+package net.soliddesign.j1939;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import org.etools.j1939tools.bus.CaptureReader;
+import org.etools.j1939tools.bus.CaptureWriter;
+import org.etools.j1939tools.bus.Packet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CaptureTest {
+
+    private static final long BASE = 1_600_000_000_000_000_000L;
+
+    private static Packet frame(int i) {
+        return Packet.create(BASE + i * 1_000_000L,
+                             Packet.NO_TICK,
+                             6,
+                             0xF004,
+                             i & 0xFF,
+                             i % 7 == 0,
+                             new byte[] { (byte) i, (byte) (i >> 8), (byte) (i >> 16), 4, 5, 6, 7, 8 });
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Verify that frames, long packets and gaps are read back from a capture
+     * that rolled over several segments, and that the index finds a time.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        int count = 10_000;
+        byte[] longData = new byte[100];
+        for (int i = 0; i < longData.length; i++) {
+            longData[i] = (byte) i;
+        }
+        Packet longPacket = Packet.create(BASE + count * 1_000_000L, Packet.NO_TICK, 7, 0xFECA, 0x00, false, longData);
+        try (CaptureWriter writer = new CaptureWriter(directory, "test", 64 * 1024)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(frame(i));
+            }
+            writer.writeGap(BASE + count * 1_000_000L, 3);
+            writer.write(longPacket);
+            assertTrue(writer.getSegments().size() > 2);
+        }
+
+        List<Path> segments = CaptureReader.findSegments(directory, "test");
+        try (CaptureReader reader = new CaptureReader(segments)) {
+            for (int i = 0; i < count; i++) {
+                assertTrue(reader.next());
+                assertEquals(frame(i).toString(), reader.getPacket().toString());
+                assertEquals(BASE + i * 1_000_000L, reader.getTimeNanos());
+            }
+            assertTrue(reader.next());
+            assertTrue(reader.isGap());
+            assertEquals(3, reader.getDropped());
+            assertNull(reader.getPacket());
+            assertTrue(reader.next());
+            assertEquals(longPacket.toString(), reader.getPacket().toString());
+            assertEquals(7, reader.getPriority());
+            assertFalse(reader.next());
+
+            reader.seek(BASE + 7_654 * 1_000_000L);
+            assertTrue(reader.next());
+            assertEquals(frame(7_654).toString(), reader.getPacket().toString());
+        }
+    }
+
+    /**
+     * Verify that a capture converts to the same text the logger used to
+     * write.
+     */
+    @Test
+    public void testToAsc() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (CaptureWriter writer = new CaptureWriter(directory, "asc", CaptureWriter.DEFAULT_SEGMENT_BYTES)) {
+            for (int i = 0; i < 3; i++) {
+                writer.write(frame(i));
+            }
+        }
+        StringWriter out = new StringWriter();
+        Instant start = Instant.ofEpochSecond(0, BASE);
+        long frames = CaptureReader.toAsc(CaptureReader.findSegments(directory, "asc"), out, start);
+        assertEquals(3, frames);
+        StringBuilder expected = new StringBuilder("base hex timestamps absolute\n");
+        for (int i = 0; i < 3; i++) {
+            expected.append(frame(i).toVectorString(start)).append('\n');
+        }
+        assertEquals(expected.toString(), out.toString());
+    }
+}
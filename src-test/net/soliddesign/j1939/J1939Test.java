@@ -0,0 +1,344 @@
+package net.soliddesign.j1939;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.etools.j1939tools.bus.EchoBus;
+import org.etools.j1939tools.bus.Packet;
+import org.etools.j1939tools.bus.RequestResult;
+import org.etools.j1939tools.j1939.J1939;
+import org.etools.j1939tools.j1939.RequestCoalescer;
+import org.etools.j1939tools.j1939.ResponseLatencies;
+import org.etools.j1939tools.j1939.packets.DM11ClearActiveDTCsPacket;
+import org.etools.j1939tools.j1939.packets.EngineHoursPacket;
+import org.etools.j1939tools.j1939.packets.GenericPacket;
+import org.etools.j1939tools.j1939.packets.ParsedPacket;
+import org.etools.j1939tools.j1939.packets.VehicleIdentificationPacket;
+import org.junit.Test;
+
+public class J1939Test {
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Verify that modules that answer a global request with BUSY are asked DS
+     * at the same time, and their responses are reported in address order.
+     */
+    @Test
+    public void testBusyFallbackIsConcurrent() throws Exception {
+        int[] modules = { 0x17, 0x00, 0x03 };
+        try (EchoBus bus = new EchoBus(0xF9)) {
+            Stream<Packet> requests = bus.read(10, TimeUnit.SECONDS);
+            Thread responder = new Thread(() -> requests.filter(p -> p.getPgn() == 0xEA00 && p.getSource() == 0xF9)
+                    .forEach(request -> {
+                        int destination = request.getDestination();
+                        for (int module : modules) {
+                            if (destination == 0xFF) {
+                                // NACK BUSY engine hours
+                                bus.send(Packet.create(0xE8FF, module, 3, 0xFF, 0xFF, 0xFF, 0xF9, 0xE5, 0xFE, 0x00));
+                            } else if (destination == module) {
+                                new Thread(() -> {
+                                    sleep(600);
+                                    bus.send(Packet.create(0xFEE5, module, module, 0, 0, 0, 0, 0, 0, 0));
+                                }).start();
+                            }
+                        }
+                    }));
+            responder.setDaemon(true);
+            responder.start();
+
+            // load the J1939DA before timing
+            new EngineHoursPacket(Packet.create(0xFEE5, 0x00, 0, 0, 0, 0, 0, 0, 0, 0)).toString();
+
+            J1939 j1939 = new J1939(bus);
+            List<String> log = Collections.synchronizedList(new ArrayList<>());
+            long start = System.nanoTime();
+            RequestResult<EngineHoursPacket> result = j1939.requestGlobal("Engine Hours",
+                                                                          EngineHoursPacket.class,
+                                                                          log::add);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals(List.of(0x00, 0x03, 0x17),
+                         result.getEither()
+                               .stream()
+                               .map(e -> ((ParsedPacket) e.resolve()).getSourceAddress())
+                               .collect(Collectors.toList()));
+            assertTrue(result.getEither().stream().allMatch(e -> e.left.isPresent()));
+            // two global requests and one round of DS, not three
+            assertTrue("took " + elapsed + " ms", elapsed < 2 * J1939.GLOBAL_TIMEOUT + 1200);
+            // the DS requests are logged in address order
+            List<String> ds = log.stream()
+                                 .filter(s -> s.contains("18EA") && !s.contains("18EAFF"))
+                                 .collect(Collectors.toList());
+            assertEquals(3, ds.size());
+            assertTrue(ds.get(0).contains("18EA00F9"));
+            assertTrue(ds.get(1).contains("18EA03F9"));
+            assertTrue(ds.get(2).contains("18EA17F9"));
+        }
+    }
+
+    /**
+     * Verify that a global request with expected responders returns once they
+     * have all responded, and keeps the other responses that came first.
+     */
+    @Test
+    public void testExpectedRespondersCompleteEarly() throws Exception {
+        try (EchoBus bus = new EchoBus(0xF9)) {
+            Stream<Packet> requests = bus.read(10, TimeUnit.SECONDS);
+            Thread responder = new Thread(() -> requests.filter(p -> p.getPgn() == 0xEA00 && p.getSource() == 0xF9)
+                    .forEach(request -> {
+                        bus.send(Packet.create(0xFEE5, 0x17, 0x17, 0, 0, 0, 0, 0, 0, 0));
+                        // NACK from the engine
+                        bus.send(Packet.create(0xE8FF, 0x00, 1, 0xFF, 0xFF, 0xFF, 0xF9, 0xE5, 0xFE, 0x00));
+                    }));
+            responder.setDaemon(true);
+            responder.start();
+
+            // load the J1939DA before timing
+            new EngineHoursPacket(Packet.create(0xFEE5, 0x00, 0, 0, 0, 0, 0, 0, 0, 0)).toString();
+
+            J1939 j1939 = new J1939(bus);
+            long start = System.nanoTime();
+            RequestResult<EngineHoursPacket> result = j1939.requestGlobal(null,
+                                                                          0xFEE5,
+                                                                          j1939.createRequestPacket(0xFEE5, 0xFF),
+                                                                          s -> {
+                                                                          },
+                                                                          Set.of(0x00));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue("took " + elapsed + " ms", elapsed < J1939.GLOBAL_TIMEOUT / 2);
+            // the NACK from the engine and the response from the other module
+            assertEquals(List.of(0x17),
+                         result.getPackets()
+                               .stream()
+                               .map(p -> p.getSourceAddress())
+                               .collect(Collectors.toList()));
+            assertEquals(List.of(0x00),
+                         result.getAcks()
+                               .stream()
+                               .map(p -> p.getSourceAddress())
+                               .collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Verify that a batch of global requests is answered in one window, with
+     * the responses routed to the PGN they answer.
+     */
+    @Test
+    public void testBatchedRequests() throws Exception {
+        try (EchoBus bus = new EchoBus(0xF9)) {
+            Stream<Packet> requests = bus.read(10, TimeUnit.SECONDS);
+            Thread responder = new Thread(() -> requests.filter(p -> p.getPgn() == 0xEA00 && p.getSource() == 0xF9)
+                    .forEach(request -> {
+                        int pgn = request.get24(0);
+                        bus.send(Packet.create(pgn, 0x00, 1, 2, 3, 4, 5, 6, 7, 8));
+                        // NACK from a module without the PGN
+                        bus.send(Packet.create(0xE8FF,
+                                               0x17,
+                                               1,
+                                               0xFF,
+                                               0xFF,
+                                               0xFF,
+                                               0xF9,
+                                               pgn & 0xFF,
+                                               (pgn >> 8) & 0xFF,
+                                               pgn >> 16));
+                    }));
+            responder.setDaemon(true);
+            responder.start();
+
+            // load the J1939DA before timing
+            new EngineHoursPacket(Packet.create(0xFEE5, 0x00, 0, 0, 0, 0, 0, 0, 0, 0)).toString();
+
+            J1939 j1939 = new J1939(bus);
+            long start = System.nanoTime();
+            Map<Integer, RequestResult<GenericPacket>> results = j1939.requestGlobals(Set.of(), 0xFEE5, 0xFEE0, 0xFEC1);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // one window, not three
+            assertTrue("took " + elapsed + " ms", elapsed < 2 * J1939.GLOBAL_TIMEOUT);
+            assertEquals(List.of(0xFEE5, 0xFEE0, 0xFEC1), List.copyOf(results.keySet()));
+            results.forEach((pgn, result) -> {
+                assertEquals(1, result.getPackets().size());
+                assertEquals((int) pgn, result.getPackets().get(0).getPacket().getPgn());
+                assertEquals(1, result.getAcks().size());
+                assertEquals((int) pgn, result.getAcks().get(0).getPgnRequested());
+            });
+
+            // returns once the expected modules have answered every request
+            start = System.nanoTime();
+            results = j1939.requestGlobals(Set.of(0x00, 0x17), 0xFEE5, 0xFEE0);
+            elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("took " + elapsed + " ms", elapsed < J1939.GLOBAL_TIMEOUT / 2);
+            assertEquals(2, results.values().stream().mapToInt(r -> r.getPackets().size()).sum());
+        }
+    }
+
+    /**
+     * Verify that identical requests made at the same time share one request
+     * on the bus, and each caller gets the log of it.
+     */
+    @Test
+    public void testIdenticalRequestsAreCoalesced() throws Exception {
+        try (EchoBus bus = new EchoBus(0xF9)) {
+            AtomicInteger count = new AtomicInteger();
+            Stream<Packet> requests = bus.read(10, TimeUnit.SECONDS);
+            Thread responder = new Thread(() -> requests.filter(p -> p.getPgn() == 0xEA00 && p.getSource() == 0xF9)
+                    .forEach(request -> {
+                        count.incrementAndGet();
+                        bus.send(Packet.create(0xFEE5, 0x00, 1, 2, 3, 4, 5, 6, 7, 8));
+                    }));
+            responder.setDaemon(true);
+            responder.start();
+
+            J1939 j1939 = new J1939(bus);
+            List<String> log1 = Collections.synchronizedList(new ArrayList<>());
+            List<String> log2 = Collections.synchronizedList(new ArrayList<>());
+            CompletableFuture<RequestResult<EngineHoursPacket>> first = CompletableFuture
+                    .supplyAsync(() -> j1939.requestGlobal("Engine Hours", EngineHoursPacket.class, log1::add));
+            Thread.sleep(100);
+            RequestResult<EngineHoursPacket> second = j1939.requestGlobal("Engine Hours",
+                                                                          EngineHoursPacket.class,
+                                                                          log2::add);
+
+            assertEquals(1, count.get());
+            assertEquals(1, j1939.getCoalesced());
+            assertEquals(1, first.get().getPackets().size());
+            assertEquals(first.get().getPackets(), second.getPackets());
+            // each has its own title, then the same request and response
+            assertEquals(log1.size(), log2.size());
+            assertEquals(log1.subList(1, log1.size()), log2.subList(1, log2.size()));
+            assertTrue(log2.stream().anyMatch(s -> s.contains("18FEE500")));
+        }
+    }
+
+    /**
+     * Verify that identical requests made at the same time through two J1939s
+     * sharing a coalescer, like a view and a controller, share one request on
+     * the bus, and each caller gets the log of it.
+     */
+    @Test
+    public void testIdenticalRequestsAreCoalescedAcrossJ1939s() throws Exception {
+        try (EchoBus bus = new EchoBus(0xF9)) {
+            AtomicInteger count = new AtomicInteger();
+            Stream<Packet> requests = bus.read(10, TimeUnit.SECONDS);
+            Thread responder = new Thread(() -> requests.filter(p -> p.getPgn() == 0xEA00 && p.getSource() == 0xF9)
+                    .forEach(request -> {
+                        count.incrementAndGet();
+                        bus.send(Packet.create(0xFEE5, 0x00, 1, 2, 3, 4, 5, 6, 7, 8));
+                    }));
+            responder.setDaemon(true);
+            responder.start();
+
+            RequestCoalescer coalescer = new RequestCoalescer();
+            J1939 view = new J1939(bus);
+            view.setCoalescer(coalescer);
+            J1939 controller = new J1939(bus);
+            controller.setCoalescer(coalescer);
+            List<String> log1 = Collections.synchronizedList(new ArrayList<>());
+            List<String> log2 = Collections.synchronizedList(new ArrayList<>());
+            CompletableFuture<RequestResult<EngineHoursPacket>> first = CompletableFuture
+                    .supplyAsync(() -> view.requestGlobal("Engine Hours", EngineHoursPacket.class, log1::add));
+            Thread.sleep(100);
+            RequestResult<EngineHoursPacket> second = controller.requestGlobal("Engine Hours",
+                                                                               EngineHoursPacket.class,
+                                                                               log2::add);
+
+            assertEquals(1, count.get());
+            assertEquals(1, coalescer.getCoalesced());
+            assertEquals(1, first.get().getPackets().size());
+            assertEquals(first.get().getPackets(), second.getPackets());
+            assertEquals(log1.subList(1, log1.size()), log2.subList(1, log2.size()));
+            assertTrue(log2.stream().anyMatch(s -> s.contains("18FEE500")));
+        }
+    }
+
+    @Test
+    public void testStaticResponsesAreCached() throws Exception {
+        try (EchoBus bus = new EchoBus(0xF9)) {
+            AtomicInteger count = new AtomicInteger();
+            Stream<Packet> requests = bus.read(10, TimeUnit.SECONDS);
+            Thread responder = new Thread(() -> requests.filter(p -> p.getPgn() == 0xEA00 && p.getSource() == 0xF9)
+                    .filter(p -> p.get24(0) == VehicleIdentificationPacket.PGN)
+                    .forEach(request -> {
+                        count.incrementAndGet();
+                        bus.send(Packet.create(0xFEEC, 0x00, "12345678901234567*".getBytes()));
+                    }));
+            responder.setDaemon(true);
+            responder.start();
+
+            J1939 j1939 = new J1939(bus);
+            List<String> log = new ArrayList<>();
+            RequestResult<VehicleIdentificationPacket> first = j1939
+                    .requestGlobal("VIN", VehicleIdentificationPacket.class, log::add);
+            log.clear();
+            RequestResult<VehicleIdentificationPacket> second = j1939
+                    .requestGlobal("VIN", VehicleIdentificationPacket.class, log::add);
+
+            assertEquals(1, count.get());
+            assertEquals(1, first.getPackets().size());
+            assertEquals(first.getPackets(), second.getPackets());
+            assertEquals(1, j1939.getResponseCache().getHits());
+            assertEquals(1, j1939.getResponseCache().getMisses());
+            assertTrue(log.stream().anyMatch(s -> s.endsWith("(cached)")));
+
+            // a DM11 may change what the modules report
+            j1939.requestForAcks(log::add, "DM11", DM11ClearActiveDTCsPacket.PGN);
+            j1939.requestGlobal("VIN", VehicleIdentificationPacket.class, log::add);
+            assertEquals(2, count.get());
+        }
+    }
+
+    @Test
+    public void testLearnedDeadline() throws Exception {
+        try (EchoBus bus = new EchoBus(0xF9)) {
+            AtomicBoolean respond = new AtomicBoolean(true);
+            Stream<Packet> requests = bus.read(20, TimeUnit.SECONDS);
+            Thread responder = new Thread(() -> requests.filter(p -> p.getPgn() == 0xEA00 && p.getSource() == 0xF9)
+                    .filter(p -> respond.get())
+                    .forEach(request -> bus.send(Packet.create(0xFEE5, 0x00, 1, 2, 3, 4, 5, 6, 7, 8))));
+            responder.setDaemon(true);
+            responder.start();
+
+            J1939 j1939 = new J1939(bus);
+            int pgn = EngineHoursPacket.PGN;
+            List<String> log = new ArrayList<>();
+            Packet request = j1939.createRequestPacket(pgn, 0xFF);
+            for (int i = 0; i < ResponseLatencies.MIN_SAMPLES; i++) {
+                j1939.requestGlobal(null, pgn, request, log::add, Set.of(0));
+            }
+            assertEquals(ResponseLatencies.MIN_SAMPLES, j1939.getLatencies().getHistogram(0, pgn).getCount());
+            long deadline = j1939.getLatencies().getDeadline(pgn, Set.of(0), J1939.GLOBAL_TIMEOUT);
+            assertTrue("" + deadline, deadline < J1939.GLOBAL_TIMEOUT);
+            // a module not heard from yet gets the full window
+            assertEquals(J1939.GLOBAL_TIMEOUT, j1939.getLatencies().getDeadline(pgn, Set.of(0, 1), J1939.GLOBAL_TIMEOUT));
+
+            respond.set(false);
+            long start = System.currentTimeMillis();
+            assertTrue(j1939.requestGlobal(null, pgn, request, log::add, Set.of(0)).getPackets().isEmpty());
+            assertTrue(System.currentTimeMillis() - start < J1939.GLOBAL_TIMEOUT);
+            // the miss is forgotten so the next request waits the full window
+            assertEquals(null, j1939.getLatencies().getHistogram(0, pgn));
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package net.soliddesign.j1939;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.etools.j1939tools.bus.LatencyHistogram;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    /** Verify percentiles are reported within 25% of the true value. */
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(10_000_000, histogram.getMax());
+        assertEquals(5_000_500, histogram.getMean(), 1);
+        for (double p : new double[] { 1, 50, 90, 99, 100 }) {
+            long actual = (long) (p * 100) * 1000;
+            long reported = histogram.getPercentile(p);
+            assertTrue(p + ": " + reported, reported >= actual && reported <= actual * 1.25);
+        }
+        histogram.reset();
+        assertEquals(0, histogram.getPercentile(50));
+    }
+}
@@ -0,0 +1,218 @@
+package net.soliddesign.j1939;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.etools.j1939tools.bus.MultiQueue;
+import org.etools.j1939tools.bus.Packet;
+import org.etools.j1939tools.bus.PacketFilter;
+import org.etools.j1939tools.bus.StreamStatistics;
+import org.junit.Test;
+
+public class MultiQueueTest {
+
+    /** Verify that a stream that falls behind still sees every item while the ring grows. */
+    @Test
+    public void testSlowStreamSeesAllItems() {
+        try (MultiQueue<Integer> queue = new MultiQueue<>()) {
+            Stream<Integer> stream = queue.stream(1, TimeUnit.SECONDS);
+            int count = 10_000;
+            for (int i = 0; i < count; i++) {
+                queue.add(i);
+            }
+            assertEquals(IntStream.range(0, count).boxed().collect(Collectors.toList()),
+                         stream.limit(count).collect(Collectors.toList()));
+        }
+    }
+
+    /** Verify that a duplicate starts where the original is and is independent of it. */
+    @Test
+    public void testDuplicate() {
+        try (MultiQueue<Integer> queue = new MultiQueue<>()) {
+            Stream<Integer> stream = queue.stream(1, TimeUnit.SECONDS);
+            queue.add(1);
+            queue.add(2);
+            Iterator<Integer> it = stream.iterator();
+            assertEquals(1, it.next().intValue());
+            Stream<Integer> duplicate = queue.duplicate(stream, 1, TimeUnit.SECONDS);
+            queue.add(3);
+            assertEquals(List.of(2, 3), duplicate.limit(2).collect(Collectors.toList()));
+            assertEquals(2, it.next().intValue());
+        }
+    }
+
+    /** Verify that a parked stream is woken by a publish rather than by its timeout. */
+    @Test
+    public void testParkedStreamIsWoken() throws Exception {
+        try (MultiQueue<Integer> queue = new MultiQueue<>()) {
+            Stream<Integer> stream = queue.stream(5, TimeUnit.SECONDS);
+            CompletableFuture<Integer> result = CompletableFuture.supplyAsync(() -> stream.findFirst().orElse(-1));
+            Thread.sleep(200);
+            long start = System.currentTimeMillis();
+            queue.add(42);
+            assertEquals(42, result.get().intValue());
+            assertTrue(System.currentTimeMillis() - start < 1000);
+        }
+    }
+
+    /**
+     * Verify that a stream that falls more than the capacity behind is told
+     * how much it lost and then continues with the oldest retained item.
+     */
+    @Test
+    public void testOverflow() {
+        try (MultiQueue<Integer> queue = new MultiQueue<>(16)) {
+            Stream<Integer> stream = queue.stream(1, TimeUnit.SECONDS);
+            for (int i = 0; i < 100; i++) {
+                queue.add(i);
+            }
+            Iterator<Integer> it = stream.iterator();
+            try {
+                it.next();
+                fail("expected overflow");
+            } catch (MultiQueue.OverflowException e) {
+                assertTrue(e.getDropped() > 0);
+            }
+            StreamStatistics stats = queue.getStatistics(stream).orElseThrow();
+            assertTrue(stats.getDropped() > 0);
+            assertEquals(100, stats.getDropped() + stats.getLag());
+            int first = it.next();
+            assertEquals(stats.getDropped(), first);
+            assertTrue(queue.getDropped() > 0);
+        }
+    }
+
+    /**
+     * Verify that a keyed stream only returns matching items and is not woken
+     * by items it can not match.
+     */
+    @Test
+    public void testKeyedFilter() throws Exception {
+        try (MultiQueue<Integer> queue = new MultiQueue<>(i -> i % 10)) {
+            MultiQueue.KeyedFilter<Integer> filter = new MultiQueue.KeyedFilter<>() {
+                @Override
+                public int[] getKeys() {
+                    return new int[] { 3 };
+                }
+
+                @Override
+                public boolean test(Integer i) {
+                    return i % 10 == 3 && i > 10;
+                }
+            };
+            Stream<Integer> stream = queue.stream(1, TimeUnit.SECONDS, filter);
+            CompletableFuture<List<Integer>> result = CompletableFuture.supplyAsync(() -> stream.limit(2)
+                                                                                               .collect(Collectors.toList()));
+            for (int i = 0; i < 30; i++) {
+                queue.add(i);
+            }
+            assertEquals(List.of(13, 23), result.get());
+            assertEquals(2, queue.getStatistics(stream).orElseThrow().getDelivered());
+        }
+    }
+
+    /**
+     * Verify that a keyed stream steps over items of other keys without
+     * testing them, also across growth of the ring.
+     */
+    @Test
+    public void testKeyedStreamSkipsOtherKeys() {
+        try (MultiQueue<Integer> queue = new MultiQueue<>(i -> i % 10)) {
+            AtomicInteger tested = new AtomicInteger();
+            MultiQueue.KeyedFilter<Integer> filter = new MultiQueue.KeyedFilter<>() {
+                @Override
+                public int[] getKeys() {
+                    return new int[] { 3 };
+                }
+
+                @Override
+                public boolean test(Integer i) {
+                    tested.incrementAndGet();
+                    return i % 10 == 3;
+                }
+            };
+            Stream<Integer> stream = queue.stream(1, TimeUnit.SECONDS, filter);
+            for (int i = 0; i < 3000; i++) {
+                queue.add(i);
+            }
+            assertEquals(300, stream.limit(300).count());
+            assertEquals(300, tested.get());
+        }
+    }
+
+    /**
+     * Verify that a stream filtering on a source steps over the items of other
+     * sources, and of other keys, without running its filter.
+     */
+    @Test
+    public void testSourcedStreamSkipsOtherSources() {
+        try (MultiQueue<Integer> queue = new MultiQueue<>(i -> i % 10, i -> i / 10 % 10)) {
+            AtomicInteger tested = new AtomicInteger();
+            MultiQueue.KeyedFilter<Integer> filter = new MultiQueue.KeyedFilter<>() {
+                @Override
+                public int[] getKeys() {
+                    return new int[] { 3 };
+                }
+
+                @Override
+                public int[] getSources() {
+                    return new int[] { 4 };
+                }
+
+                @Override
+                public boolean test(Integer i) {
+                    tested.incrementAndGet();
+                    return i % 10 == 3 && i / 10 % 10 == 4;
+                }
+            };
+            Stream<Integer> stream = queue.stream(1, TimeUnit.SECONDS, filter);
+            for (int i = 0; i < 3000; i++) {
+                queue.add(i);
+            }
+            assertEquals(30, stream.limit(30).count());
+            assertEquals(30, tested.get());
+        }
+    }
+
+    /**
+     * Verify that a stream in completion order does not block on an incomplete
+     * packet and returns it once it completes, even after the timeout.
+     */
+    @Test
+    public void testCompletionOrder() throws Exception {
+        try (MultiQueue<Packet> queue = new MultiQueue<>(Packet::getPgn)) {
+            Stream<Packet> stream = queue.stream(300, TimeUnit.MILLISECONDS, PacketFilter.all().inCompletionOrder());
+            Packet incomplete = new Packet(LocalDateTime.now(), 6, 0xD300, 0, false, (int[]) null);
+            Packet complete = Packet.create(0xF004, 0, 1, 2, 3, 4, 5, 6, 7, 8);
+            queue.add(incomplete);
+            queue.add(complete);
+            CompletableFuture<List<Packet>> result = CompletableFuture.supplyAsync(() -> stream.collect(Collectors.toList()));
+            Thread.sleep(500);
+            assertFalse(result.isDone());
+            incomplete.setData(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+            assertEquals(List.of(complete, incomplete), result.get(1, TimeUnit.SECONDS));
+        }
+    }
+
+    /** Verify that a stream is empty after its timeout when nothing is published. */
+    @Test
+    public void testTimeout() {
+        try (MultiQueue<Integer> queue = new MultiQueue<>()) {
+            long start = System.currentTimeMillis();
+            assertEquals(0, queue.stream(300, TimeUnit.MILLISECONDS).count());
+            assertEquals(300, System.currentTimeMillis() - start, 100);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package net.soliddesign.j1939;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import org.etools.j1939tools.bus.Packet;
+import org.etools.j1939tools.bus.PacketFormatter;
+import org.etools.j1939tools.modules.DateTimeModule;
+import org.junit.Test;
+
+public class PacketFormatterTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.parse("2021-03-04T05:06:07.123456789");
+
+    private static final Packet PACKET = Packet.create(TIME, 6, 0xFECA, 0x3D, true, 0x0A, 0xFF, 0x00, 0x12);
+
+    /** Verify the lookup table output matches the previous String.format output. */
+    @Test
+    public void testToString() {
+        DateTimeModule.setInstance(null);
+        assertEquals("18FECA3D [4] 0A FF 00 12 (TX)", PACKET.toString());
+        assertEquals(DateTimeModule.getInstance().getTimeFormatter().format(TIME) + " " + PACKET,
+                     PACKET.toTimeString());
+        assertEquals("05:06:07.1234 " + PACKET, PACKET.toTimeString());
+    }
+
+    /** Verify the vector form, including the %.6f rounding of the time. */
+    @Test
+    public void testVector() {
+        Instant start = TIME.minusSeconds(12).minusNanos(7_500).atZone(ZoneId.systemDefault()).toInstant();
+        String expected = String.format("%4.6f 1  %06X%02Xx %s d %d %s",
+                                        Duration.between(start, TIME.atZone(ZoneId.systemDefault()).toInstant()).toNanos() / 1000000000.0,
+                                        6 << 18 | 0xFECA,
+                                        0x3D,
+                                        "Tx",
+                                        4,
+                                        "0A FF 00 12");
+        assertEquals(expected, PACKET.toVectorString(start));
+        StringBuilder sb = new StringBuilder("x");
+        assertEquals("x" + expected, PacketFormatter.appendVector(sb, PACKET, start).toString());
+    }
+
+    /** Verify a packet timed in ns since the epoch formats the same. */
+    @Test
+    public void testNanos() {
+        DateTimeModule.setInstance(null);
+        Packet packet = Packet.create(PACKET.getTimestampNanos(), 42, 6, 0xFECA, 0x3D, true, PACKET.getBytes());
+        assertEquals(TIME, packet.getTimestamp());
+        assertEquals(42, packet.getTick());
+        assertEquals(PACKET.toTimeString(), packet.toTimeString());
+    }
+}
@@ -0,0 +1,49 @@
+package net.soliddesign.j1939;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.etools.j1939tools.bus.Packet;
+import org.etools.j1939tools.bus.Payload;
+import org.junit.Test;
+
+public class PayloadTest {
+
+    /** Verify the long and array backed payloads agree with the old int[] math. */
+    @Test
+    public void testAccessors() {
+        for (int length : new int[] { 8, 20 }) {
+            int[] data = IntStream.range(0, length).map(i -> (0xF0 + i) & 0xFF).toArray();
+            Payload p = Payload.of(data);
+            assertEquals(length, p.length());
+            assertEquals(0xF1F0, p.get16(0));
+            assertEquals(0xF0F1, p.get16Big(0));
+            assertEquals(0xF3F2F1, p.get24(1));
+            assertEquals(0xF1F2F3, p.get24Big(1));
+            assertEquals(0xF7F6F5F4L, p.get32(4));
+            assertEquals(0xF4F5F6F7L, p.get32Big(4));
+            assertArrayEquals(data, p.toIntArray());
+            assertEquals(Arrays.hashCode(data), p.hashCode());
+            assertEquals(p, Payload.of(p.toByteArray()));
+        }
+    }
+
+    /** Verify the ByteBuffer view is read-only and little-endian. */
+    @Test
+    public void testByteBuffer() {
+        ByteBuffer buffer = Packet.create(0xF004, 0, 1, 2, 3, 4, 5, 6, 7, 8).asByteBuffer();
+        assertEquals(0x0201, buffer.getShort(0));
+        assertEquals(true, buffer.isReadOnly());
+    }
+
+    /** Verify getData(begin, end) keeps Arrays.copyOfRange semantics. */
+    @Test
+    public void testGetDataRange() {
+        Packet packet = Packet.create(0xF004, 0, 1, 2, 3);
+        assertArrayEquals(new int[] { 2, 3, 0 }, packet.getData(1, 4));
+    }
+}
@@ -0,0 +1,144 @@
+package net.soliddesign.j1939;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyShort;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.etools.j1939tools.bus.Adapter;
+import org.etools.j1939tools.bus.MultiQueue;
+import org.etools.j1939tools.bus.Packet;
+import org.etools.j1939tools.bus.RP1210Bus;
+import org.etools.j1939tools.bus.RP1210Library;
+import org.etools.j1939tools.bus.ReceiveStatistics;
+import org.etools.j1939tools.bus.ReceiveStrategy;
+import org.junit.Test;
+
+public class RP1210BusTest {
+
+    /**
+     * Verify that frames read from the adapter in batches are decoded and
+     * published in order, and counted.
+     */
+    @Test
+    public void testBatchedReceive() throws Exception {
+        int count = 5000;
+        AtomicInteger next = new AtomicInteger();
+        RP1210Library library = mock(RP1210Library.class);
+        when(library.RP1210_ClientConnect(anyInt(), anyShort(), any(), anyInt(), anyInt(), anyShort()))
+                .thenReturn((short) 1);
+        when(library.RP1210_ReadMessage(anyShort(), any(), anyShort(), anyShort())).thenAnswer(invocation -> {
+            int i = next.get();
+            if (i >= count) {
+                return (short) 0;
+            }
+            next.incrementAndGet();
+            byte[] data = invocation.getArgument(1);
+            // timestamp, echo, PGN F004, priority, source, data
+            byte[] frame = { 0, 0, 0, (byte) i, 0, 0x04, (byte) 0xF0, 0, 3, 0, 0, (byte) i, (byte) (i >> 8),
+                    3, 4, 5, 6, 7, 8 };
+            System.arraycopy(frame, 0, data, 0, frame.length);
+            return (short) frame.length;
+        });
+        MultiQueue<Packet> queue = new MultiQueue<>(Packet::getPgn);
+        Stream<Packet> stream = queue.stream(5, TimeUnit.SECONDS);
+        RP1210Bus bus = new RP1210Bus(library,
+                                      Executors.newSingleThreadExecutor(),
+                                      Executors.newSingleThreadExecutor(),
+                                      queue,
+                                      new Adapter("test", "test", (short) 1),
+                                      "J1939:Baud=Auto",
+                                      0xF9,
+                                      false,
+                                      Logger.getLogger(RP1210BusTest.class.getName()),
+                                      (type, msg) -> {
+                                      });
+        try {
+            List<Integer> received = stream.limit(count).map(p -> p.get16(0)).collect(Collectors.toList());
+            assertEquals(IntStream.range(0, count).boxed().collect(Collectors.toList()), received);
+            ReceiveStatistics stats = bus.getReceiveStatistics();
+            assertEquals(count, stats.getFrames());
+            assertEquals(true, stats.getBatches() >= count / 64);
+
+            // an idle adapter is polled at intervals, not spun on
+            bus.setReceiveStrategy(ReceiveStrategy.fixedInterval(5, TimeUnit.MILLISECONDS));
+            Thread.sleep(100);
+            stats = bus.getReceiveStatistics();
+            assertEquals(true, stats.getParks() > 5);
+            assertEquals(true, stats.getMaxParkNanos() < TimeUnit.MILLISECONDS.toNanos(50));
+        } finally {
+            bus.close();
+        }
+    }
+
+    /**
+     * Verify that a send goes through the transmit lane while frames are being
+     * received, returns the echo without a stream of its own, and is measured.
+     */
+    @Test
+    public void testSendDuringReceive() throws Exception {
+        Queue<byte[]> rx = new ConcurrentLinkedQueue<>();
+        AtomicInteger background = new AtomicInteger();
+        RP1210Library library = mock(RP1210Library.class);
+        when(library.RP1210_ClientConnect(anyInt(), anyShort(), any(), anyInt(), anyInt(), anyShort()))
+                .thenReturn((short) 1);
+        when(library.RP1210_ReadMessage(anyShort(), any(), anyShort(), anyShort())).thenAnswer(invocation -> {
+            byte[] frame = rx.poll();
+            if (frame == null) {
+                // a busy bus
+                int i = background.incrementAndGet();
+                frame = new byte[] { 0, 0, 0, 0, 0, 0x04, (byte) 0xF0, 0, 3, 0, 0, (byte) i, 2, 3, 4, 5, 6, 7, 8 };
+            }
+            System.arraycopy(frame, 0, invocation.getArgument(1), 0, frame.length);
+            return (short) frame.length;
+        });
+        when(library.RP1210_SendMessage(anyShort(), any(), anyShort(), anyShort(), anyShort()))
+                .thenAnswer(invocation -> {
+                    byte[] tx = invocation.getArgument(1);
+                    byte[] echo = new byte[tx.length + 5];
+                    echo[4] = 1;
+                    System.arraycopy(tx, 0, echo, 5, tx.length);
+                    rx.add(echo);
+                    return (short) 0;
+                });
+        MultiQueue<Packet> queue = new MultiQueue<>(Packet::getPgn);
+        RP1210Bus bus = new RP1210Bus(library,
+                                      Executors.newSingleThreadExecutor(),
+                                      Executors.newSingleThreadExecutor(),
+                                      queue,
+                                      new Adapter("test", "test", (short) 1),
+                                      "J1939:Baud=Auto",
+                                      0xF9,
+                                      false,
+                                      Logger.getLogger(RP1210BusTest.class.getName()),
+                                      (type, msg) -> {
+                                      });
+        try {
+            for (int i = 0; i < 10; i++) {
+                Packet sent = bus.send(Packet.create(0xEA00, 0xF9, 0xE3, 0xFE, 0x00));
+                assertEquals(0xF9, sent.getSource());
+                assertEquals(true, sent.isTransmitted());
+            }
+            assertEquals(10, bus.getTransmitLatency().getCount());
+            assertEquals(10, bus.getEchoLatency().getCount());
+            assertEquals(true, background.get() > 0);
+            // the echoes are matched without reading the queue
+            assertEquals(0, queue.getStatistics().size());
+        } finally {
+            bus.close();
+        }
+    }
+}
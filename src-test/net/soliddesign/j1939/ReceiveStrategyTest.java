@@ -0,0 +1,50 @@
+package net.soliddesign.j1939;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.etools.j1939tools.bus.ReceiveStrategy;
+import org.etools.j1939tools.bus.ReceiveStrategy.Mode;
+import org.junit.Test;
+
+public class ReceiveStrategyTest {
+
+    /** Verify the backoff spins, then doubles the park up to the latency bound. */
+    @Test
+    public void testBackoff() {
+        ReceiveStrategy strategy = ReceiveStrategy.backoff(1, TimeUnit.MILLISECONDS);
+        long now = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, strategy.next(0, now));
+        }
+        assertEquals(10_000, strategy.next(0, now));
+        assertEquals(20_000, strategy.next(0, now));
+        for (int i = 0; i < 100; i++) {
+            strategy.next(0, now);
+        }
+        assertEquals(1_000_000, strategy.next(0, now));
+        // a frame resets the backoff
+        assertEquals(0, strategy.next(1, now));
+        assertEquals(0, strategy.next(0, now));
+    }
+
+    /** Verify an adaptive strategy follows the frame rate. */
+    @Test
+    public void testAdaptive() {
+        ReceiveStrategy strategy = ReceiveStrategy.adaptive(2, TimeUnit.MILLISECONDS);
+        long now = System.nanoTime();
+        long second = TimeUnit.SECONDS.toNanos(1);
+        strategy.next(10, now);
+        assertEquals(2_000_000, strategy.next(0, now + second));
+        assertEquals(Mode.FIXED_INTERVAL, strategy.getMode());
+
+        strategy.next((int) ReceiveStrategy.BUSY_RATE, now + second);
+        assertEquals(0, strategy.next(0, now + 2 * second));
+        assertEquals(Mode.BUSY_SPIN, strategy.getMode());
+
+        strategy.next((int) ReceiveStrategy.IDLE_RATE, now + 2 * second);
+        strategy.next(0, now + 3 * second);
+        assertEquals(Mode.BACKOFF, strategy.getMode());
+    }
+}
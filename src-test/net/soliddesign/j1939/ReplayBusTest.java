@@ -0,0 +1,131 @@
+package net.soliddesign.j1939;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.etools.j1939tools.bus.CaptureReader;
+import org.etools.j1939tools.bus.CaptureWriter;
+import org.etools.j1939tools.bus.MultiQueue;
+import org.etools.j1939tools.bus.Packet;
+import org.etools.j1939tools.bus.Payload;
+import org.etools.j1939tools.bus.ReplayBus;
+import org.etools.j1939tools.j1939.J1939TP;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplayBusTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Verify that the .j1939 segments written by the logger are replayed
+     * directly, with the recorded relative timestamps, skipping the gaps.
+     */
+    @Test
+    public void testReplayCapture() throws Exception {
+        long base = 1_600_000_000L * 1_000_000_000L;
+        Packet[] captured = {
+                Packet.create(base, Packet.NO_TICK, 6, 0xFECA, 0x00, false, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }),
+                Packet.create(base + 500_000, Packet.NO_TICK, 3, 0xF004, 0x00, false, new byte[] { 9, 10, 11 }),
+                Packet.create(base + 100_000_000, Packet.NO_TICK, 6, 0xEA00, 0xF9, true, new byte[] { 0, -2, 0 }) };
+        Path directory = folder.getRoot().toPath();
+        try (CaptureWriter writer = new CaptureWriter(directory, "replay", CaptureWriter.DEFAULT_SEGMENT_BYTES)) {
+            writer.write(captured[0]);
+            writer.writeGap(base + 1_000, 3);
+            writer.write(captured[1]);
+            writer.write(captured[2]);
+        }
+
+        try (ReplayBus bus = new ReplayBus(CaptureReader.findSegments(directory, "replay"),
+                                           0xF9,
+                                           ReplayBus.AS_FAST_AS_POSSIBLE)) {
+            Stream<Packet> stream = bus.read(1, TimeUnit.SECONDS);
+            bus.start();
+            assertEquals(3, bus.await());
+            assertEquals(1, bus.getSkippedLines());
+            List<Packet> replayed = stream.limit(3).collect(Collectors.toList());
+            assertEquals(3, replayed.size());
+            for (int i = 0; i < captured.length; i++) {
+                assertEquals(captured[i].toString(), replayed.get(i).toString());
+                assertEquals(captured[i].getPriority(), replayed.get(i).getPriority());
+                assertEquals(captured[i].isTransmitted(), replayed.get(i).isTransmitted());
+                assertEquals(captured[i].getTimestampNanos() - base,
+                             replayed.get(i).getTimestampNanos() - replayed.get(0).getTimestampNanos());
+            }
+        }
+    }
+
+    /**
+     * Verify that a capture written by the logger is replayed with the
+     * recorded relative timestamps, skipping lines that are not frames.
+     */
+    @Test
+    public void testReplay() throws Exception {
+        Instant start = Instant.ofEpochSecond(1_600_000_000L);
+        long base = start.getEpochSecond() * 1_000_000_000L;
+        Packet[] captured = {
+                Packet.create(base, Packet.NO_TICK, 6, 0xFECA, 0x00, false, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }),
+                Packet.create(base + 500_000, Packet.NO_TICK, 3, 0xF004, 0x00, false, new byte[] { 9, 10, 11 }),
+                Packet.create(base + 100_000_000, Packet.NO_TICK, 6, 0xEA00, 0xF9, true, new byte[] { 0, -2, 0 }) };
+        StringBuilder capture = new StringBuilder("base hex timestamps absolute\n");
+        for (Packet p : captured) {
+            capture.append(p.toVectorString(start)).append('\n');
+        }
+        capture.append("// lost 3\n");
+
+        MultiQueue<Packet> queue = new MultiQueue<>(Packet::getPgn);
+        try (ReplayBus bus = new ReplayBus(new StringReader(capture.toString()),
+                                           0xF9,
+                                           ReplayBus.AS_FAST_AS_POSSIBLE,
+                                           queue)) {
+            Stream<Packet> stream = bus.read(1, TimeUnit.SECONDS);
+            bus.start();
+            assertEquals(3, bus.await());
+            assertEquals(2, bus.getSkippedLines());
+            List<Packet> replayed = stream.limit(3).collect(Collectors.toList());
+            assertEquals(3, replayed.size());
+            for (int i = 0; i < captured.length; i++) {
+                assertEquals(captured[i].toString(), replayed.get(i).toString());
+                assertEquals(captured[i].getPriority(), replayed.get(i).getPriority());
+                assertEquals(captured[i].getTimestampNanos() - base,
+                             replayed.get(i).getTimestampNanos() - replayed.get(0).getTimestampNanos());
+            }
+        }
+    }
+
+    /**
+     * Verify that J1939TP reassembles a BAM from a capture unchanged, and that
+     * a 10x replay keeps to the recorded pace.
+     */
+    @Test
+    public void testTransportProtocol() throws Exception {
+        String capture = "base hex timestamps absolute\n"
+                + "0.000000 1  18ECFF00x Rx d 8 20 0B 00 02 FF CA FE 00\n"
+                + "0.100000 1  18EBFF00x Rx d 8 01 01 02 03 04 05 06 07\n"
+                + "0.200000 1  18EBFF00x Rx d 8 02 08 09 0A 0B FF FF FF\n";
+        try (ReplayBus bus = new ReplayBus(new StringReader(capture),
+                                           0xF9,
+                                           10,
+                                           new MultiQueue<>(Packet::getPgn));
+                J1939TP tp = new J1939TP(bus, 0xF9)) {
+            Stream<Packet> stream = tp.read(1, TimeUnit.SECONDS);
+            long begin = System.nanoTime();
+            bus.start();
+            Packet dm1 = stream.filter(p -> p.getPgn() == 0xFECA).findFirst().orElse(null);
+            assertEquals(0x00, dm1.getSource());
+            // the packet is published at the TP.CM and completed by the last DT
+            assertEquals(Payload.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11), dm1.getPayload());
+            assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(15));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package net.soliddesign.j1939;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.etools.j1939tools.j1939.RequestScheduler;
+import org.etools.j1939tools.j1939.RequestScheduler.Permit;
+import org.etools.j1939tools.j1939.RequestScheduler.Priority;
+import org.junit.Test;
+
+public class RequestSchedulerTest {
+
+    private static CompletableFuture<Void> request(RequestScheduler scheduler,
+            Priority priority,
+            int destination,
+            List<String> order) {
+        return CompletableFuture.runAsync(() -> {
+            Priority previous = RequestScheduler.setPriority(priority);
+            try (Permit permit = scheduler.acquire(destination, 1)) {
+                order.add(priority + " " + destination);
+            } finally {
+                RequestScheduler.setPriority(previous);
+            }
+        });
+    }
+
+    private static void awaitWaiting(RequestScheduler scheduler, int count) throws InterruptedException {
+        for (int i = 0; i < 1000 && scheduler.getWaiting() < count; i++) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, scheduler.getWaiting());
+    }
+
+    /** Verify the in-flight limit and that the most urgent request goes next. */
+    @Test
+    public void testPriority() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler();
+        List<String> order = new CopyOnWriteArrayList<>();
+        Permit busy = scheduler.acquire(0, 1);
+        CompletableFuture<Void> background = request(scheduler, Priority.BACKGROUND, 0, order);
+        CompletableFuture<Void> tracking = request(scheduler, Priority.TRACKING, 0, order);
+        awaitWaiting(scheduler, 2);
+        // another destination is not held up
+        request(scheduler, Priority.BACKGROUND, 1, order).get(1, TimeUnit.SECONDS);
+        assertEquals(List.of("BACKGROUND 1"), order);
+        assertFalse(tracking.isDone());
+        assertEquals(2, scheduler.getWaiting());
+
+        busy.close();
+        CompletableFuture.allOf(background, tracking).get(1, TimeUnit.SECONDS);
+        assertEquals(List.of("BACKGROUND 1", "TRACKING 0", "BACKGROUND 0"), order);
+        assertEquals(2, scheduler.getDelayed());
+    }
+
+    /** Verify the request rate falls as the bus load rises. */
+    @Test
+    public void testRate() throws Exception {
+        AtomicLong now = new AtomicLong();
+        RequestScheduler scheduler = new RequestScheduler(now::get);
+        double[] load = { -1 };
+        scheduler.setBusLoad(() -> load[0]);
+        assertEquals(RequestScheduler.DEFAULT_RATE, scheduler.getRate(), 0.001);
+        load[0] = RequestScheduler.LOAD_LOW;
+        assertEquals(RequestScheduler.DEFAULT_RATE, scheduler.getRate(), 0.001);
+        load[0] = 100;
+        assertEquals(RequestScheduler.DEFAULT_RATE / 10, scheduler.getRate(), 0.001);
+
+        // the burst is sent at once, then one each 1/rate
+        for (int i = 0; i < RequestScheduler.BURST; i++) {
+            scheduler.acquire(i, 1).close();
+        }
+        assertEquals(0, scheduler.getDelayed());
+        List<String> order = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> next = request(scheduler, Priority.INTERACTIVE, 0, order);
+        awaitWaiting(scheduler, 1);
+        now.set(TimeUnit.MILLISECONDS.toNanos(499));
+        scheduler.recheck();
+        assertFalse(next.isDone());
+        assertEquals(1, scheduler.getWaiting());
+        // allow for the rounding of the tokens; well before the 500 ms the
+        // waiter would sleep if it did not follow the clock
+        now.set(TimeUnit.MILLISECONDS.toNanos(501));
+        scheduler.recheck();
+        next.get(100, TimeUnit.MILLISECONDS);
+        assertEquals(List.of("INTERACTIVE 0"), order);
+        assertEquals(1, scheduler.getDelayed());
+    }
+}
@@ -0,0 +1,78 @@
+package net.soliddesign.j1939;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.etools.j1939tools.bus.Either;
+import org.etools.j1939tools.bus.Packet;
+import org.etools.j1939tools.j1939.ResponseCache;
+import org.etools.j1939tools.j1939.packets.AcknowledgmentPacket;
+import org.etools.j1939tools.j1939.packets.EngineHoursPacket;
+import org.etools.j1939tools.j1939.packets.GenericPacket;
+import org.etools.j1939tools.j1939.packets.VehicleIdentificationPacket;
+import org.junit.Test;
+
+public class ResponseCacheTest {
+
+    private static Either<GenericPacket, AcknowledgmentPacket> response(int source) {
+        return new Either<>(new EngineHoursPacket(Packet.create(EngineHoursPacket.PGN, source, 1, 2, 3, 4)), null);
+    }
+
+    /** Verify responses are used for their time to live and then dropped. */
+    @Test
+    public void testTtl() {
+        AtomicLong now = new AtomicLong();
+        ResponseCache cache = new ResponseCache(now::get);
+        int pgn = EngineHoursPacket.PGN;
+        assertFalse(cache.isCached(pgn));
+        cache.put(pgn, 0, response(0));
+        assertFalse(cache.get(pgn, 0).isPresent());
+
+        cache.setTtl(pgn, 1, TimeUnit.SECONDS);
+        cache.putGlobal(pgn, List.of(1, 0), List.of(response(1), response(0)));
+        assertEquals(2, cache.getGlobal(pgn).get().size());
+        assertEquals(0, ((GenericPacket) cache.getGlobal(pgn).get().get(0).resolve()).getSourceAddress());
+        assertTrue(cache.get(pgn, 1).isPresent());
+
+        now.set(TimeUnit.SECONDS.toNanos(1));
+        assertFalse(cache.getGlobal(pgn).isPresent());
+        assertFalse(cache.get(pgn, 1).isPresent());
+        assertEquals(3, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    /** Verify session data lasts until invalidated. */
+    @Test
+    public void testInvalidate() {
+        AtomicLong now = new AtomicLong();
+        ResponseCache cache = new ResponseCache(now::get);
+        int pgn = VehicleIdentificationPacket.PGN;
+        cache.put(pgn, 0, response(0));
+        now.set(Long.MAX_VALUE / 2);
+        assertTrue(cache.get(pgn, 0).isPresent());
+        // a DS response is not the set of all responders
+        assertFalse(cache.getGlobal(pgn).isPresent());
+        cache.invalidate();
+        assertFalse(cache.get(pgn, 0).isPresent());
+    }
+
+    /** Verify a module missing from a global snapshot drops it once seen. */
+    @Test
+    public void testGlobalMissedModule() {
+        ResponseCache cache = new ResponseCache();
+        int pgn = VehicleIdentificationPacket.PGN;
+        cache.putGlobal(pgn, List.of(0), List.of(response(0)));
+        cache.put(pgn, 0, response(0));
+        assertTrue(cache.getGlobal(pgn).isPresent());
+
+        cache.put(pgn, 0x17, response(0x17));
+        assertFalse(cache.getGlobal(pgn).isPresent());
+        assertTrue(cache.get(pgn, 0).isPresent());
+        assertTrue(cache.get(pgn, 0x17).isPresent());
+    }
+}
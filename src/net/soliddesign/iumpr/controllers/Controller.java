@@ -238,6 +238,8 @@ public abstract class Controller {
     private void checkEngineSpeed() throws InterruptedException {
         incrementProgress("Reading Engine Speed");
         if (!getEngineSpeedModule().isEngineCommunicating()) {
+            // the key may be turned off and modules reflashed or swapped
+            getJ1939().getResponseCache().invalidate();
             getListener().onMessage(
                     "The engine is not communicating.  Please check the adapter connection with the vehicle and/or turn the key on/start the vehicle.",
                     "Engine Not Communicating", JOptionPane.WARNING_MESSAGE);
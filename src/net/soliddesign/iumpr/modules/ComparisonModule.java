@@ -256,12 +256,16 @@ public class ComparisonModule extends FunctionalModule {
     }
 
     /**
-     * Clears the cached values that have been read from the vehicle
+     * Clears the cached values that have been read from the vehicle, and the
+     * responses cached by J1939, so they are read again
      */
     public void reset() {
         vin = null;
         minutesSinceCodeClear = null;
         calibrations = null;
+        if (getJ1939() != null) {
+            getJ1939().getResponseCache().invalidate();
+        }
     }
 
 }
@@ -14,6 +14,7 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.etools.j1939tools.bus.Packet;
+import org.etools.j1939tools.bus.RequestResult;
 import org.etools.j1939tools.j1939.J1939;
 import org.etools.j1939tools.j1939.Lookup;
 import org.etools.j1939tools.j1939.packets.CompositeMonitoredSystem;
@@ -40,6 +41,42 @@ import net.soliddesign.iumpr.controllers.ResultsListener;
  */
 public class DiagnosticReadinessModule extends FunctionalModule {
 
+    /**
+     * The DM5, DM20, DM21 and DM26 responses of one batch of requests
+     */
+    public static class ReadinessPackets {
+        private final List<DM20MonitorPerformanceRatioPacket> dm20Packets;
+        private final List<DM21DiagnosticReadinessPacket> dm21Packets;
+        private final List<DM26TripDiagnosticReadinessPacket> dm26Packets;
+        private final List<DM5DiagnosticReadinessPacket> dm5Packets;
+
+        public ReadinessPackets(List<DM5DiagnosticReadinessPacket> dm5Packets,
+                List<DM20MonitorPerformanceRatioPacket> dm20Packets,
+                List<DM26TripDiagnosticReadinessPacket> dm26Packets,
+                List<DM21DiagnosticReadinessPacket> dm21Packets) {
+            this.dm5Packets = dm5Packets;
+            this.dm20Packets = dm20Packets;
+            this.dm26Packets = dm26Packets;
+            this.dm21Packets = dm21Packets;
+        }
+
+        public List<DM20MonitorPerformanceRatioPacket> getDM20Packets() {
+            return dm20Packets;
+        }
+
+        public List<DM21DiagnosticReadinessPacket> getDM21Packets() {
+            return dm21Packets;
+        }
+
+        public List<DM26TripDiagnosticReadinessPacket> getDM26Packets() {
+            return dm26Packets;
+        }
+
+        public List<DM5DiagnosticReadinessPacket> getDM5Packets() {
+            return dm5Packets;
+        }
+    }
+
     public static final int TSCC_GAP_LIMIT = 60; // minutes
 
     /**
@@ -209,7 +246,8 @@ public class DiagnosticReadinessModule extends FunctionalModule {
      */
     public List<DM20MonitorPerformanceRatioPacket> getDM20Packets(ResultsListener listener, boolean fullString) {
         return getPackets("Global DM20 Request", DM20MonitorPerformanceRatioPacket.PGN,
-                DM20MonitorPerformanceRatioPacket.class, listener, fullString, obdModuleAddresses);
+                DM20MonitorPerformanceRatioPacket.class, listener, fullString, obdModuleAddresses,
+                Collections.emptySet());
     }
 
     /**
@@ -225,7 +263,7 @@ public class DiagnosticReadinessModule extends FunctionalModule {
      */
     public List<DM21DiagnosticReadinessPacket> getDM21Packets(ResultsListener listener, boolean fullString) {
         return getPackets("Global DM21 Request", DM21DiagnosticReadinessPacket.PGN, DM21DiagnosticReadinessPacket.class,
-                listener, fullString, obdModuleAddresses);
+                listener, fullString, obdModuleAddresses, Collections.emptySet());
     }
 
     /**
@@ -241,7 +279,8 @@ public class DiagnosticReadinessModule extends FunctionalModule {
      */
     public List<DM26TripDiagnosticReadinessPacket> getDM26Packets(ResultsListener listener, boolean fullString) {
         return getPackets("Global DM26 Request", DM26TripDiagnosticReadinessPacket.PGN,
-                DM26TripDiagnosticReadinessPacket.class, listener, fullString, obdModuleAddresses);
+                DM26TripDiagnosticReadinessPacket.class, listener, fullString, obdModuleAddresses,
+                Collections.emptySet());
     }
 
     /**
@@ -257,7 +296,40 @@ public class DiagnosticReadinessModule extends FunctionalModule {
      */
     public List<DM5DiagnosticReadinessPacket> getDM5Packets(ResultsListener listener, boolean fullString) {
         return getPackets("Global DM5 Request", DM5DiagnosticReadinessPacket.PGN, DM5DiagnosticReadinessPacket.class,
-                listener, fullString, obdModuleAddresses);
+                listener, fullString, obdModuleAddresses, Collections.emptySet());
+    }
+
+    /**
+     * Sends the global requests for DM5, DM20, DM26 and DM21 Packets together,
+     * so that their responses are collected in one window. A request that
+     * gets no response from the engine is retried on its own. The requests
+     * and results will be returned to the {@link ResultsListener}
+     *
+     * @param listener
+     *            the {@link ResultsListener} for the results
+     * @param fullString
+     *            true to include the full string of the results in the report;
+     *            false to only include the returned raw packet in the report
+     * @param expected
+     *            the addresses of the modules expected to respond; empty to
+     *            wait the full time for responses
+     * @return the {@link ReadinessPackets}
+     */
+    public ReadinessPackets getReadinessPackets(ResultsListener listener, boolean fullString,
+            Collection<Integer> expected) {
+        Map<Integer, RequestResult<GenericPacket>> results = getJ1939().requestGlobals(expected,
+                DM5DiagnosticReadinessPacket.PGN,
+                DM20MonitorPerformanceRatioPacket.PGN, DM26TripDiagnosticReadinessPacket.PGN,
+                DM21DiagnosticReadinessPacket.PGN);
+        return new ReadinessPackets(
+                getPackets("Global DM5 Request", DM5DiagnosticReadinessPacket.PGN,
+                        DM5DiagnosticReadinessPacket.class, results, listener, fullString, expected),
+                getPackets("Global DM20 Request", DM20MonitorPerformanceRatioPacket.PGN,
+                        DM20MonitorPerformanceRatioPacket.class, results, listener, fullString, expected),
+                getPackets("Global DM26 Request", DM26TripDiagnosticReadinessPacket.PGN,
+                        DM26TripDiagnosticReadinessPacket.class, results, listener, fullString, expected),
+                getPackets("Global DM21 Request", DM21DiagnosticReadinessPacket.PGN,
+                        DM21DiagnosticReadinessPacket.class, results, listener, fullString, expected));
     }
 
     /**
@@ -271,10 +343,7 @@ public class DiagnosticReadinessModule extends FunctionalModule {
      */
     public List<Integer> getOBDModules(ResultsListener listener) {
         List<DM5DiagnosticReadinessPacket> packets = getDM5Packets(listener, false);
-        Set<Integer> addressSet = packets.stream().filter(t -> t.isHdObd()).map(t -> t.getSourceAddress())
-                .collect(Collectors.toSet());
-        List<Integer> addresses = new ArrayList<>(addressSet);
-        Collections.sort(addresses);
+        List<Integer> addresses = getOBDModules(packets);
         if (addresses.isEmpty()) {
             listener.onResult("No modules report as HD-OBD compliant - stopping.");
         } else {
@@ -285,6 +354,22 @@ public class DiagnosticReadinessModule extends FunctionalModule {
         return addresses;
     }
 
+    /**
+     * Returns the sorted source addresses of the modules that report HD-OBD
+     * support in their DM5
+     *
+     * @param packets
+     *            the {@link DM5DiagnosticReadinessPacket}s to check
+     * @return List of source addresses
+     */
+    public static List<Integer> getOBDModules(List<DM5DiagnosticReadinessPacket> packets) {
+        Set<Integer> addressSet = packets.stream().filter(t -> t.isHdObd()).map(t -> t.getSourceAddress())
+                .collect(Collectors.toSet());
+        List<Integer> addresses = new ArrayList<>(addressSet);
+        Collections.sort(addresses);
+        return addresses;
+    }
+
     /**
      * Helper method to request packets from the vehicle
      *
@@ -304,11 +389,14 @@ public class DiagnosticReadinessModule extends FunctionalModule {
      *            false to only include the returned raw packet in the report
      * @param dmModuleAddresses
      *            the addresses that must respond to the request
+     * @param expected
+     *            the addresses expected to respond, to stop waiting once they
+     *            have; empty to wait the full time
      * @return the List of packets returned
      */
     private <T extends GenericPacket> List<T> getPackets(String title, int pgn, Class<T> clazz,
             ResultsListener listener,
-            boolean fullString, Collection<Integer> dmModuleAddresses) {
+            boolean fullString, Collection<Integer> dmModuleAddresses, Collection<Integer> expected) {
         Packet request = getJ1939().createRequestPacket(pgn, J1939.GLOBAL_ADDR);
         if (listener != null) {
             listener.onResult(getDateTime() + " " + title);
@@ -318,7 +406,8 @@ public class DiagnosticReadinessModule extends FunctionalModule {
         // Try three times to get packets and ensure there's one from the engine
         List<T> packets = new ArrayList<>();
         for (int i = 0; i < 3; i++) {
-            packets = getJ1939().requestMultiple(clazz, request).collect(Collectors.toList());
+            packets = (expected.isEmpty() ? getJ1939().requestMultiple(clazz, request)
+                    : getJ1939().requestMultiple(clazz, request, expected)).collect(Collectors.toList());
             if (packets.stream().filter(p -> dmModuleAddresses.contains(p.getSourceAddress())).findFirst()
                     .isPresent()) {
                 // The engine responded, report the results
@@ -330,6 +419,55 @@ public class DiagnosticReadinessModule extends FunctionalModule {
             }
         }
 
+        reportPackets(packets, listener, fullString);
+        return packets;
+    }
+
+    /**
+     * Helper method to take the packets of one PGN from the results of a
+     * batch of requests, requesting them again if the engine did not respond
+     *
+     * @param <T>
+     *            The class of packets that will be returned
+     * @param title
+     *            the section title for inclusion in report
+     * @param pgn
+     *            the PGN that was requested
+     * @param clazz
+     *            the {@link Class} of packet that will be returned
+     * @param results
+     *            the results of the batch, by PGN
+     * @param listener
+     *            the {@link ResultsListener} that will be notified of the
+     *            traffic
+     * @param fullString
+     *            true to include the full string of the results in the report;
+     *            false to only include the returned raw packet in the report
+     * @param expected
+     *            the addresses expected to respond
+     * @return the List of packets returned
+     */
+    private <T extends GenericPacket> List<T> getPackets(String title, int pgn, Class<T> clazz,
+            Map<Integer, RequestResult<GenericPacket>> results, ResultsListener listener, boolean fullString,
+            Collection<Integer> expected) {
+        List<T> packets = results.getOrDefault(pgn, RequestResult.empty()).getPackets().stream()
+                .filter(clazz::isInstance).map(clazz::cast).collect(Collectors.toList());
+        if (packets.stream().noneMatch(p -> obdModuleAddresses.contains(p.getSourceAddress()))) {
+            return getPackets(title, pgn, clazz, listener, fullString, obdModuleAddresses, expected);
+        }
+        if (listener != null) {
+            listener.onResult(getDateTime() + " " + title);
+            listener.onResult(getTime() + " " + getJ1939().createRequestPacket(pgn, J1939.GLOBAL_ADDR).toString());
+        }
+        reportPackets(packets, listener, fullString);
+        return packets;
+    }
+
+    /**
+     * Helper method to report the packets received, or a timeout if there
+     * were none
+     */
+    private void reportPackets(List<? extends GenericPacket> packets, ResultsListener listener, boolean fullString) {
         if (listener != null) {
             if (packets.isEmpty()) {
                 listener.onResult(TIMEOUT_MESSAGE);
@@ -343,7 +481,6 @@ public class DiagnosticReadinessModule extends FunctionalModule {
                 });
             }
         }
-        return packets;
     }
 
     /**
@@ -3,6 +3,7 @@
  */
 package net.soliddesign.iumpr.modules;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -13,6 +14,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.etools.j1939tools.j1939.RequestScheduler;
+import org.etools.j1939tools.j1939.RequestScheduler.Priority;
 import org.etools.j1939tools.j1939.packets.DM20MonitorPerformanceRatioPacket;
 import org.etools.j1939tools.j1939.packets.DM21DiagnosticReadinessPacket;
 import org.etools.j1939tools.j1939.packets.DM26TripDiagnosticReadinessPacket;
@@ -26,6 +29,7 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import net.soliddesign.iumpr.IUMPR;
 import net.soliddesign.iumpr.NumberFormatter;
 import net.soliddesign.iumpr.controllers.ResultsListener;
+import net.soliddesign.iumpr.modules.DiagnosticReadinessModule.ReadinessPackets;
 
 /**
  * This will periodically query the vehicle for DM5, DM20, DM26 and DM21 until
@@ -97,6 +101,13 @@ public class MonitorTrackingModule extends FunctionalModule {
      */
     private Set<MonitoredSystem> lastSystems;
 
+    /**
+     * The HD-OBD modules that responded to the first DM5 request. Later
+     * requests return once these have responded instead of waiting the full
+     * time.
+     */
+    private List<Integer> obdModules = Collections.emptyList();
+
     /**
      * Used to provide a wait/notify mechanism for the threads
      */
@@ -232,7 +243,12 @@ public class MonitorTrackingModule extends FunctionalModule {
                     if (secondsToWait == 0) {
                         cycle++;
                         prefix2 = NumberFormatter.format(cycle) + ": ";
-                        readVehicle(prefix1 + prefix2, reportFileModule, listener);
+                        Priority previous = RequestScheduler.setPriority(Priority.TRACKING);
+                        try {
+                            readVehicle(prefix1 + prefix2, reportFileModule, listener);
+                        } finally {
+                            RequestScheduler.setPriority(previous);
+                        }
                         secondsToWait = 10;
                     }
                     updateProgress(listener, prefix1 + prefix2 + secondsToWait + " Seconds Until Next Update");
@@ -296,15 +312,24 @@ public class MonitorTrackingModule extends FunctionalModule {
             end();
         }
 
+        // FUNCTION D Steps 5 to 8 are requested together, so the responses
+        // are collected in one window
+        updateProgress(listener, prefix + "Requesting DM5, DM20, DM26 and DM21");
+        ReadinessPackets readiness = getDiagnosticReadinessModule().getReadinessPackets(null, false, obdModules);
+        for (int i = 0; i < 4; i++) {
+            reportFileModule.incrementQueries();
+        }
+
         // FUNCTION D Step 6
-        updateProgress(listener, prefix + "Requesting DM5");
-        List<DM5DiagnosticReadinessPacket> dm5Packets = getDiagnosticReadinessModule().getDM5Packets(null, false);
-        reportFileModule.incrementQueries();
+        List<DM5DiagnosticReadinessPacket> dm5Packets = readiness.getDM5Packets();
         if (dm5Packets.isEmpty()) {
             onResult(listener, getTime() + " DM5 " + TIMEOUT_MESSAGE);
             end();
         } else {
             lastDm5Time = getDateTime();
+            if (obdModules.isEmpty()) {
+                obdModules = DiagnosticReadinessModule.getOBDModules(dm5Packets);
+            }
             Set<MonitoredSystem> systems = DiagnosticReadinessModule.getSystems(dm5Packets);
             if (getLastSystems() != null && !Objects.equals(getLastSystems(), systems)) {
                 onResult(listener, getTime() + " Monitors Updated");
@@ -314,10 +339,7 @@ public class MonitorTrackingModule extends FunctionalModule {
         }
 
         // FUNCTION D Step 5
-        updateProgress(listener, prefix + "Requesting DM20");
-        List<DM20MonitorPerformanceRatioPacket> dm20Packets = getDiagnosticReadinessModule().getDM20Packets(null,
-                false);
-        reportFileModule.incrementQueries();
+        List<DM20MonitorPerformanceRatioPacket> dm20Packets = readiness.getDM20Packets();
         if (dm20Packets.isEmpty()) {
             onResult(listener, getTime() + " DM20 " + TIMEOUT_MESSAGE);
             end();
@@ -334,19 +356,14 @@ public class MonitorTrackingModule extends FunctionalModule {
         }
 
         // FUNCTION D Step 7
-        updateProgress(listener, prefix + "Requesting DM26");
-        List<DM26TripDiagnosticReadinessPacket> dm26Packets = getDiagnosticReadinessModule().getDM26Packets(null,
-                false);
-        reportFileModule.incrementQueries();
+        List<DM26TripDiagnosticReadinessPacket> dm26Packets = readiness.getDM26Packets();
         if (dm26Packets.isEmpty()) {
             onResult(listener, getTime() + " DM26 " + TIMEOUT_MESSAGE);
             end();
         }
 
         // FUNCTION D Step 8 (it says DM12 but means DM21)
-        updateProgress(listener, prefix + "Requesting DM21");
-        List<DM21DiagnosticReadinessPacket> dm21Packets = getDiagnosticReadinessModule().getDM21Packets(null, false);
-        reportFileModule.incrementQueries();
+        List<DM21DiagnosticReadinessPacket> dm21Packets = readiness.getDM21Packets();
         if (dm21Packets.isEmpty()) {
             onResult(listener, getTime() + " DM21 " + TIMEOUT_MESSAGE);
             end();
@@ -381,6 +398,7 @@ public class MonitorTrackingModule extends FunctionalModule {
     public void trackMonitors(ResultsListener listener, ReportFileModule reportFileModule) {
         lastIgnitionCycles = -1;
         lastObdCounts = -1;
+        obdModules = Collections.emptyList();
         cycle = 0;
 
         onResult(listener, getDateTime() + " Begin Tracking Monitor Completion Status");
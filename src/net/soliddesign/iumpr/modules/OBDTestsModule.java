@@ -14,6 +14,8 @@ import java.util.stream.Collectors;
 
 import org.etools.j1939tools.bus.Packet;
 import org.etools.j1939tools.j1939.Lookup;
+import org.etools.j1939tools.j1939.RequestScheduler;
+import org.etools.j1939tools.j1939.RequestScheduler.Priority;
 import org.etools.j1939tools.j1939.packets.DM24SPNSupportPacket;
 import org.etools.j1939tools.j1939.packets.DM30ScaledTestResultsPacket;
 import org.etools.j1939tools.j1939.packets.DM7CommandTestsPacket;
@@ -74,6 +76,16 @@ public class OBDTestsModule extends FunctionalModule {
      *            the {@link List} of addresses for ODB Modules
      */
     public void reportOBDTests(ResultsListener listener, List<Integer> obdModules) {
+        // the sweep can wait for more urgent requests
+        Priority previous = RequestScheduler.setPriority(Priority.BACKGROUND);
+        try {
+            sweepOBDTests(listener, obdModules);
+        } finally {
+            RequestScheduler.setPriority(previous);
+        }
+    }
+
+    private void sweepOBDTests(ResultsListener listener, List<Integer> obdModules) {
         Map<Integer, List<ScaledTestResult>> allTestResults = new HashMap<>();
         for (DM24SPNSupportPacket packet : requestSupportedSpnPackets(listener, obdModules)) {
             int destination = packet.getSourceAddress();
@@ -25,7 +25,11 @@ import org.etools.j1939tools.bus.Packet;
 import org.etools.j1939tools.bus.RP1210;
 import org.etools.j1939tools.bus.RP1210Bus;
 import org.etools.j1939tools.bus.RP1210Bus.ErrorType;
+import org.etools.j1939tools.j1939.BusStatistics;
 import org.etools.j1939tools.j1939.J1939;
+import org.etools.j1939tools.j1939.RequestCoalescer;
+import org.etools.j1939tools.j1939.RequestScheduler;
+import org.etools.j1939tools.j1939.ResponseCache;
 
 import net.soliddesign.iumpr.IUMPR;
 import net.soliddesign.iumpr.controllers.CollectResultsController;
@@ -68,6 +72,11 @@ public class UserInterfaceController implements IUserInterfaceController {
 
     private Bus bus;
 
+    private BusStatistics busStatistics;
+
+    /** Requests on the bus, shared by every J1939. */
+    private final RequestCoalescer coalescer = new RequestCoalescer();
+
     private CollectResultsController collectResultsController;
 
     private ComparisonModule comparisonModule;
@@ -95,7 +104,14 @@ public class UserInterfaceController implements IUserInterfaceController {
 
     private final ReportFileModule reportFileModule;
 
+    /** Responses to requests for static data, shared by every J1939. */
+    private final ResponseCache responseCache = new ResponseCache();
+
     private final RP1210 rp1210;
+
+    /** Arbitrates the requests of every J1939 on the bus. */
+    private RequestScheduler scheduler = new RequestScheduler();
+
     /**
      * The {@link IUserInterfaceView} that is being controlled
      */
@@ -187,6 +203,9 @@ public class UserInterfaceController implements IUserInterfaceController {
             if (bus != null) {
                 bus.close();
                 loggerStream.close();
+                if (busStatistics != null) {
+                    busStatistics.close();
+                }
             }
             bus = RP1210.createBus(adapter,
                     connectionString,
@@ -201,6 +220,11 @@ public class UserInterfaceController implements IUserInterfaceController {
                                     0/* ? */);
                         }
                     });
+            busStatistics = new BusStatistics(bus);
+            // the adapter may now be on another vehicle
+            responseCache.invalidate();
+            scheduler = new RequestScheduler();
+            scheduler.setBusLoad(busStatistics::getBusLoad);
             J1939 j1939 = getNewJ1939();
             getComparisonModule().setJ1939(j1939);
             loggerStream = j1939.startLogger("IUMPR-CAN-");
@@ -274,7 +298,11 @@ public class UserInterfaceController implements IUserInterfaceController {
         if (bus == null) {
             connectAdapter();
         }
-        return new J1939(bus);
+        J1939 j1939 = new J1939(bus);
+        j1939.setCoalescer(coalescer);
+        j1939.setScheduler(scheduler);
+        j1939.setResponseCache(responseCache);
+        return j1939;
     }
 
     /**
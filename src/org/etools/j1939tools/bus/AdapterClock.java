@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.time.Instant;
+import java.util.function.LongSupplier;
+
+/**
+ * Converts adapter timestamps to epoch nanoseconds.
+ *
+ * Adapters don't have batteries, so their clocks are always wrong, and they
+ * drift. About once a second of adapter time, the system clock is sampled
+ * against the adapter tick, and a line is fit through the last
+ * {@link #WINDOW} samples. The slope gives the drift and the line gives the
+ * offset, so converting a tick costs one multiply-add. The residuals of the
+ * fit give the jitter, which is mostly the delay between a frame arriving and
+ * it being read.
+ *
+ * The 32 bit adapter tick is unwrapped into a continuous count. A tick that
+ * goes backward from anywhere but the end of the range is an adapter reset,
+ * and starts a new fit.
+ *
+ * {@link #toEpochNanos(long)} is only called by the decoding thread. The
+ * diagnostics may be read from any thread.
+ */
+public final class AdapterClock {
+
+    /** Number of samples fit. */
+    public static final int WINDOW = 32;
+
+    private static final long GIGA = 1_000_000_000L;
+
+    /** A backward step from above this tick is a rollover, not a reset. */
+    private static final long ROLLOVER_TICK = 0xF000_0000L;
+
+    private static final long TICK_RANGE = 1L << 32;
+
+    private static long systemEpochNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * GIGA + now.getNano();
+    }
+
+    /** Unwrapped tick of the last frame. */
+    private long extendedTick = -1;
+
+    private volatile double jitterNanos;
+
+    /** Last value returned, to keep the times of frames in order. */
+    private long lastNanos = Long.MIN_VALUE;
+
+    private final double nominalNanosPerTick;
+
+    private volatile double nanosPerTick;
+
+    private volatile long offsetNanos;
+
+    /** A point on the fit line. */
+    private long refNanos;
+
+    private long refTick;
+
+    /** Ring of samples. */
+    private final long[] sampleNanos = new long[WINDOW];
+
+    private final long[] sampleTicks = new long[WINDOW];
+
+    private int samples;
+
+    /** Unwrapped tick of the next sample. */
+    private long nextSampleTick;
+
+    private final long ticksPerSample;
+
+    private final LongSupplier wallClock;
+
+    /**
+     * @param nanosPerTick
+     *                         the nominal adapter tick length, from the INI
+     *                         file
+     */
+    public AdapterClock(long nanosPerTick) {
+        this(nanosPerTick, AdapterClock::systemEpochNanos);
+    }
+
+    /**
+     * @param nanosPerTick
+     *                         the nominal adapter tick length
+     * @param wallClock
+     *                         the system time in ns since the epoch
+     */
+    public AdapterClock(long nanosPerTick, LongSupplier wallClock) {
+        if (nanosPerTick <= 0) {
+            throw new IllegalArgumentException("Invalid tick length: " + nanosPerTick);
+        }
+        nominalNanosPerTick = nanosPerTick;
+        this.nanosPerTick = nanosPerTick;
+        ticksPerSample = Math.max(1, GIGA / nanosPerTick);
+        this.wallClock = wallClock;
+    }
+
+    /** Refit the line through the samples. */
+    private void fit() {
+        int n = Math.min(samples, WINDOW);
+        // centered on the first sample, so the sums keep their precision
+        long tick0 = sampleTicks[0];
+        long nanos0 = sampleNanos[0];
+        double meanTick = 0;
+        double meanNanos = 0;
+        for (int i = 0; i < n; i++) {
+            meanTick += sampleTicks[i] - tick0;
+            meanNanos += sampleNanos[i] - nanos0;
+        }
+        meanTick /= n;
+        meanNanos /= n;
+        double slope = nominalNanosPerTick;
+        if (n > 1) {
+            double sxy = 0;
+            double sxx = 0;
+            for (int i = 0; i < n; i++) {
+                double dx = sampleTicks[i] - tick0 - meanTick;
+                double dy = sampleNanos[i] - nanos0 - meanNanos;
+                sxy += dx * dy;
+                sxx += dx * dx;
+            }
+            if (sxx > 0) {
+                slope = sxy / sxx;
+            }
+        }
+        refTick = tick0 + Math.round(meanTick);
+        refNanos = nanos0 + Math.round(meanNanos + (refTick - tick0 - meanTick) * slope);
+        nanosPerTick = slope;
+
+        double sumSquares = 0;
+        for (int i = 0; i < n; i++) {
+            double residual = sampleNanos[i] - (refNanos + (sampleTicks[i] - refTick) * slope);
+            sumSquares += residual * residual;
+        }
+        jitterNanos = Math.sqrt(sumSquares / n);
+    }
+
+    /**
+     * @return the standard deviation, in ns, of the samples around the fit
+     */
+    public double getJitterNanos() {
+        return jitterNanos;
+    }
+
+    /**
+     * @return the fitted tick length in ns
+     */
+    public double getNanosPerTick() {
+        return nanosPerTick;
+    }
+
+    /**
+     * @return adapter time minus system time at the last sample, in ns
+     */
+    public long getOffsetNanos() {
+        return offsetNanos;
+    }
+
+    /**
+     * @return the number of samples taken since the last reset
+     */
+    public int getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return how much faster, in parts per million, the adapter clock runs
+     *         than the system clock
+     */
+    public double getSkewPpm() {
+        return (nominalNanosPerTick / nanosPerTick - 1) * 1e6;
+    }
+
+    private void reset(long tick) {
+        extendedTick = tick;
+        samples = 0;
+        nanosPerTick = nominalNanosPerTick;
+        nextSampleTick = tick;
+    }
+
+    private void sample(long tick) {
+        long wall = wallClock.getAsLong();
+        int slot = samples % WINDOW;
+        if (samples >= WINDOW) {
+            // keep the oldest sample first, for centering
+            System.arraycopy(sampleTicks, 1, sampleTicks, 0, WINDOW - 1);
+            System.arraycopy(sampleNanos, 1, sampleNanos, 0, WINDOW - 1);
+            slot = WINDOW - 1;
+        }
+        sampleTicks[slot] = tick;
+        sampleNanos[slot] = wall;
+        samples++;
+        fit();
+        offsetNanos = refNanos + Math.round((tick - refTick) * nanosPerTick) - wall;
+        nextSampleTick = tick + ticksPerSample;
+    }
+
+    /**
+     * Converts an adapter timestamp to epoch ns. Times are never earlier than
+     * the time of the previous frame.
+     *
+     * @param  tick
+     *                  the unsigned 32 bit adapter timestamp
+     * @return      ns since the epoch
+     */
+    public long toEpochNanos(long tick) {
+        if (extendedTick < 0) {
+            reset(tick);
+        } else {
+            long last = extendedTick & (TICK_RANGE - 1);
+            if (tick >= last) {
+                extendedTick += tick - last;
+            } else if (last >= ROLLOVER_TICK) {
+                extendedTick += tick + TICK_RANGE - last;
+            } else {
+                reset(tick);
+                lastNanos = Long.MIN_VALUE;
+            }
+        }
+        long t = extendedTick;
+        if (t >= nextSampleTick) {
+            sample(t);
+        }
+        long nanos = refNanos + (long) ((t - refTick) * nanosPerTick);
+        if (nanos < lastNanos) {
+            nanos = lastNanos;
+        }
+        lastNanos = nanos;
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("offset: %,d ns skew: %.1f ppm jitter: %,.0f ns samples: %d",
+                             getOffsetNanos(),
+                             getSkewPpm(),
+                             getJitterNanos(),
+                             getSamples());
+    }
+}
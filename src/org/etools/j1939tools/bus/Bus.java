@@ -4,6 +4,9 @@
 package org.etools.j1939tools.bus;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Stream;
@@ -24,6 +27,23 @@ public interface Bus extends AutoCloseable {
 
     Stream<Packet> duplicate(Stream<Packet> stream, int time, TimeUnit unit);
 
+    /**
+     * Duplicates a stream, only returning the packets that match filter.
+     *
+     * @param  stream
+     *                    the stream returned from bus.read()
+     * @param  filter
+     *                    the packets the new stream returns
+     * @param  time
+     *                    the timeout of the new stream
+     * @param  unit
+     *                    the {@link TimeUnit} for the timeout
+     * @return        a {@link Stream} of the matching {@link Packet}s
+     */
+    default Stream<Packet> duplicate(Stream<Packet> stream, PacketFilter filter, int time, TimeUnit unit) {
+        return duplicate(stream, time, unit).filter(filter);
+    }
+
     /**
      * Returns the source address used by the tool for communications
      *
@@ -66,6 +86,46 @@ public interface Bus extends AutoCloseable {
      */
     Stream<Packet> read(long timeout, TimeUnit unit) throws BusException;
 
+    /**
+     * Reads the {@link Packet}s that match filter from the bus. Buses backed by
+     * a {@link MultiQueue} only deliver the packets that can match, so the cost
+     * of each frame does not grow with the number of open reads.
+     *
+     * @param  filter
+     *                          the packets to read
+     * @param  timeout
+     *                          the amount of time to read packets
+     * @param  unit
+     *                          the {@link TimeUnit} for the amount of time
+     * @return              a {@link Stream} of the matching {@link Packet}s
+     * @throws BusException
+     *                          if there is a problem reading packets
+     */
+    default Stream<Packet> read(PacketFilter filter, long timeout, TimeUnit unit) throws BusException {
+        return read(timeout, unit).filter(filter);
+    }
+
+    /**
+     * Returns the lag and dropped counters of every open stream on this bus.
+     *
+     * @return the counters, one per open stream
+     */
+    default List<StreamStatistics> getStatistics() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the lag and dropped counters of a stream created with
+     * bus.read().
+     *
+     * @param  stream
+     *                    the stream returned from bus.read()
+     * @return        the counters, or empty if the stream is not from this bus
+     */
+    default Optional<StreamStatistics> getStatistics(Stream<Packet> stream) {
+        return Optional.empty();
+    }
+
     /**
      * Reset stream timeout for stream created with bus.read(). To be used in a
      * stream call like peek, map or forEach.
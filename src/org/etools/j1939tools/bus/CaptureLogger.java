@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.etools.j1939_84.J1939_84;
+
+/**
+ * Puts a bounded buffer between the bus and a {@link CaptureWriter}, so that a
+ * slow disk never stalls the reader of the bus.
+ *
+ * {@link #offer(Packet)} never blocks. When the buffer is full the packet is
+ * dropped and counted, and the writer records the gap in the capture once it
+ * catches up. A writer thread takes the packets in batches and writes them,
+ * flushing every flush interval and syncing as the {@link SyncPolicy} says.
+ */
+public class CaptureLogger implements AutoCloseable {
+
+    /** When the capture is forced to the disk. */
+    public enum SyncPolicy {
+        /** After every batch. Safest, and slowest. */
+        EVERY_BATCH,
+        /** Every flush interval. */
+        INTERVAL,
+        /** Never; left to the OS. */
+        NEVER
+    }
+
+    /** Default number of packets buffered, about 30 s of a busy bus. */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /** Most packets written at a time. */
+    private static final int BATCH_SIZE = 1024;
+
+    private final List<Packet> batch = new ArrayList<>(BATCH_SIZE);
+
+    private volatile long batches;
+
+    private final BlockingQueue<Packet> buffer;
+
+    private volatile boolean closed;
+
+    /** Packets dropped because the buffer was full. */
+    private volatile long dropped;
+
+    private final long flushIntervalNanos;
+
+    /** Drops already recorded in the capture. */
+    private long gaps;
+
+    /** Timestamp of the last packet written, or 0 before the first. */
+    private long lastNanos;
+
+    private final SyncPolicy syncPolicy;
+
+    private final Thread thread;
+
+    private volatile long written;
+
+    private final CaptureWriter writer;
+
+    /**
+     * A logger with the default capacity, flushing every second and syncing
+     * at each flush.
+     */
+    public CaptureLogger(CaptureWriter writer) {
+        this(writer, DEFAULT_CAPACITY, 1, TimeUnit.SECONDS, SyncPolicy.INTERVAL);
+    }
+
+    /**
+     * @param writer
+     *                          the capture to write to
+     * @param capacity
+     *                          most packets buffered
+     * @param flushInterval
+     *                          longest time a written packet waits to be
+     *                          flushed
+     * @param syncPolicy
+     *                          when to force the capture to the disk
+     */
+    public CaptureLogger(CaptureWriter writer,
+                         int capacity,
+                         long flushInterval,
+                         TimeUnit unit,
+                         SyncPolicy syncPolicy) {
+        if (capacity <= 0 || flushInterval <= 0) {
+            throw new IllegalArgumentException("Invalid capacity or flush interval");
+        }
+        this.writer = writer;
+        buffer = new ArrayBlockingQueue<>(capacity);
+        flushIntervalNanos = unit.toNanos(flushInterval);
+        this.syncPolicy = syncPolicy;
+        thread = new Thread(this::run, "Capture writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Writes what is buffered and closes the capture.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        thread.join();
+    }
+
+    /**
+     * @return the number of batches written
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return the number of packets dropped because the buffer was full,
+     *         including those reported with {@link #recordDropped(long)}
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the number of packets written
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Buffers a packet for writing, without blocking.
+     *
+     * @return false if the packet was dropped
+     */
+    public boolean offer(Packet packet) {
+        if (!closed && buffer.offer(packet)) {
+            return true;
+        }
+        recordDropped(1);
+        return false;
+    }
+
+    /**
+     * Counts packets lost before they reached this logger, so the gap is
+     * recorded in the capture. Only called by the thread that offers.
+     */
+    public void recordDropped(long count) {
+        dropped += count;
+    }
+
+    private void run() {
+        long lastFlush = System.nanoTime();
+        boolean dirty = false;
+        try (CaptureWriter out = writer) {
+            while (true) {
+                // read before the buffer and the drops, so none are missed
+                boolean last = closed;
+                Packet first = buffer.poll(Math.min(flushIntervalNanos, TimeUnit.MILLISECONDS.toNanos(100)),
+                                           TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    buffer.drainTo(batch, BATCH_SIZE - 1);
+                    writeBatch();
+                    dirty = true;
+                    if (syncPolicy == SyncPolicy.EVERY_BATCH) {
+                        out.sync();
+                    }
+                }
+                long d = dropped;
+                // stamp the gap in the time base of the capture; before the
+                // first packet, wait for one unless closing
+                if (d != gaps && (lastNanos != 0 || last)) {
+                    out.writeGap(lastNanos != 0 ? lastNanos : System.currentTimeMillis() * 1_000_000L, d - gaps);
+                    gaps = d;
+                    dirty = true;
+                }
+                long now = System.nanoTime();
+                if (dirty && now - lastFlush >= flushIntervalNanos) {
+                    if (syncPolicy == SyncPolicy.NEVER) {
+                        out.flush();
+                    } else {
+                        out.sync();
+                    }
+                    lastFlush = now;
+                    dirty = false;
+                }
+                if (last && first == null && buffer.isEmpty()) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            closed = true;
+            J1939_84.getLogger().log(Level.SEVERE, "Unable to write capture.", e);
+        } catch (InterruptedException e) {
+            closed = true;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeBatch() throws IOException {
+        try {
+            for (Packet p : batch) {
+                try {
+                    writer.write(p);
+                    written++;
+                    lastNanos = p.getTimestampNanos();
+                } catch (RuntimeException e) {
+                    J1939_84.getLogger().log(Level.WARNING, "Packet Failure", e);
+                }
+            }
+            batches++;
+        } finally {
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import static org.etools.j1939tools.bus.CaptureWriter.FIRST_DATA;
+import static org.etools.j1939tools.bus.CaptureWriter.FLAG_GAP;
+import static org.etools.j1939tools.bus.CaptureWriter.FLAG_TRANSMITTED;
+import static org.etools.j1939tools.bus.CaptureWriter.HEADER_SIZE;
+import static org.etools.j1939tools.bus.CaptureWriter.INDEX_SUFFIX;
+import static org.etools.j1939tools.bus.CaptureWriter.MAGIC;
+import static org.etools.j1939tools.bus.CaptureWriter.RECORD_SIZE;
+import static org.etools.j1939tools.bus.CaptureWriter.VERSION;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reads the segments written by a {@link CaptureWriter}, one frame at a time.
+ *
+ * <pre>
+ * try (CaptureReader reader = new CaptureReader(segments)) {
+ *     while (reader.next()) {
+ *         if (!reader.isGap()) {
+ *             Packet p = reader.getPacket();
+ *         }
+ *     }
+ * }
+ * </pre>
+ *
+ * Not thread safe.
+ */
+public class CaptureReader implements AutoCloseable {
+
+    /**
+     * @return the segments of the capture, in order
+     */
+    public static List<Path> findSegments(Path directory, String stem) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> {
+                String name = f.getFileName().toString();
+                return name.startsWith(stem + "-") && name.endsWith(CaptureWriter.SUFFIX)
+                        && name.length() == CaptureWriter.segmentName(stem, 0).length();
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Converts a capture to a Vector ASCII log, for tools that need text.
+     *
+     * <pre>
+     * CaptureReader directory stem out.asc
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("usage: CaptureReader directory stem out.asc");
+            System.exit(1);
+        }
+        List<Path> segments = findSegments(Paths.get(args[0]), args[1]);
+        try (Writer out = Files.newBufferedWriter(Paths.get(args[2]), StandardCharsets.UTF_8)) {
+            long frames = toAsc(segments, out, null);
+            System.err.println("Wrote " + frames + " frames from " + segments.size() + " segments.");
+        }
+    }
+
+    /**
+     * Writes the capture as a Vector ASCII log, like J1939.startLogger() used
+     * to. Gaps are written as comments.
+     *
+     * @param  start
+     *                   the time the log is relative to, or null for the first
+     *                   frame
+     * @return       the number of frames written
+     */
+    public static long toAsc(List<Path> segments, Writer out, Instant start) throws IOException {
+        long frames = 0;
+        StringBuilder line = new StringBuilder(128);
+        byte[] data = new byte[1785];
+        try (CaptureReader reader = new CaptureReader(segments)) {
+            long startNanos = start == null ? Long.MIN_VALUE : start.getEpochSecond() * 1_000_000_000L + start.getNano();
+            out.write("base hex timestamps absolute\n");
+            while (reader.next()) {
+                line.setLength(0);
+                if (reader.isGap()) {
+                    line.append("// Stream fell behind the queue capacity and lost ")
+                            .append(reader.getDropped())
+                            .append(" items.\n");
+                } else {
+                    if (startNanos == Long.MIN_VALUE) {
+                        startNanos = reader.getTimeNanos();
+                    }
+                    PacketFormatter.appendSeconds(line, reader.getTimeNanos() - startNanos).append(" 1  ");
+                    PacketFormatter.appendHex(line, reader.getPriority() << 18 | reader.getId(), 6);
+                    PacketFormatter.appendHex(line, reader.getSource(), 2);
+                    line.append("x ").append(reader.isTransmitted() ? "Tx" : "Rx");
+                    int length = reader.getData(data);
+                    line.append(" d ").append(length);
+                    for (int i = 0; i < length; i++) {
+                        line.append(' ');
+                        PacketFormatter.appendHex(line, data[i], 2);
+                    }
+                    line.append('\n');
+                    frames++;
+                }
+                out.append(line);
+            }
+        }
+        return frames;
+    }
+
+    private MappedByteBuffer buffer;
+
+    /** Offset of the current record, or -1 before the first. */
+    private int current = -1;
+
+    private int flags;
+
+    private int header;
+
+    private int length;
+
+    /** Offset of the record after the current one. */
+    private int next = HEADER_SIZE;
+
+    private int segment = -1;
+
+    private final List<Path> segments;
+
+    private long timeNanos;
+
+    /**
+     * @param segments
+     *                     the segments of one capture, in order
+     */
+    public CaptureReader(List<Path> segments) {
+        this.segments = new ArrayList<>(segments);
+    }
+
+    @Override
+    public void close() {
+        // the mapping is released when the buffer is collected
+        buffer = null;
+        segment = segments.size();
+    }
+
+    /**
+     * @return the number of frames lost, for a gap
+     */
+    public long getDropped() {
+        return buffer.getLong(current + 16);
+    }
+
+    /**
+     * Copies the data of the current frame.
+     *
+     * @return the length of the data
+     */
+    public int getData(byte[] dest) {
+        for (int i = 0; i < length; i++) {
+            dest[i] = buffer.get(current + 16 + i);
+        }
+        return length;
+    }
+
+    public int getId() {
+        return (header >> 8) & 0x3FFFF;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the current frame, or null for a gap or a frame of fewer than 3
+     *         bytes, which a {@link Packet} can't hold
+     */
+    public Packet getPacket() {
+        if (isGap() || length < 3) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        getData(data);
+        return Packet.create(timeNanos, Packet.NO_TICK, getPriority(), getId(), getSource(), isTransmitted(), data);
+    }
+
+    public int getPriority() {
+        return (header >>> 26) & 0x07;
+    }
+
+    public int getSource() {
+        return header & 0xFF;
+    }
+
+    /**
+     * @return the time of the current record in ns since the epoch
+     */
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    public boolean isGap() {
+        return (flags & FLAG_GAP) != 0;
+    }
+
+    public boolean isTransmitted() {
+        return (flags & FLAG_TRANSMITTED) != 0;
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return false at the end of the capture
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (buffer != null && next + RECORD_SIZE <= buffer.limit()) {
+                long time = buffer.getLong(next);
+                if (time != 0) {
+                    current = next;
+                    timeNanos = time;
+                    header = buffer.getInt(current + 8);
+                    flags = buffer.get(current + 12);
+                    length = buffer.getShort(current + 14) & 0xFFFF;
+                    int extra = Math.max(0, length - FIRST_DATA);
+                    next = current + RECORD_SIZE * (1 + (extra + RECORD_SIZE - 1) / RECORD_SIZE);
+                    return true;
+                }
+            }
+            if (segment + 1 >= segments.size()) {
+                return false;
+            }
+            open(segment + 1);
+        }
+    }
+
+    private void open(int number) throws IOException {
+        segment = number;
+        try (FileChannel channel = FileChannel.open(segments.get(number), StandardOpenOption.READ)) {
+            buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION
+                || buffer.getInt(12) != RECORD_SIZE) {
+            throw new IOException(segments.get(number) + " is not a capture");
+        }
+        current = -1;
+        next = HEADER_SIZE;
+    }
+
+    /**
+     * Positions the reader so that the next call to {@link #next()} returns
+     * the first record at or after time, using the index of the segments.
+     *
+     * @param timeNanos
+     *                      ns since the epoch
+     */
+    public void seek(long timeNanos) throws IOException {
+        // the last segment that starts at or before time
+        int first = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            long[] index = readIndex(segments.get(i));
+            if (index.length > 0 && index[0] <= timeNanos) {
+                first = i;
+            }
+        }
+        open(first);
+        long[] index = readIndex(segments.get(first));
+        // entries are (time, record) pairs
+        int lo = 0;
+        int hi = index.length / 2 - 1;
+        long record = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (index[mid * 2] <= timeNanos) {
+                record = index[mid * 2 + 1];
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        next = (int) (HEADER_SIZE + record * RECORD_SIZE);
+        // scan forward to the first record at or after time
+        while (true) {
+            int before = next;
+            int beforeSegment = segment;
+            if (!next()) {
+                return;
+            }
+            if (this.timeNanos >= timeNanos) {
+                if (segment == beforeSegment) {
+                    next = before;
+                } else {
+                    next = HEADER_SIZE;
+                }
+                current = -1;
+                return;
+            }
+        }
+    }
+
+    /** Reads the side index of segment, or an empty index if it is missing. */
+    private static long[] readIndex(Path segment) throws IOException {
+        Path file = segment.resolveSibling(segment.getFileName() + INDEX_SUFFIX);
+        if (!Files.exists(file)) {
+            return new long[0];
+        }
+        List<Long> entries = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(file);
+                DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            while (true) {
+                long time = data.readLong();
+                long record = data.readLong();
+                entries.add(time);
+                entries.add(record);
+            }
+        } catch (EOFException e) {
+            // end of the index
+        }
+        return entries.stream().mapToLong(Long::longValue).toArray();
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes a binary capture of a bus to memory mapped segment files.
+ *
+ * A segment is pre-sized and starts with a {@value #HEADER_SIZE} byte header
+ * (the magic "J1939CAP", the version and the record size), followed by fixed
+ * {@value #RECORD_SIZE} byte little-endian records:
+ *
+ * <pre>
+ *  0 long  receive time in ns since the epoch, 0 after the last record
+ *  8 int   priority &lt;&lt; 26 | id &lt;&lt; 8 | source
+ * 12 byte  flags, {@link #FLAG_TRANSMITTED} or {@link #FLAG_GAP}
+ * 13 byte  reserved
+ * 14 short data length
+ * 16 8 bytes of data, or for a gap, the number of frames lost
+ * </pre>
+ *
+ * Data longer than 8 bytes continues in as many following records as needed,
+ * 24 bytes each. When a segment is full, the next one is started, so a
+ * capture of a whole day is a series of segments named stem-0000.j1939,
+ * stem-0001.j1939, ...
+ *
+ * Each segment has a side index, the segment name plus ".idx", of (time,
+ * record) pairs every {@value #INDEX_INTERVAL} records, so a reader can seek to
+ * a time without scanning. See {@link CaptureReader}.
+ *
+ * Not thread safe. Writing a packet is a few puts into the mapped segment.
+ */
+public class CaptureWriter implements AutoCloseable {
+
+    public static final String SUFFIX = ".j1939";
+
+    public static final String INDEX_SUFFIX = ".idx";
+
+    /** Default segment size, about 700,000 frames. */
+    public static final long DEFAULT_SEGMENT_BYTES = 16 << 20;
+
+    public static final int FLAG_TRANSMITTED = 1;
+
+    public static final int FLAG_GAP = 2;
+
+    static final long MAGIC = 0x5041_4339_3339_314AL; // "J1939CAP"
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 24;
+
+    static final int RECORD_SIZE = 24;
+
+    /** Data bytes in the first record of a frame. */
+    static final int FIRST_DATA = 8;
+
+    static final int INDEX_INTERVAL = 1024;
+
+    /**
+     * Deletes the captures in directory whose names start with prefix, except
+     * for the newest.
+     *
+     * @param keep
+     *                 the number of captures to keep
+     */
+    public static void deleteOldCaptures(File directory, String prefix, int keep) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix)
+                && (name.endsWith(SUFFIX) || name.endsWith(SUFFIX + INDEX_SUFFIX)));
+        if (files == null) {
+            return;
+        }
+        Map<String, List<File>> captures = Stream.of(files).collect(Collectors.groupingBy(CaptureWriter::stemOf));
+        captures.values()
+                .stream()
+                .sorted(Comparator.comparing(list -> -list.stream().mapToLong(File::lastModified).max().orElse(0)))
+                .skip(keep)
+                .flatMap(List::stream)
+                .forEach(File::delete);
+    }
+
+    /**
+     * @return the name of segment number
+     */
+    static String segmentName(String stem, int number) {
+        return String.format("%s-%04d%s", stem, number, SUFFIX);
+    }
+
+    private static String stemOf(File file) {
+        String name = file.getName();
+        int dash = name.lastIndexOf('-');
+        return dash < 0 ? name : name.substring(0, dash);
+    }
+
+    private MappedByteBuffer buffer;
+
+    private final Path directory;
+
+    private DataOutputStream index;
+
+    /** Records written to the current segment. */
+    private long records;
+
+    /** Record at or after which the next index entry is written. */
+    private long nextIndex;
+
+    private final long segmentBytes;
+
+    private final List<Path> segments = new ArrayList<>();
+
+    private final String stem;
+
+    /**
+     * @param directory
+     *                         where to write the segments
+     * @param stem
+     *                         the start of the segment names
+     * @param segmentBytes
+     *                         the size of each segment
+     */
+    public CaptureWriter(Path directory, String stem, long segmentBytes) throws IOException {
+        if (segmentBytes < 64 * 1024 || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentBytes);
+        }
+        this.directory = directory;
+        this.stem = stem;
+        this.segmentBytes = segmentBytes;
+        startSegment();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            endSegment();
+            buffer = null;
+        }
+    }
+
+    /**
+     * Hands the index to the OS. The records are in the mapped segment, so
+     * the OS has them already.
+     */
+    public void flush() throws IOException {
+        if (buffer != null) {
+            index.flush();
+        }
+    }
+
+    /**
+     * Flushes, and forces the segment to the disk, so a power loss does not
+     * lose it.
+     */
+    public void sync() throws IOException {
+        if (buffer != null) {
+            index.flush();
+            buffer.force();
+        }
+    }
+
+    private void endSegment() throws IOException {
+        buffer.force();
+        index.close();
+    }
+
+    /**
+     * @return the segments written, oldest first
+     */
+    public List<Path> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    /** Claims count records, starting a new segment if they don't fit. */
+    private int reserve(int count, long timeNanos) throws IOException {
+        if (buffer == null) {
+            throw new IOException("Capture is closed");
+        }
+        if (buffer.position() + (long) count * RECORD_SIZE > segmentBytes) {
+            endSegment();
+            startSegment();
+        }
+        if (records >= nextIndex) {
+            index.writeLong(timeNanos);
+            index.writeLong(records);
+            nextIndex = records + INDEX_INTERVAL;
+        }
+        records += count;
+        int position = buffer.position();
+        buffer.position(position + count * RECORD_SIZE);
+        return position;
+    }
+
+    private void startSegment() throws IOException {
+        Path file = directory.resolve(segmentName(stem, segments.size()));
+        try (FileChannel channel = FileChannel.open(file,
+                                                    StandardOpenOption.CREATE_NEW,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            // the mapping outlives the channel, and sizes the file
+            buffer = channel.map(MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putLong(0);
+        index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.resolveSibling(file.getFileName()
+                + INDEX_SUFFIX))));
+        records = 0;
+        nextIndex = 0;
+        segments.add(file);
+    }
+
+    /**
+     * Records that frames were lost, for example by a reader that fell behind.
+     *
+     * @param timeNanos
+     *                      when, in ns since the epoch
+     * @param dropped
+     *                      the number of frames lost
+     */
+    public void writeGap(long timeNanos, long dropped) throws IOException {
+        int at = reserve(1, timeNanos);
+        buffer.putInt(at + 8, 0);
+        buffer.put(at + 12, (byte) FLAG_GAP);
+        buffer.put(at + 13, (byte) 0);
+        buffer.putShort(at + 14, (short) 0);
+        buffer.putLong(at + 16, dropped);
+        // the time is written last, as it marks the record as present
+        buffer.putLong(at, timeNanos);
+    }
+
+    /**
+     * Writes a packet, waiting for its data if it is still being collected.
+     */
+    public void write(Packet packet) throws IOException {
+        Payload payload = packet.getPayload();
+        int length = payload.length();
+        long timeNanos = packet.getTimestampNanos();
+        int count = 1 + (Math.max(0, length - FIRST_DATA) + RECORD_SIZE - 1) / RECORD_SIZE;
+        int at = reserve(count, timeNanos);
+        buffer.putInt(at + 8,
+                      packet.getPriority() << 26 | packet.getId(0x3FFFF) << 8 | packet.getSource());
+        buffer.put(at + 12, (byte) (packet.isTransmitted() ? FLAG_TRANSMITTED : 0));
+        buffer.put(at + 13, (byte) 0);
+        buffer.putShort(at + 14, (short) length);
+        int data = at + 16;
+        for (int i = 0; i < length; i++) {
+            buffer.put(data + i, (byte) payload.get(i));
+        }
+        for (int i = length; i < FIRST_DATA; i++) {
+            buffer.put(data + i, (byte) 0);
+        }
+        buffer.putLong(at, timeNanos);
+    }
+}
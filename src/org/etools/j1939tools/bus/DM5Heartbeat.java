@@ -3,6 +3,8 @@ package org.etools.j1939tools.bus;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.etools.j1939tools.j1939.J1939;
+import org.etools.j1939tools.j1939.RequestScheduler;
+import org.etools.j1939tools.j1939.RequestScheduler.Priority;
 import org.etools.j1939tools.j1939.packets.DM5DiagnosticReadinessPacket;
 
 import net.soliddesign.iumpr.controllers.ResultsListener;
@@ -16,6 +18,7 @@ public class DM5Heartbeat {
     static public AutoCloseable run(J1939 j1939, ResultsListener listener) {
         AtomicBoolean running = new AtomicBoolean(true);
         new Thread(() -> {
+            RequestScheduler.setPriority(Priority.BACKGROUND);
             try {
                 Thread.sleep(10_000);
                 while (running.get()) {
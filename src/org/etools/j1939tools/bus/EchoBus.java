@@ -3,6 +3,8 @@
  */
 package org.etools.j1939tools.bus;
 
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
@@ -25,7 +27,7 @@ public class EchoBus implements Bus {
      *                    the address for this connector on the bus
      */
     public EchoBus(int address) {
-        this(address, new MultiQueue<>());
+        this(address, new MultiQueue<>(Packet::getPgn, Packet::getSource));
     }
 
     /**
@@ -51,6 +53,11 @@ public class EchoBus implements Bus {
         return queue.duplicate(stream, time, unit);
     }
 
+    @Override
+    public Stream<Packet> duplicate(Stream<Packet> stream, PacketFilter filter, int time, TimeUnit unit) {
+        return queue.duplicate(stream, filter, time, unit);
+    }
+
     @Override
     public int getAddress() {
         return address;
@@ -61,11 +68,26 @@ public class EchoBus implements Bus {
         throw new BusException("Could not be determined");
     }
 
+    @Override
+    public List<StreamStatistics> getStatistics() {
+        return queue.getStatistics();
+    }
+
+    @Override
+    public Optional<StreamStatistics> getStatistics(Stream<Packet> stream) {
+        return queue.getStatistics(stream);
+    }
+
     @Override
     public Stream<Packet> read(long timeout, TimeUnit unit) {
         return queue.stream(timeout, unit);
     }
 
+    @Override
+    public Stream<Packet> read(PacketFilter filter, long timeout, TimeUnit unit) {
+        return queue.stream(timeout, unit, filter);
+    }
+
     /**
      * Reset stream timeout for stream created with bus.read(). To be used in a
      * stream call like peek, map or forEach.
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram of latencies in ns. Each power of 2 is split into 4
+ * sub-buckets, so a percentile is reported within 25% of the true value, in a
+ * fixed 256 longs regardless of the number of samples. Recording does not
+ * allocate or lock.
+ */
+public final class LatencyHistogram {
+
+    /** log2 of the number of sub-buckets per power of 2. */
+    private static final int SUB_BITS = 2;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    /** Largest value, in ns, that falls in bucket. */
+    private static long bucketLimit(int bucket) {
+        if (bucket < SUB_BUCKETS * 2) {
+            return bucket;
+        }
+        int exponent = (bucket >> SUB_BITS) + 1;
+        long sub = bucket & (SUB_BUCKETS - 1);
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    private static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS * 2) {
+            return (int) Math.max(nanos, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - 1) << SUB_BITS) + sub;
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the largest latency recorded, in ns
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean latency, in ns
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    /**
+     * @param  percentile
+     *                        0 to 100
+     * @return            an upper bound, in ns, of the latency at percentile,
+     *                    within 25%
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketLimit(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return the percentile as a whole number of unit
+     */
+    public long getPercentile(double percentile, TimeUnit unit) {
+        return unit.convert(getPercentile(percentile), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param nanos
+     *                  the latency in ns
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Record the time since start.
+     *
+     * @param start
+     *                  System.nanoTime() at the start
+     */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    /** Clear all samples. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count: %d mean: %.3f ms p50: %.3f ms p99: %.3f ms max: %.3f ms",
+                             getCount(),
+                             getMean() / 1e6,
+                             getPercentile(50) / 1e6,
+                             getPercentile(99) / 1e6,
+                             getMax() / 1e6);
+    }
+}
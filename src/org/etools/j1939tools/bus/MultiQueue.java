@@ -3,66 +3,380 @@
  */
 package org.etools.j1939tools.bus;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Spliterator;
 import java.util.WeakHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 /**
- * The multiqueue is a linked list that multiple visitors can traverse
- * concurrently. Adding items only adds them to open streams. The MultiQueue is
- * at most 1 element long.
+ * The multiqueue is a ring buffer that multiple visitors can traverse
+ * concurrently. Adding items only adds them to open streams.
  *
- * The head item holds no value. It only points to the most recent value (which
- * is also pointed to by the second most recent item. Notice that once a second
- * value is added, nothing references the first value, except for any open
- * streams.
+ * Every item is assigned a sequence number when it is published. Each stream
+ * is a cursor holding the sequence of the next item it will read, so reading
+ * never takes a lock. A cursor that has caught up spins briefly, then parks
+ * for a bounded time. Publishing only unparks the cursors that are actually
+ * parked.
+ *
+ * The ring grows when an open stream would otherwise be overrun, up to the
+ * capacity of the queue, in items or in bytes. Items that no open stream can
+ * reach are reclaimed as the ring wraps. Once the capacity is reached, the
+ * oldest items are dropped and a stream that still needed them throws an
+ * {@link OverflowException} carrying the number of items it lost, then
+ * continues from the oldest item still retained.
+ *
+ * A stream may be opened with a {@link KeyedFilter}. The stream only returns
+ * matching items. When the queue has an indexer, the key of each item is kept
+ * beside the ring, and likewise its source when the queue has a source
+ * indexer. A stream steps over items of other keys or sources without loading
+ * them or running its filter, and a parked stream is only woken for items
+ * whose key the filter declares. A stream still steps over every sequence, so
+ * an open stream costs an array read per item.
+ *
+ * Items may be published before they are complete, like a TP packet that is
+ * still being collected. A stream whose filter asks for completion order holds
+ * incomplete {@link Deferred} items back and returns them as they complete, so
+ * one slow item does not hold up the items behind it.
  *
  * @param <T> type of MultiQueue to be implemented
  */
 public class MultiQueue<T> implements AutoCloseable {
-    // list of weak references to all queues ever allocated to check for abondonded streams.
-    static List<MultiQueue<?>> queues = Collections.synchronizedList(new ArrayList<>());
-    {
-        queues.add(this);
+
+    /**
+     * Thrown by a stream that fell more than the queue capacity behind. The
+     * stream may be read again and continues with the oldest retained item.
+     */
+    static public class OverflowException extends RuntimeException {
+        private static final long serialVersionUID = 7346120589215839245L;
+
+        private final long dropped;
+
+        public OverflowException(long dropped) {
+            super("Stream fell behind the queue capacity and lost " + dropped + " items.");
+            this.dropped = dropped;
+        }
+
+        /**
+         * @return the number of items lost in this gap
+         */
+        public long getDropped() {
+            return dropped;
+        }
+    }
+
+    /**
+     * An item that may be published before it is complete.
+     */
+    public interface Deferred {
+        /**
+         * @return true once the item is complete
+         */
+        boolean isComplete();
+
+        /**
+         * Runs action when the item completes, or now if it already has.
+         *
+         * @param action
+         *                   the action to run
+         */
+        void onComplete(Runnable action);
+    }
+
+    /**
+     * A filter that declares the keys an item must have to match. Keys are
+     * computed by the indexer of the queue.
+     *
+     * @param <T> type of item filtered
+     */
+    public interface KeyedFilter<T> extends Predicate<T> {
+        /**
+         * @return the sorted keys of the items that can match, or null if
+         *         items with any key can match
+         */
+        int[] getKeys();
+
+        /**
+         * @return the sorted sources of the items that can match, or null if
+         *         items from any source can match
+         */
+        default int[] getSources() {
+            return null;
+        }
+
+        /**
+         * @return true if incomplete {@link Deferred} items should be returned
+         *         when they complete instead of in the order they were added
+         */
+        default boolean isCompletionOrder() {
+            return false;
+        }
     }
+
+    /**
+     * Default capacity in items. At full load on a 500 kb/s bus this is about
+     * a minute of traffic.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 18;
+
+    /** Initial number of slots in the ring. Must be a power of 2. */
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    /** Maximum time a stream holds back an item that does not complete. */
+    private static final long MAX_DEFER_MS = 30_000;
+
+    /** Maximum time a cursor parks before rechecking for new items. */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /** Number of busy spins before a cursor starts yielding. */
+    private static final int SPIN_TRIES = 100;
+
+    /** Number of yields before a cursor parks. */
+    private static final int YIELD_TRIES = 10;
+
+    /**
+     * Open cursors. Copy on write, guarded by spliterators. Weak so that an
+     * abandoned stream does not pin the ring.
+     */
+    private volatile WeakReference<SpliteratorImplementation<T>>[] cursors = newCursorArray(0);
+
+    /** Items dropped while a stream still needed them. */
+    private volatile long dropped;
+
+    /** Open cursors that filter on keys, by key. Copy on write with cursors. */
+    private volatile Map<Integer, WeakReference<SpliteratorImplementation<T>>[]> keyed = Map.of();
+
+    /** Oldest sequence that is still in the ring. */
+    private volatile long horizon = 0;
+
+    /** Key of each item, or null when the streams are not indexed. */
+    private final ToIntFunction<? super T> indexer;
+
+    /**
+     * Key of the item in each slot, or null when not indexed. Written before
+     * the item is published, and replaced before the ring when it grows.
+     */
+    private volatile int[] itemKeys;
+
+    /**
+     * Source of the item in each slot, or null when not indexed by source.
+     * Written and replaced like itemKeys.
+     */
+    private volatile int[] itemSources;
+
+    /** Maximum bytes retained, or 0 when only the number of items is bounded. */
+    private final long maxBytes;
+
+    /** Maximum number of slots in the ring. */
+    private final int maxLength;
+
+    /** Sequence of the most recent item. */
+    private volatile long published = -1;
+
+    /** Serializes producers. Consumers never take it. */
+    private final ReentrantLock publishLock = new ReentrantLock();
+
+    /** Bytes held between horizon and published. Producer only. */
+    private long retainedBytes;
+
+    private volatile AtomicReferenceArray<T> ring;
+
+    /** Source of each item, or null when the streams are not indexed by it. */
+    private final ToIntFunction<? super T> sourceIndexer;
+
     private final WeakHashMap<Stream<T>, SpliteratorImplementation<T>> spliterators = new WeakHashMap<>();
-    private Item<T> list = new Item<>(null);
 
-    static {
-        // monitor for stream leaks greater than 10,000 items.
-        new Thread(() -> {
-            try {
-                while (true) {
-                    // only check every 30 s
-                    Thread.sleep(30 * 1000);
-                    for (MultiQueue<?> q : queues) {
-                        List<SpliteratorImplementation<?>> list;
-                        synchronized (q.spliterators) {
-                            list = new ArrayList<>(q.spliterators.values());
-                        }
-                        list.forEach(sp -> {
-                            long es = sp.estimateSize();
-                            if (es > 10_000) {
-                                System.err.println(sp + " size:" + es + " end:" + sp.end);
-                                // sp.stack.printStackTrace();
-                            }
-                        });
-                    }
+    /** Number of cursors currently parked. */
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /** Size of each item, or null when only the number of items is bounded. */
+    private final ToIntFunction<? super T> weigher;
+
+    /** Open cursors that do not filter on keys. Copy on write with cursors. */
+    private volatile WeakReference<SpliteratorImplementation<T>>[] unkeyed = newCursorArray(0);
+
+    /** Size of the item in each slot. Producer only. */
+    private int[] weights;
+
+    /**
+     * Creates a queue retaining up to {@link #DEFAULT_CAPACITY} items.
+     */
+    public MultiQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a queue retaining up to capacity items.
+     *
+     * @param capacity
+     *                     the maximum number of items a stream may fall behind,
+     *                     rounded up to a power of 2
+     */
+    public MultiQueue(int capacity) {
+        this(capacity, 0, null, null, null);
+    }
+
+    /**
+     * Creates a queue retaining up to {@link #DEFAULT_CAPACITY} items, that
+     * indexes streams opened with a {@link KeyedFilter}.
+     *
+     * @param indexer
+     *                    the key of an item
+     */
+    public MultiQueue(ToIntFunction<? super T> indexer) {
+        this(DEFAULT_CAPACITY, 0, null, indexer, null);
+    }
+
+    /**
+     * Creates a queue retaining up to {@link #DEFAULT_CAPACITY} items, that
+     * indexes streams opened with a {@link KeyedFilter} by key and by source.
+     *
+     * @param indexer
+     *                          the key of an item
+     * @param sourceIndexer
+     *                          the source of an item
+     */
+    public MultiQueue(ToIntFunction<? super T> indexer, ToIntFunction<? super T> sourceIndexer) {
+        this(DEFAULT_CAPACITY, 0, null, indexer, sourceIndexer);
+    }
+
+    /**
+     * Creates a queue retaining up to maxBytes, as measured by weigher, and
+     * at most {@link #DEFAULT_CAPACITY} items.
+     *
+     * @param maxBytes
+     *                     the maximum number of bytes a stream may fall behind
+     * @param weigher
+     *                     the size in bytes of an item
+     */
+    public MultiQueue(long maxBytes, ToIntFunction<? super T> weigher) {
+        this(DEFAULT_CAPACITY, maxBytes, weigher, null, null);
+    }
+
+    private MultiQueue(int capacity,
+                       long maxBytes,
+                       ToIntFunction<? super T> weigher,
+                       ToIntFunction<? super T> indexer,
+                       ToIntFunction<? super T> sourceIndexer) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int length = 1;
+        while (length < capacity) {
+            length <<= 1;
+        }
+        maxLength = length;
+        this.maxBytes = maxBytes;
+        this.weigher = weigher;
+        this.indexer = indexer;
+        this.sourceIndexer = sourceIndexer;
+        ring = new AtomicReferenceArray<>(Math.min(INITIAL_CAPACITY, maxLength));
+        weights = weigher == null ? null : new int[ring.length()];
+        itemKeys = indexer == null ? null : new int[ring.length()];
+        itemSources = sourceIndexer == null ? null : new int[ring.length()];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> WeakReference<SpliteratorImplementation<T>>[] newCursorArray(int length) {
+        return new WeakReference[length];
+    }
+
+    private static int index(long sequence, AtomicReferenceArray<?> ring) {
+        return (int) (sequence & (ring.length() - 1));
+    }
+
+    public void add(T v) {
+        publishLock.lock();
+        try {
+            append(v);
+        } finally {
+            publishLock.unlock();
+        }
+        if (waiting.get() > 0) {
+            wakeWaiters(v);
+        }
+    }
+
+    /** Publishes v. Must be called holding publishLock. */
+    private void append(T v) {
+        long sequence = published + 1;
+        int weight = weigher == null ? 0 : weigher.applyAsInt(v);
+        AtomicReferenceArray<T> r = ring;
+        if (sequence - horizon >= r.length() || (maxBytes > 0 && retainedBytes + weight > maxBytes)) {
+            r = makeRoom(sequence, weight);
+        }
+        int index = index(sequence, r);
+        r.lazySet(index, v);
+        if (indexer != null) {
+            itemKeys[index] = indexer.applyAsInt(v);
+        }
+        if (sourceIndexer != null) {
+            itemSources[index] = sourceIndexer.applyAsInt(v);
+        }
+        if (weights != null) {
+            weights[index] = weight;
+            retainedBytes += weight;
+        }
+        published = sequence;
+    }
+
+    /**
+     * Publishes items[from] to items[to - 1] in order, taking the publish lock
+     * once for the whole batch.
+     */
+    public void addAll(T[] items, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        publishLock.lock();
+        try {
+            for (int i = from; i < to; i++) {
+                append(items[i]);
+            }
+        } finally {
+            publishLock.unlock();
+        }
+        if (waiting.get() > 0) {
+            if (indexer == null) {
+                wakeWaiters(cursors);
+            } else {
+                for (int i = from; i < to; i++) {
+                    wakeWaiters(items[i]);
                 }
-            } catch (Throwable t) {
-                t.printStackTrace();
             }
-        }, "MultiQueue Monitor").start();
+        }
     }
 
-    synchronized public void add(T v) {
-        list = list.add(v);
+    /**
+     * Moves the horizon forward, releasing the slots before it. The horizon is
+     * published before any slot is cleared or reused.
+     */
+    private void advanceHorizon(long newHorizon) {
+        AtomicReferenceArray<T> r = ring;
+        long oldHorizon = horizon;
+        horizon = newHorizon;
+        for (long s = oldHorizon; s < newHorizon; s++) {
+            int index = index(s, r);
+            if (weights != null) {
+                retainedBytes -= weights[index];
+            }
+            r.lazySet(index, null);
+        }
     }
 
     @Override
@@ -71,7 +385,6 @@ public class MultiQueue<T> implements AutoCloseable {
         synchronized (spliterators) {
             spliterators.values().forEach(SpliteratorImplementation<T>::close);
         }
-        queues.remove(this);
     }
 
     /**
@@ -87,18 +400,207 @@ public class MultiQueue<T> implements AutoCloseable {
     public Stream<T> duplicate(Stream<T> stream, int time, TimeUnit unit) {
         synchronized (spliterators) {
             SpliteratorImplementation<T> oldSpliterator = spliterators.get(stream);
-            if (oldSpliterator.item == null) {
-                throw new IllegalStateException("stream has already been closed.");
+            if (oldSpliterator == null) {
+                throw new IllegalArgumentException("Invalid stream.");
             }
-            SpliteratorImplementation<T> newSpliterator = new SpliteratorImplementation<>(oldSpliterator);
-            Stream<T> newStream = StreamSupport.stream(newSpliterator, false);
-            spliterators.put(newStream, newSpliterator);
-            newSpliterator.setTimeout(time, unit);
-            newStream.onClose(newSpliterator::close);
-            return newStream;
+            return duplicate(oldSpliterator, oldSpliterator.filter, time, unit);
         }
     }
 
+    /**
+     * Duplicates a stream, only returning the items that match filter.
+     *
+     * @param  stream Original stream.
+     * @param  filter The items the new stream returns.
+     * @param  time   New timeout for this stream.
+     * @param  unit
+     * @return        The new stream, starting at the same location the original
+     *                is right now.
+     */
+    public Stream<T> duplicate(Stream<T> stream, KeyedFilter<? super T> filter, int time, TimeUnit unit) {
+        synchronized (spliterators) {
+            SpliteratorImplementation<T> oldSpliterator = spliterators.get(stream);
+            if (oldSpliterator == null) {
+                throw new IllegalArgumentException("Invalid stream.");
+            }
+            return duplicate(oldSpliterator, filter, time, unit);
+        }
+    }
+
+    private Stream<T> duplicate(SpliteratorImplementation<T> oldSpliterator,
+                                KeyedFilter<? super T> filter,
+                                int time,
+                                TimeUnit unit) {
+        if (oldSpliterator.closed) {
+            throw new IllegalStateException("stream has already been closed.");
+        }
+        SpliteratorImplementation<T> newSpliterator = new SpliteratorImplementation<>(this,
+                                                                                      Math.max(oldSpliterator.next,
+                                                                                               horizon),
+                                                                                      filter);
+        newSpliterator.setTimeout(time, unit);
+        return register(newSpliterator);
+    }
+
+    /**
+     * Returns the lowest sequence any open stream may still read, dropping
+     * closed, expired and abandoned streams from the set of open cursors.
+     * Called by the producer only when the ring is about to wrap.
+     */
+    private long gatingSequence(long sequence) {
+        long min = sequence;
+        long now = System.currentTimeMillis();
+        synchronized (spliterators) {
+            List<WeakReference<SpliteratorImplementation<T>>> live = new ArrayList<>();
+            for (WeakReference<SpliteratorImplementation<T>> ref : cursors) {
+                SpliteratorImplementation<T> cursor = ref.get();
+                if (cursor != null && !cursor.closed && cursor.end > now) {
+                    live.add(ref);
+                    min = Math.min(min, cursor.next);
+                }
+            }
+            if (live.size() != cursors.length) {
+                setCursors(live.toArray(newCursorArray(live.size())));
+            }
+        }
+        return min;
+    }
+
+    /**
+     * @return the number of items dropped while a stream still needed them
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return counters for every open stream
+     */
+    public List<StreamStatistics> getStatistics() {
+        List<StreamStatistics> result = new ArrayList<>();
+        for (WeakReference<SpliteratorImplementation<T>> ref : cursors) {
+            SpliteratorImplementation<T> cursor = ref.get();
+            if (cursor != null && !cursor.closed) {
+                result.add(cursor.getStatistics());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param  stream
+     *                    a stream created with stream(timeout, unit) or
+     *                    duplicate(stream, time, unit)
+     * @return        counters for the stream, or empty if the stream is not from
+     *                this queue
+     */
+    public Optional<StreamStatistics> getStatistics(Stream<T> stream) {
+        synchronized (spliterators) {
+            return Optional.ofNullable(spliterators.get(stream)).map(SpliteratorImplementation::getStatistics);
+        }
+    }
+
+    /**
+     * Makes room in the ring for sequence, first by reclaiming slots that no
+     * open stream can still read, then by growing the ring, and finally by
+     * dropping the oldest items.
+     */
+    private AtomicReferenceArray<T> makeRoom(long sequence, int weight) {
+        AtomicReferenceArray<T> r = ring;
+        long gating = gatingSequence(sequence);
+        if (gating > horizon) {
+            advanceHorizon(gating);
+        }
+        if (sequence - horizon >= r.length()) {
+            if (r.length() < maxLength) {
+                AtomicReferenceArray<T> grown = new AtomicReferenceArray<>(r.length() * 2);
+                int[] grownWeights = weights == null ? null : new int[grown.length()];
+                int[] grownKeys = itemKeys == null ? null : new int[grown.length()];
+                int[] grownSources = itemSources == null ? null : new int[grown.length()];
+                for (long s = horizon; s < sequence; s++) {
+                    grown.lazySet(index(s, grown), r.get(index(s, r)));
+                    if (grownWeights != null) {
+                        grownWeights[index(s, grown)] = weights[index(s, r)];
+                    }
+                    if (grownKeys != null) {
+                        grownKeys[index(s, grown)] = itemKeys[index(s, r)];
+                    }
+                    if (grownSources != null) {
+                        grownSources[index(s, grown)] = itemSources[index(s, r)];
+                    }
+                }
+                weights = grownWeights;
+                // keys first, so a reader that sees the new ring sees its keys
+                itemKeys = grownKeys;
+                itemSources = grownSources;
+                ring = r = grown;
+            } else {
+                // full, drop an eighth of the ring at once so a stalled stream
+                // does not cost a scan on every add
+                drop(sequence - r.length() + Math.max(1, r.length() / 8));
+            }
+        }
+        while (maxBytes > 0 && retainedBytes + weight > maxBytes && horizon < sequence) {
+            drop(horizon + Math.max(1, (sequence - horizon) / 8));
+        }
+        return r;
+    }
+
+    private void drop(long newHorizon) {
+        dropped += newHorizon - horizon;
+        advanceHorizon(newHorizon);
+    }
+
+    /**
+     * Reads the item at sequence.
+     *
+     * @return false if the item has already been reclaimed or dropped
+     */
+    private boolean read(long sequence, SpliteratorImplementation<T> cursor) {
+        AtomicReferenceArray<T> r = ring;
+        T value = r.get(index(sequence, r));
+        // the horizon is moved before a slot is reused, so checking it after
+        // the read verifies that the value was not overwritten
+        if (sequence < horizon) {
+            return false;
+        }
+        cursor.value = value;
+        return true;
+    }
+
+    /**
+     * @param  keys
+     *                     the keys that can match, or null for any
+     * @param  sources
+     *                     the sources that can match, or null for any
+     * @return         false if the item at sequence is known to have none of
+     *                 keys or none of sources, true if it may match
+     */
+    private boolean mayMatch(long sequence, int[] keys, int[] sources) {
+        AtomicReferenceArray<T> r = ring;
+        int[] k = itemKeys;
+        int[] s = itemSources;
+        if ((k != null && k.length != r.length()) || (s != null && s.length != r.length())) {
+            // the ring grew while reading, let the item be read
+            return true;
+        }
+        int index = index(sequence, r);
+        boolean match = (keys == null || k == null || Arrays.binarySearch(keys, k[index]) >= 0)
+                && (sources == null || s == null || Arrays.binarySearch(sources, s[index]) >= 0);
+        // as in read, the key was not overwritten if the slot is still held
+        return match || sequence < horizon;
+    }
+
+    private Stream<T> register(SpliteratorImplementation<T> spliterator) {
+        Stream<T> stream = StreamSupport.stream(spliterator, false);
+        spliterators.put(stream, spliterator);
+        WeakReference<SpliteratorImplementation<T>>[] c = Arrays.copyOf(cursors, cursors.length + 1);
+        c[c.length - 1] = new WeakReference<>(spliterator);
+        setCursors(c);
+        stream.onClose(spliterator::close);
+        return stream;
+    }
+
     /**
      * Reset the timeout for the given stream. This is the original stream returned
      * from stream(timeout, unit), not some stream derived from stream(timeout,
@@ -127,92 +629,312 @@ public class MultiQueue<T> implements AutoCloseable {
      *                     the TimeUnit for the timeout
      * @return         the stream
      */
-    synchronized public Stream<T> stream(long timeout, TimeUnit unit) {
-        SpliteratorImplementation<T> spliterator = new SpliteratorImplementation<>(list, timeout, unit);
-        Stream<T> stream = StreamSupport.stream(spliterator, false);
+    public Stream<T> stream(long timeout, TimeUnit unit) {
+        return stream(timeout, unit, null);
+    }
+
+    /**
+     * @param  timeout
+     *                     The stream will be valid for a period of timeout.
+     * @param  unit
+     *                     the TimeUnit for the timeout
+     * @param  filter
+     *                     the items the stream returns, or null for all items
+     * @return         the stream
+     */
+    public Stream<T> stream(long timeout, TimeUnit unit, KeyedFilter<? super T> filter) {
         synchronized (spliterators) {
-            spliterators.put(stream, spliterator);
+            SpliteratorImplementation<T> spliterator = new SpliteratorImplementation<>(this, published + 1, filter);
+            spliterator.setTimeout(timeout, unit);
+            return register(spliterator);
         }
-        stream.onClose(spliterator::close);
-        return stream;
     }
 
-    static private class Item<T> {
-        final T value;
-        Item<T> next;
-
-        Item(T v) {
-            value = v;
+    /**
+     * Replaces the open cursors and rebuilds the key index. Called with
+     * spliterators held.
+     */
+    private void setCursors(WeakReference<SpliteratorImplementation<T>>[] c) {
+        List<WeakReference<SpliteratorImplementation<T>>> any = new ArrayList<>();
+        Map<Integer, List<WeakReference<SpliteratorImplementation<T>>>> byKey = new HashMap<>();
+        for (WeakReference<SpliteratorImplementation<T>> ref : c) {
+            SpliteratorImplementation<T> cursor = ref.get();
+            if (cursor == null) {
+                continue;
+            }
+            if (cursor.keys == null || indexer == null) {
+                any.add(ref);
+            } else {
+                for (int key : cursor.keys) {
+                    byKey.computeIfAbsent(key, k -> new ArrayList<>()).add(ref);
+                }
+            }
         }
+        Map<Integer, WeakReference<SpliteratorImplementation<T>>[]> index = new HashMap<>();
+        byKey.forEach((key, refs) -> index.put(key, refs.toArray(newCursorArray(refs.size()))));
+        cursors = c;
+        unkeyed = any.toArray(newCursorArray(any.size()));
+        keyed = index;
+    }
 
-        synchronized Item<T> add(T v) {
-            next = new Item<>(v);
-            notifyAll();
-            return next;
+    /**
+     * Unpark only the cursors that are parked and, when the queue is indexed,
+     * that can match v.
+     */
+    private void wakeWaiters(T v) {
+        if (indexer == null) {
+            wakeWaiters(cursors);
+        } else {
+            wakeWaiters(unkeyed);
+            WeakReference<SpliteratorImplementation<T>>[] refs = keyed.get(indexer.applyAsInt(v));
+            if (refs != null) {
+                wakeWaiters(refs);
+            }
         }
+    }
 
-        synchronized Item<T> next(long delay) {
-            if (next == null) {
-                try {
-                    wait(delay);
-                } catch (InterruptedException e) {
-                    // no problem
+    private static <T> void wakeWaiters(WeakReference<SpliteratorImplementation<T>>[] refs) {
+        for (WeakReference<SpliteratorImplementation<T>> ref : refs) {
+            SpliteratorImplementation<T> cursor = ref.get();
+            if (cursor != null) {
+                Thread waiter = cursor.waiter;
+                if (waiter != null) {
+                    LockSupport.unpark(waiter);
                 }
             }
-            return next;
         }
+    }
+
+    /** An incomplete item held back by a stream. */
+    private final static class Pending<T> {
+        private final long deadline;
+        private final T item;
 
-        synchronized public boolean isReady() {
-            return next != null;
+        private Pending(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
         }
     }
 
     private final static class SpliteratorImplementation<T> implements Spliterator<T> {
+        private volatile boolean closed;
+        // hold back incomplete items until they complete
+        private final boolean completionOrder;
+        // count of held back items that completed, used to wake the reader
+        private final AtomicInteger completions = new AtomicInteger();
+        private volatile long delivered;
+        private volatile long dropped;
         // end time of stream
-        private long end;
-        // reference to tail
-        private Item<T> item;
-        // final private Error stack;
+        private volatile long end;
+        // items this stream returns, or null for all
+        private final KeyedFilter<? super T> filter;
+        // keys filter may match, or null for any
+        private final int[] keys;
+        // true if items of other keys or sources are stepped over by the index
+        private final boolean indexed;
+        // sequence of the next item to read
+        private volatile long next;
+        // incomplete items in the order they were added, only used by the reading thread
+        private final List<Pending<T>> pending = new ArrayList<>();
+        private final MultiQueue<T> queue;
+        // sources filter may match, or null for any
+        private final int[] sources;
+        // thread parked waiting on this cursor
+        private volatile Thread waiter;
+
+        // item most recently read, only used by the reading thread
+        private T value;
+
+        private SpliteratorImplementation(MultiQueue<T> queue, long next, KeyedFilter<? super T> filter) {
+            this.queue = queue;
+            this.next = next;
+            this.filter = filter;
+            this.keys = filter == null ? null : filter.getKeys();
+            this.sources = filter == null ? null : filter.getSources();
+            this.indexed = (keys != null && queue.indexer != null)
+                    || (sources != null && queue.sourceIndexer != null);
+            this.completionOrder = filter != null && filter.isCompletionOrder();
+        }
+
+        /**
+         * Wait for an item after sequence last, up to remaining ms. Spin, then
+         * yield, then park for a bounded time.
+         */
+        private void await(long last, int signal, long remaining) {
+            for (int i = 0; i < SPIN_TRIES; i++) {
+                if (queue.published != last || closed || completions.get() != signal) {
+                    return;
+                }
+                Thread.onSpinWait();
+            }
+            for (int i = 0; i < YIELD_TRIES; i++) {
+                if (queue.published != last || closed || completions.get() != signal) {
+                    return;
+                }
+                Thread.yield();
+            }
+            waiter = Thread.currentThread();
+            queue.waiting.incrementAndGet();
+            try {
+                // recheck after advertising the waiter, so a publish is never missed
+                if (queue.published == last && !closed && completions.get() == signal) {
+                    LockSupport.parkNanos(this,
+                                          Math.min(MAX_PARK_NANOS, TimeUnit.MILLISECONDS.toNanos(remaining)));
+                }
+            } finally {
+                queue.waiting.decrementAndGet();
+                waiter = null;
+            }
+        }
+
+        /**
+         * Wait for a held back item to complete, after the stream has closed or
+         * timed out.
+         */
+        private void awaitCompletion(int signal) {
+            waiter = Thread.currentThread();
+            try {
+                if (completions.get() == signal) {
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                }
+            } finally {
+                waiter = null;
+            }
+        }
+
+        @Override
+        public int characteristics() {
+            return IMMUTABLE | (completionOrder ? 0 : ORDERED);
+        }
 
-        private SpliteratorImplementation(Item<T> list, long timeout, TimeUnit unit) {
-            item = list;
-            setTimeout(timeout, unit);
-            // stack = new Error();
+        /** Hold back an incomplete item until it completes. */
+        private void defer(T item, Deferred deferred) {
+            pending.add(new Pending<>(item, System.currentTimeMillis() + MAX_DEFER_MS));
+            deferred.onComplete(() -> {
+                completions.incrementAndGet();
+                Thread w = waiter;
+                if (w != null) {
+                    LockSupport.unpark(w);
+                }
+            });
+        }
+
+        /**
+         * @return the first held back item that completed, or null. Items
+         *         that never complete are discarded.
+         */
+        private T takeCompleted() {
+            long now = System.currentTimeMillis();
+            for (Iterator<Pending<T>> it = pending.iterator(); it.hasNext();) {
+                Pending<T> p = it.next();
+                if (((Deferred) p.item).isComplete()) {
+                    it.remove();
+                    return p.item;
+                }
+                if (p.deadline <= now) {
+                    it.remove();
+                }
+            }
+            return null;
         }
 
         public void close() {
             end = 0;
-            item = null;
+            closed = true;
+            Thread w = waiter;
+            if (w != null) {
+                LockSupport.unpark(w);
+            }
         }
 
-        public SpliteratorImplementation(SpliteratorImplementation<T> that) {
-            item = that.item;
-            end = that.end;
-            // stack = new Error();
+        @Override
+        public long estimateSize() {
+            return Math.max(0, queue.published - next + 1);
+        }
+
+        StreamStatistics getStatistics() {
+            return new StreamStatistics(delivered, dropped, estimateSize());
         }
 
         public void setTimeout(long timeout, TimeUnit unit) {
-            end = System.currentTimeMillis() + unit.toMillis(timeout);
+            long now = System.currentTimeMillis();
+            // saturate, so very long timeouts do not overflow into the past
+            end = now + Math.min(unit.toMillis(timeout), Long.MAX_VALUE - now);
         }
 
         @Override
         public boolean tryAdvance(Consumer<? super T> action) {
             /*
-             * While not timed out, wait next packet.
-             * 
-             * Include isReady, because this is based on wall clock and there is no indication when item.next was added,
-             * except that it is added now.
+             * While not timed out, wait next item.
+             *
+             * Items already published are returned even after the timeout or close, because this is based on wall
+             * clock and there is no indication when the item was added, except that it is added now.
              */
-            while (item != null && (item.isReady() || System.currentTimeMillis() < end)) {
-                Item<T> n = item.next(end - System.currentTimeMillis());
-                if (n != null) {
-                    item = n;
-                    action.accept(n.value);
+            while (true) {
+                int signal = completions.get();
+                if (!pending.isEmpty()) {
+                    T v = takeCompleted();
+                    if (v != null) {
+                        if (filter != null && !filter.test(v)) {
+                            continue;
+                        }
+                        delivered++;
+                        action.accept(v);
+                        return true;
+                    }
+                }
+                long last = queue.published;
+                long sequence = next;
+                if (sequence <= last) {
+                    long horizon = queue.horizon;
+                    if (sequence < horizon) {
+                        next = horizon;
+                        if (closed || end <= System.currentTimeMillis()) {
+                            // reclaimed after this stream expired, not a loss
+                            break;
+                        }
+                        long lost = horizon - sequence;
+                        dropped += lost;
+                        throw new OverflowException(lost);
+                    }
+                    if (indexed && !queue.mayMatch(sequence, keys, sources)) {
+                        // another key or source, step over it without loading it
+                        next = sequence + 1;
+                        continue;
+                    }
+                    // next is only moved after the read, so the slot can not be
+                    // reclaimed as consumed while it is being read
+                    if (!queue.read(sequence, this)) {
+                        // dropped during the read, report it as a gap
+                        continue;
+                    }
+                    next = sequence + 1;
+                    T v = value;
+                    value = null;
+                    if (completionOrder && v instanceof Deferred && !((Deferred) v).isComplete()) {
+                        defer(v, (Deferred) v);
+                        continue;
+                    }
+                    if (filter != null && !filter.test(v)) {
+                        continue;
+                    }
+                    delivered++;
+                    action.accept(v);
                     return true;
                 }
+                long remaining = end - System.currentTimeMillis();
+                if (closed || remaining <= 0) {
+                    if (pending.isEmpty()) {
+                        break;
+                    }
+                    // items added before the end are still returned once they complete
+                    awaitCompletion(signal);
+                    continue;
+                }
+                await(last, signal, remaining);
             }
-            // lose reference to tail, to allow for faster cleanup
-            item = null;
+            // release this cursor so it no longer holds the ring
+            closed = true;
             return false;
         }
 
@@ -221,21 +943,5 @@ public class MultiQueue<T> implements AutoCloseable {
             // Do not split.
             return null;
         }
-
-        @Override
-        public long estimateSize() {
-            int count = 0;
-            Item<T> item = this.item;
-            while (item != null) {
-                item = item.next;
-                count++;
-            }
-            return count;
-        }
-
-        @Override
-        public int characteristics() {
-            return IMMUTABLE | ORDERED;
-        }
     }
 }
@@ -3,10 +3,10 @@
  */
 package org.etools.j1939tools.bus;
 
-import java.time.Duration;
+import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.OffsetDateTime;
-import java.time.ZoneOffset;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.Temporal;
 import java.util.Arrays;
@@ -14,6 +14,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -29,7 +33,7 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
  *
  * @author Joe Batt (joe@soliddesign.net)
  */
-public class Packet {
+public class Packet implements MultiQueue.Deferred {
     static public class PacketException extends RuntimeException {
 
         public PacketException(String string) {
@@ -38,7 +42,15 @@ public class Packet {
 
     }
 
-    private static final int[] FAIL = new int[0];
+    /** Maximum time isValid() waits for an incomplete packet. */
+    private static final long MAX_WAIT_MS = 30_000;
+    /** The tick of a packet that did not come from an adapter. */
+    public static final long NO_TICK = -1;
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private static final long GIGA = 1_000_000_000L;
+
     // FIXME, eventually change to (RX)
     public static final String RX = "";
     /**
@@ -109,11 +121,43 @@ public class Packet {
             // a body of 0 length indicates that the packet was a failure.
             throw new IllegalArgumentException("Packets must have a body of at least 3 bytes.");
         }
-        int[] data = new int[bytes.length];
-        for (int i = 0; i < bytes.length; i++) {
-            data[i] = 0xFF & bytes[i];
+        return new Packet(time, priority, id, source, transmitted, Payload.of(bytes));
+    }
+
+    /**
+     * Creates an instance of Packet received from an adapter
+     *
+     * @param timeNanos
+     *            the time the packet was received, in ns since the epoch
+     * @param tick
+     *            the raw timestamp reported by the adapter
+     * @param priority
+     *            the priority of the packet
+     * @param id
+     *            the ID of the packet
+     * @param source
+     *            the source address of the packet
+     * @param transmitted
+     *            indicates the packet was sent by the application
+     * @param bytes
+     *            the data bytes of the packet
+     * @return Packet
+     */
+    public static Packet create(long timeNanos,
+            long tick,
+            int priority,
+            int id,
+            int source,
+            boolean transmitted,
+            byte... bytes) {
+        if (bytes.length < 3) {
+            // a body of 0 length indicates that the packet was a failure.
+            throw new IllegalArgumentException("Packets must have a body of at least 3 bytes.");
         }
-        return new Packet(time, priority, id, source, transmitted, data);
+        Packet packet = new Packet((LocalDateTime) null, priority, id, source, transmitted, Payload.of(bytes));
+        packet.timeNanos = timeNanos;
+        packet.tick = tick;
+        return packet;
     }
 
     public static Packet create(LocalDateTime time,
@@ -193,7 +237,21 @@ public class Packet {
         return null;
     }
 
-    private int[] data;
+    /** Completed with this packet once the data is set or the packet failed. */
+    private final CompletableFuture<Packet> completion = new CompletableFuture<>();
+
+    /**
+     * The data of a packet that was complete when created. A final field is
+     * safely published by the constructor, so single frames are read without
+     * any volatile read or lock.
+     */
+    private final Payload initial;
+
+    /**
+     * The data of a TP packet, set once when it is collected or failed.
+     * Guarded by this for writes.
+     */
+    private volatile Payload collected;
 
     private List<Packet> fragments = Collections.singletonList(this);
 
@@ -203,6 +261,19 @@ public class Packet {
 
     private final int source;
 
+    /** Raw adapter timestamp, or NO_TICK. */
+    private long tick = NO_TICK;
+
+    /**
+     * Receive time in ns since the epoch, or NO_TIME until it is computed from
+     * timestamp.
+     */
+    private long timeNanos = NO_TIME;
+
+    /**
+     * Receive time, or null until it is computed from timeNanos. Built lazily,
+     * because most packets are only ever compared by time.
+     */
     private LocalDateTime timestamp;
 
     private final boolean transmitted;
@@ -222,16 +293,33 @@ public class Packet {
      *            the data of the packet
      */
     public Packet(LocalDateTime timestamp, int priority, int id, int source, boolean transmitted, int... data) {
+        this(timestamp, priority, id, source, transmitted, data == null ? null : Payload.of(data));
+    }
+
+    /**
+     * Creates a Packet
+     *
+     * @param priority
+     *            the priority of the packet
+     * @param id
+     *            the ID of the packet
+     * @param source
+     *            the source address of the packet
+     * @param transmitted
+     *            indicates the packet was sent by the application
+     * @param payload
+     *            the data of the packet, or null if it is still being
+     *            collected
+     */
+    public Packet(LocalDateTime timestamp, int priority, int id, int source, boolean transmitted, Payload payload) {
         this.timestamp = timestamp;
         this.priority = priority;
         this.id = id;
         this.source = source;
         this.transmitted = transmitted;
-        this.data = data;
-        if (data != null) {
-            for (int i = 0; i < data.length; i++) {
-                data[i] &= 0xFF;
-            }
+        initial = payload;
+        if (payload != null) {
+            completion.complete(this);
         }
     }
 
@@ -246,12 +334,19 @@ public class Packet {
 
         Packet that = (Packet) obj;
         return id == that.id && priority == that.priority && source == that.source && transmitted == that.transmitted
-                && Objects.deepEquals(getData(), that.getData());
+                && getPayload().equals(that.getPayload());
     }
 
+    /**
+     * Fails a packet that is still being collected. Complete packets are not
+     * changed.
+     */
     synchronized public void fail() {
-        data = FAIL;
-        notifyAll();
+        if (isComplete()) {
+            return;
+        }
+        collected = Payload.EMPTY;
+        completion.complete(this);
     }
 
     /**
@@ -262,7 +357,7 @@ public class Packet {
      * @return int
      */
     public int get(int i) {
-        return getData()[i];
+        return getPayload().get(i);
     }
 
     /**
@@ -273,8 +368,7 @@ public class Packet {
      * @return int
      */
     public int get16(int i) {
-        int[] d = getData();
-        return (d[i + 1] << 8) | d[i];
+        return getPayload().get16(i);
     }
 
     /**
@@ -286,8 +380,7 @@ public class Packet {
      * @return int
      */
     public int get16Big(int i) {
-        int[] d = getData();
-        return (d[i] << 8) | d[i + 1];
+        return getPayload().get16Big(i);
     }
 
     /**
@@ -299,8 +392,7 @@ public class Packet {
      * @return int
      */
     public int get24(int i) {
-        int[] d = getData();
-        return (d[i + 2] << 16) | (d[i + 1] << 8) | d[i];
+        return getPayload().get24(i);
     }
 
     /**
@@ -312,8 +404,7 @@ public class Packet {
      * @return int
      */
     public int get24Big(int i) {
-        int[] d = getData();
-        return (d[i] << 16) | (d[i + 1] << 8) | d[i + 2];
+        return getPayload().get24Big(i);
     }
 
     /**
@@ -325,9 +416,7 @@ public class Packet {
      * @return int
      */
     public long get32(int i) {
-        int[] d = getData();
-        return ((long) (d[i + 3] & 0xFF) << 24) | ((d[i + 2] & 0xFF) << 16)
-                | ((d[i + 1] & 0xFF) << 8) | (d[i] & 0xFF);
+        return getPayload().get32(i);
     }
 
     /**
@@ -339,9 +428,7 @@ public class Packet {
      * @return int
      */
     public long get32Big(int i) {
-        int[] d = getData();
-        return ((long) d[i] << 24) | ((long) d[i + 1] << 16) | ((long) d[i + 2] << 8)
-                | d[i + 3];
+        return getPayload().get32Big(i);
     }
 
     public long get64() {
@@ -354,25 +441,47 @@ public class Packet {
      * @return byte[]
      */
     public byte[] getBytes() {
-        int[] d = getData();
-        byte[] bytes = new byte[d.length];
-        for (int i = 0; i < bytes.length; i++) {
-            bytes[i] = (byte) d[i];
-        }
-        return bytes;
+        return getPayload().toByteArray();
+    }
+
+    /**
+     * Returns a read-only view of the data in J1939, little-endian, byte order
+     *
+     * @return {@link ByteBuffer}
+     */
+    public ByteBuffer asByteBuffer() {
+        return getPayload().asByteBuffer();
     }
 
-    synchronized private int[] getData() {
-        if (!isValid()) {
+    /**
+     * Copies data bytes into dest without an intermediate copy, like
+     * {@link System#arraycopy}
+     */
+    public void copyBytes(int srcPos, byte[] dest, int destPos, int length) {
+        getPayload().copyTo(srcPos, dest, destPos, length);
+    }
+
+    /**
+     * Returns the data, blocking until it is collected
+     *
+     * @return {@link Payload}
+     */
+    public Payload getPayload() {
+        Payload p = initial;
+        if (p != null) {
+            return p;
+        }
+        p = await();
+        if (p.length() == 0) {
             throw new PacketException(String.format("Failed Packet: %s %06X%02X [?]%n%s",
-                    DateTimeModule.getInstance().getTimeFormatter().format(timestamp),
+                    DateTimeModule.getInstance().getTimeFormatter().format(getTimestamp()),
                     priority << 18 | id,
                     source,
                     getFragments().stream()
-                            .map(p -> p.toString())
+                            .map(Packet::toString)
                             .collect(Collectors.joining(System.lineSeparator()))));
         }
-        return data;
+        return p;
     }
 
     /**
@@ -386,7 +495,7 @@ public class Packet {
      */
     @SuppressFBWarnings(value = "UG_SYNC_SET_UNSYNC_GET", justification = "This method is not a reciprocal of the setData method")
     public int[] getData(int beginIndex, int endIndex) {
-        return Arrays.copyOfRange(getData(), beginIndex, endIndex);
+        return getPayload().toIntArray(beginIndex, endIndex);
     }
 
     /**
@@ -423,7 +532,7 @@ public class Packet {
      * @return int
      */
     public int getLength() {
-        return getData().length;
+        return getPayload().length();
     }
 
     public int getPgn() {
@@ -458,22 +567,65 @@ public class Packet {
      * @return {@link LocalDateTime}
      */
     public LocalDateTime getTimestamp() {
-        return timestamp;
+        LocalDateTime t = timestamp;
+        if (t == null) {
+            long nanos = timeNanos;
+            Instant instant = Instant.ofEpochSecond(Math.floorDiv(nanos, GIGA), Math.floorMod(nanos, GIGA));
+            t = LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
+            timestamp = t;
+        }
+        return t;
+    }
+
+    /**
+     * Returns the time the packet was received in ns since the epoch. Use this
+     * to compare times without creating a {@link LocalDateTime}.
+     *
+     * @return long
+     */
+    public long getTimestampNanos() {
+        long nanos = timeNanos;
+        if (nanos == NO_TIME) {
+            Instant instant = timestamp.atZone(ZoneId.systemDefault()).toInstant();
+            nanos = instant.getEpochSecond() * GIGA + instant.getNano();
+            timeNanos = nanos;
+        }
+        return nanos;
+    }
+
+    /**
+     * Returns the raw timestamp reported by the adapter
+     *
+     * @return the tick or {@link #NO_TICK}
+     */
+    public long getTick() {
+        return tick;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, priority, source, transmitted, Arrays.hashCode(getData()));
+        return Objects.hash(id, priority, source, transmitted, getPayload().hashCode());
     }
 
-    private String hexData() {
-        return Arrays.stream(getData())
-                .mapToObj(x -> String.format("%02X", x))
-                .collect(Collectors.joining(" "));
+    /**
+     * Returns a future that completes with this packet once the data is
+     * collected or the packet failed. Use it instead of isValid() to avoid
+     * blocking on a TP packet still being collected.
+     *
+     * @return a future owned by the caller
+     */
+    public CompletableFuture<Packet> getCompletion() {
+        return completion.copy();
     }
 
+    @Override
     public boolean isComplete() {
-        return data != null;
+        return initial != null || collected != null;
+    }
+
+    @Override
+    public void onComplete(Runnable action) {
+        completion.thenRun(action);
     }
 
     /**
@@ -485,31 +637,44 @@ public class Packet {
         return transmitted;
     }
 
-    synchronized public boolean isValid() {
-        long start = System.currentTimeMillis();
-        while (data == null) {
+    /**
+     * Waits, up to 30 s, for the data to be collected.
+     *
+     * @return true if the packet is complete and did not fail
+     */
+    public boolean isValid() {
+        Payload p = initial;
+        return (p != null ? p : await()).length() > 0;
+    }
+
+    /** Waits, up to 30 s, for a TP packet to be collected or failed. */
+    private Payload await() {
+        Payload p = collected;
+        if (p != null) {
+            return p;
+        }
+        long end = System.currentTimeMillis() + MAX_WAIT_MS;
+        while ((p = collected) == null) {
+            long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0) {
+                fail();
+                continue;
+            }
             try {
-                wait(1000);
-            } catch (InterruptedException e) {
+                completion.get(remaining, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException | ExecutionException | TimeoutException e) {
                 // No worries
             }
-            if (System.currentTimeMillis() - start > 30_000) {
-                fail();
-                break;
-            }
         }
-        return data.length > 0;
+        return p;
     }
 
     synchronized public void setData(byte... data) {
         if (isComplete()) {
             throw new PacketException("Packet already initialized.");
         }
-        this.data = new int[data.length];
-        for (int i = 0; i < data.length; i++) {
-            this.data[i] = (0xFF & data[i]);
-        }
-        notifyAll();
+        collected = Payload.of(data);
+        completion.complete(this);
     }
 
     public void setFragments(List<Packet> fragments) {
@@ -518,6 +683,21 @@ public class Packet {
 
     public void setTimestamp(LocalDateTime timestamp2) {
         timestamp = timestamp2;
+        timeNanos = NO_TIME;
+        tick = NO_TICK;
+    }
+
+    /**
+     * Sets the time of this packet to the time of other, as when a TP packet
+     * is timed by its last fragment.
+     *
+     * @param other
+     *            the packet to copy the time from
+     */
+    public void setTimestamp(Packet other) {
+        timestamp = other.timestamp;
+        timeNanos = other.timeNanos;
+        tick = other.tick;
     }
 
     public String toDateTimeString() {
@@ -554,16 +734,12 @@ public class Packet {
     private String toSingleDeltaTimeString(Packet sent) {
         return String.format("%s [%.1f ms]",
                 toTimeString(),
-                Duration.between(sent.getTimestamp(), getTimestamp()).toNanos() / 1000000.0);
+                (getTimestampNanos() - sent.getTimestampNanos()) / 1000000.0);
     }
 
     @Override
     public String toString() {
-        return String.format("%06X%02X [%s] %s",
-                priority << 18 | id,
-                source,
-                getLength(),
-                hexData() + (transmitted ? TX : RX));
+        return PacketFormatter.appendPacket(new StringBuilder(64), this).toString();
     }
 
     /**
@@ -574,13 +750,7 @@ public class Packet {
      * @return a {@link String}
      */
     public String toTimeString() {
-        /*
-         * Collect data first, because timestamp is dynamic until the data is
-         * collected. This will block on the data. We want to report the
-         * timestamp of final packet.
-         */
-        String dataString = toString();
-        return DateTimeModule.getInstance().getTimeFormatter().format(timestamp) + " " + dataString;
+        return PacketFormatter.appendTimePacket(new StringBuilder(80), this).toString();
     }
 
     /**
@@ -589,14 +759,6 @@ public class Packet {
      * @param start
      */
     public String toVectorString(Temporal start) {
-        final ZoneOffset offset = OffsetDateTime.now().getOffset();
-        getData(); // wait for all data before formatting time
-        return String.format("%4.6f 1  %06X%02Xx %s d %d %s",
-                Duration.between(start, getTimestamp().toInstant(offset)).toNanos() / 1000000000.0,
-                priority << 18 | id,
-                getSource(),
-                isTransmitted() ? "Tx" : "Rx",
-                getLength(),
-                hexData());
+        return PacketFormatter.appendVector(new StringBuilder(80), this, Instant.from(start)).toString();
     }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * A {@link Packet} filter that declares the PGNs, source addresses and
+ * destination address it can match, so that a {@link Bus} only delivers, and
+ * only wakes the reader for, frames that can match. A bus indexed by PGN and
+ * source steps a stream over frames of other PGNs and sources without running
+ * the filter. Anything that can not be expressed by those keys is left to a
+ * residual predicate.
+ *
+ * PGNs are compared with {@link Packet#getPgn()}, so a PDU1 PGN does not
+ * include the destination address.
+ *
+ * By default packets are read in the order they were announced, so a read
+ * blocks on a TP packet until it is collected. A filter in completion order
+ * returns each packet once it is complete instead.
+ */
+public final class PacketFilter implements MultiQueue.KeyedFilter<Packet> {
+
+    /** Matches any source or destination address. */
+    public static final int ANY = -1;
+
+    private static final PacketFilter ALL = new PacketFilter(null, null, ANY, null, false);
+
+    /**
+     * @return a filter that matches every packet
+     */
+    public static PacketFilter all() {
+        return ALL;
+    }
+
+    /**
+     * @param  pgns
+     *                  the PGNs that can match
+     * @return      a filter that matches packets with any of the PGNs
+     */
+    public static PacketFilter pgn(int... pgns) {
+        int[] sorted = Arrays.stream(pgns).sorted().distinct().toArray();
+        return new PacketFilter(sorted, null, ANY, null, false);
+    }
+
+    private final boolean completionOrder;
+
+    private final int destination;
+
+    /** Sorted PGNs, or null when any PGN can match. */
+    private final int[] pgns;
+
+    /** Residual predicate, or null when the keys are the whole filter. */
+    private final Predicate<? super Packet> predicate;
+
+    /** Sorted source addresses, or null when any source can match. */
+    private final int[] sources;
+
+    private PacketFilter(int[] pgns,
+                         int[] sources,
+                         int destination,
+                         Predicate<? super Packet> predicate,
+                         boolean completionOrder) {
+        this.pgns = pgns;
+        this.completionOrder = completionOrder;
+        this.sources = sources;
+        this.destination = destination;
+        this.predicate = predicate;
+    }
+
+    /**
+     * @param  residual
+     *                      an additional condition that can not be expressed as
+     *                      a PGN, source or destination
+     * @return          a filter that matches when this and residual both match
+     */
+    @Override
+    public PacketFilter and(Predicate<? super Packet> residual) {
+        Predicate<? super Packet> p = predicate;
+        return new PacketFilter(pgns,
+                                sources,
+                                destination,
+                                p == null ? residual : (Predicate<Packet>) (x -> p.test(x) && residual.test(x)),
+                                completionOrder);
+    }
+
+    /**
+     * @param  destination
+     *                         the destination address, as returned by
+     *                         {@link Packet#getDestination()}
+     * @return             a filter that also requires the destination
+     */
+    public PacketFilter destination(int destination) {
+        return new PacketFilter(pgns, sources, destination, predicate, completionOrder);
+    }
+
+    public int getDestination() {
+        return destination;
+    }
+
+    /**
+     * @return the PGNs that can match, sorted, or null for any PGN
+     */
+    @Override
+    public int[] getKeys() {
+        return pgns == null ? null : pgns.clone();
+    }
+
+    /**
+     * @return the source addresses that can match, sorted, or null for any
+     *         source
+     */
+    @Override
+    public int[] getSources() {
+        return sources == null ? null : sources.clone();
+    }
+
+    /**
+     * @param  sources
+     *                     the source addresses that can match
+     * @return         a filter that also requires one of the sources
+     */
+    public PacketFilter source(int... sources) {
+        int[] sorted = Arrays.stream(sources).sorted().distinct().toArray();
+        return new PacketFilter(pgns, sorted, destination, predicate, completionOrder);
+    }
+
+    /**
+     * @return a filter that returns packets as they complete, so a TP packet
+     *         still being collected does not hold up the packets behind it
+     */
+    public PacketFilter inCompletionOrder() {
+        return new PacketFilter(pgns, sources, destination, predicate, true);
+    }
+
+    @Override
+    public boolean isCompletionOrder() {
+        return completionOrder;
+    }
+
+    @Override
+    public boolean test(Packet p) {
+        // p == null comes from tests
+        if (p == null) {
+            return pgns == null && sources == null && destination == ANY && (predicate == null || predicate.test(p));
+        }
+        return (sources == null || Arrays.binarySearch(sources, p.getSource()) >= 0)
+                && (pgns == null || Arrays.binarySearch(pgns, p.getPgn()) >= 0)
+                && (destination == ANY || p.getDestination() == destination)
+                && (predicate == null || predicate.test(p));
+    }
+
+    @Override
+    public String toString() {
+        return "PacketFilter pgns: " + (pgns == null ? "any" : Arrays.toString(pgns))
+                + " sources: " + (sources == null ? "any" : Arrays.toString(sources))
+                + " destination: " + (destination == ANY ? "any" : destination)
+                + (predicate == null ? "" : " and predicate")
+                + (completionOrder ? " in completion order" : "");
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.time.Instant;
+
+import org.etools.j1939tools.modules.DateTimeModule;
+
+/**
+ * Writes the text forms of a {@link Packet} into a caller supplied
+ * {@link StringBuilder} using lookup tables, so that logging a busy bus does
+ * not create several short lived strings per frame. A caller that reuses its
+ * StringBuilder formats packets without allocating.
+ *
+ * The output is the same as {@link Packet#toString()},
+ * {@link Packet#toTimeString()} and {@link Packet#toVectorString}.
+ */
+public final class PacketFormatter {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    /**
+     * Appends value as upper case hex, zero padded to digits.
+     */
+    public static StringBuilder appendHex(StringBuilder sb, long value, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            sb.append(HEX[(int) (value >>> shift) & 0xF]);
+        }
+        return sb;
+    }
+
+    /**
+     * Appends the data bytes as space separated hex, like "01 02 03".
+     */
+    public static StringBuilder appendData(StringBuilder sb, Payload payload) {
+        for (int i = 0; i < payload.length(); i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            int b = payload.get(i);
+            sb.append(HEX[b >> 4]).append(HEX[b & 0xF]);
+        }
+        return sb;
+    }
+
+    /**
+     * Appends the 29 bit identifier, like "18FECA00".
+     */
+    public static StringBuilder appendId(StringBuilder sb, Packet packet) {
+        appendHex(sb, packet.getPriority() << 18 | packet.getId(~0), 6);
+        return appendHex(sb, packet.getSource(), 2);
+    }
+
+    /**
+     * Appends the packet as {@link Packet#toString()}, blocking on the data.
+     */
+    public static StringBuilder appendPacket(StringBuilder sb, Packet packet) {
+        Payload payload = packet.getPayload();
+        appendId(sb, packet).append(" [").append(payload.length()).append("] ");
+        appendData(sb, payload);
+        return sb.append(packet.isTransmitted() ? Packet.TX : Packet.RX);
+    }
+
+    /**
+     * Appends the packet as {@link Packet#toTimeString()}, blocking on the
+     * data.
+     */
+    public static StringBuilder appendTimePacket(StringBuilder sb, Packet packet) {
+        /*
+         * Collect data first, because timestamp is dynamic until the data is
+         * collected. We want to report the timestamp of final packet.
+         */
+        packet.getPayload();
+        DateTimeModule.getInstance().appendTime(sb, packet.getTimestamp()).append(' ');
+        return appendPacket(sb, packet);
+    }
+
+    /**
+     * Appends the packet as {@link Packet#toVectorString}, blocking on the
+     * data.
+     *
+     * @param start
+     *                  the start of the log
+     */
+    public static StringBuilder appendVector(StringBuilder sb, Packet packet, Instant start) {
+        Payload payload = packet.getPayload(); // wait for all data before formatting time
+        long nanos = packet.getTimestampNanos() - (start.getEpochSecond() * NANOS_PER_SECOND + start.getNano());
+        appendSeconds(sb, nanos).append(" 1  ");
+        appendId(sb, packet).append("x ").append(packet.isTransmitted() ? "Tx" : "Rx");
+        sb.append(" d ").append(payload.length()).append(' ');
+        return appendData(sb, payload);
+    }
+
+    /** Appends nanos as seconds with 6 decimals, rounded half up like %.6f. */
+    static StringBuilder appendSeconds(StringBuilder sb, long nanos) {
+        if (nanos < 0) {
+            sb.append('-');
+            nanos = -nanos;
+        }
+        long micros = (nanos + 500) / 1000;
+        sb.append(micros / 1_000_000).append('.');
+        long fraction = micros % 1_000_000;
+        for (long d = 100_000; d > 0; d /= 10) {
+            sb.append((char) ('0' + fraction / d % 10));
+        }
+        return sb;
+    }
+
+    private PacketFormatter() {
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * The immutable data bytes of a {@link Packet}.
+ *
+ * Classic CAN frames of up to 8 bytes are held in a single long, so they need
+ * no array at all. Longer, TP, payloads are held in a byte[]. All accessors
+ * return unsigned values and do not allocate.
+ */
+public abstract class Payload {
+
+    /** Up to 8 bytes held in a long, byte 0 in the low bits. */
+    private static final class LongPayload extends Payload {
+        private final long bits;
+        private final int length;
+
+        private LongPayload(long bits, int length) {
+            this.bits = bits;
+            this.length = length;
+        }
+
+        @Override
+        public int get(int i) {
+            if (i < 0 || i >= length) {
+                throw new ArrayIndexOutOfBoundsException(i);
+            }
+            return (int) (bits >>> (i << 3)) & 0xFF;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+    }
+
+    /** Any number of bytes held in a byte[]. */
+    private static final class ArrayPayload extends Payload {
+        private final byte[] bytes;
+
+        private ArrayPayload(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(bytes).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        public void copyTo(int srcPos, byte[] dest, int destPos, int length) {
+            System.arraycopy(bytes, srcPos, dest, destPos, length);
+        }
+
+        @Override
+        public int get(int i) {
+            return bytes[i] & 0xFF;
+        }
+
+        @Override
+        public int length() {
+            return bytes.length;
+        }
+    }
+
+    /** The payload of a failed packet. */
+    public static final Payload EMPTY = new LongPayload(0, 0);
+
+    /**
+     * @param  bytes
+     *                   the data bytes, copied
+     * @return       a payload holding bytes
+     */
+    public static Payload of(byte... bytes) {
+        if (bytes.length <= 8) {
+            long bits = 0;
+            for (int i = 0; i < bytes.length; i++) {
+                bits |= (bytes[i] & 0xFFL) << (i << 3);
+            }
+            return new LongPayload(bits, bytes.length);
+        }
+        return new ArrayPayload(bytes.clone());
+    }
+
+    /**
+     * @param  data
+     *                  the data, one byte per int; only the low 8 bits are
+     *                  used
+     * @return      a payload holding data
+     */
+    public static Payload of(int... data) {
+        if (data.length <= 8) {
+            long bits = 0;
+            for (int i = 0; i < data.length; i++) {
+                bits |= (data[i] & 0xFFL) << (i << 3);
+            }
+            return new LongPayload(bits, data.length);
+        }
+        byte[] bytes = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            bytes[i] = (byte) data[i];
+        }
+        return new ArrayPayload(bytes);
+    }
+
+    private Payload() {
+    }
+
+    /**
+     * @return a read-only view of the data in J1939, little-endian, byte order
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(toByteArray()).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Copies bytes into dest, like {@link System#arraycopy}.
+     */
+    public void copyTo(int srcPos, byte[] dest, int destPos, int length) {
+        if (srcPos < 0 || length < 0 || srcPos + length > length()) {
+            throw new ArrayIndexOutOfBoundsException(srcPos + length);
+        }
+        for (int i = 0; i < length; i++) {
+            dest[destPos + i] = (byte) get(srcPos + i);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Payload)) {
+            return false;
+        }
+        Payload that = (Payload) obj;
+        if (length() != that.length()) {
+            return false;
+        }
+        for (int i = 0; i < length(); i++) {
+            if (get(i) != that.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the unsigned byte at index i
+     */
+    public abstract int get(int i);
+
+    /**
+     * @return the little-endian 16 bit value at index i
+     */
+    public int get16(int i) {
+        return (get(i + 1) << 8) | get(i);
+    }
+
+    /**
+     * @return the big-endian 16 bit value at index i
+     */
+    public int get16Big(int i) {
+        return (get(i) << 8) | get(i + 1);
+    }
+
+    /**
+     * @return the little-endian 24 bit value at index i
+     */
+    public int get24(int i) {
+        return (get(i + 2) << 16) | (get(i + 1) << 8) | get(i);
+    }
+
+    /**
+     * @return the big-endian 24 bit value at index i
+     */
+    public int get24Big(int i) {
+        return (get(i) << 16) | (get(i + 1) << 8) | get(i + 2);
+    }
+
+    /**
+     * @return the little-endian unsigned 32 bit value at index i
+     */
+    public long get32(int i) {
+        return ((long) get(i + 3) << 24) | (get(i + 2) << 16) | (get(i + 1) << 8) | get(i);
+    }
+
+    /**
+     * @return the big-endian unsigned 32 bit value at index i
+     */
+    public long get32Big(int i) {
+        return ((long) get(i) << 24) | (get(i + 1) << 16) | (get(i + 2) << 8) | get(i + 3);
+    }
+
+    /** Same as Arrays.hashCode() of {@link #toIntArray()}. */
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i = 0; i < length(); i++) {
+            result = 31 * result + get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of bytes
+     */
+    public abstract int length();
+
+    /**
+     * @return a copy of the data
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[length()];
+        copyTo(0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * @return a copy of the data, one unsigned byte per int
+     */
+    public int[] toIntArray() {
+        return toIntArray(0, length());
+    }
+
+    /**
+     * @return a copy of the data from begin (inclusive) to end (exclusive), one
+     *         unsigned byte per int, padded with 0 like
+     *         {@link Arrays#copyOfRange(int[], int, int)}
+     */
+    public int[] toIntArray(int begin, int end) {
+        if (begin < 0 || begin > length()) {
+            throw new ArrayIndexOutOfBoundsException(begin);
+        }
+        if (begin > end) {
+            throw new IllegalArgumentException(begin + " > " + end);
+        }
+        int[] result = new int[end - begin];
+        int last = Math.min(end, length());
+        for (int i = begin; i < last; i++) {
+            result[i - begin] = get(i);
+        }
+        return result;
+    }
+}
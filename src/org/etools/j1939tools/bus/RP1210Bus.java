@@ -11,16 +11,23 @@ import static org.etools.j1939tools.bus.RP1210Library.CMD_PROTECT_J1939_ADDRESS;
 import static org.etools.j1939tools.bus.RP1210Library.CMD_SET_ALL_FILTERS_STATES_TO_PASS;
 import static org.etools.j1939tools.bus.RP1210Library.ECHO_ON;
 
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,7 +48,25 @@ public class RP1210Bus implements Bus {
         IMPOSTER, OTHER
     }
 
-    private static final long GIGA = 1000000000;
+    /** A frame waiting in the transmit lane. */
+    private static final class Transmit {
+        private final byte[] data;
+        private final CompletableFuture<Short> result = new CompletableFuture<>();
+        private final long submitted = System.nanoTime();
+
+        private Transmit(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    /** Most frames read from the adapter before they are handed to decoding. */
+    private static final int BATCH_SIZE = 64;
+
+    /** Number of receive buffers. Must be a power of 2. */
+    private static final int RX_BUFFERS = 1024;
+
+    /** Size of one receive buffer, as passed to RP1210_ReadMessage. */
+    private static final int RX_BUFFER_SIZE = 32;
 
     /**
      * Transforms the given {@link Packet} into a byte array so it can be sent
@@ -99,8 +124,6 @@ public class RP1210Bus implements Bus {
 
     private boolean imposterDetected;
 
-    private long lastTimestamp = Long.MAX_VALUE;
-
     /**
      * The {@link Logger} for errors
      */
@@ -113,19 +136,69 @@ public class RP1210Bus implements Bus {
 
     private final ExecutorService rp1210Executor;
 
+    /** Submitted to rp1210Executor to poll again. */
+    private final Runnable pollTask = this::poll;
+
+    /*
+     * Receive buffers. The poll thread reads frames into rxBuffers[rxRead &
+     * (RX_BUFFERS - 1)] and the decoding thread decodes them in order. A
+     * buffer is not reused until rxDecoded has passed it.
+     */
+    private final byte[][] rxBuffers = new byte[RX_BUFFERS][RX_BUFFER_SIZE];
+
+    private final short[] rxLengths = new short[RX_BUFFERS];
+
+    /** Number of frames read. Only written by the poll thread. */
+    private volatile long rxRead;
+
+    /** Number of frames decoded. Only written by the decoding thread. */
+    private volatile long rxDecoded;
+
+    /** Packets of the batch being decoded. Only used by the decoding thread. */
+    private final Packet[] rxPackets = new Packet[BATCH_SIZE];
+
+    // receive counters, each only written by one thread
+    private volatile long rxBatches;
+    private volatile long rxReadNanos;
+    private volatile long rxWaitNanos;
+    private volatile long rxDecodeNanos;
+    private volatile long rxPublishNanos;
+    private volatile long rxSpins;
+    private volatile long rxParks;
+    private volatile long rxParkedNanos;
+    private volatile long rxMaxParkNanos;
+
     /**
-     * The {@link RP1210Library}
+     * The transmit lane. Frames are sent by the poll thread, which owns the
+     * adapter, before every read, so a send never waits behind a read batch.
      */
-    private final RP1210Library rp1210Library;
+    private final Queue<Transmit> transmits = new ConcurrentLinkedQueue<>();
+
+    /** Time from send() to the frame being accepted by the adapter. */
+    private final LatencyHistogram transmitLatency = new LatencyHistogram();
+
+    /** Time from send() to the echo of the frame being received. */
+    private final LatencyHistogram echoLatency = new LatencyHistogram();
 
     /**
-     * An adjustment offset for the adapter time to system time. Adapters don't
-     * have batteries, so their clocks are always wrong.
+     * Sends waiting for their echo, oldest first, by {@link #echoKey}. The
+     * decoding thread completes them, so a send needs no stream of its own.
      */
-    private long timestampStartNanoseconds;
+    private final Map<Long, Queue<CompletableFuture<Packet>>> pendingEchoes = new ConcurrentHashMap<>();
 
-    // from the .INI file.
-    private long timestampWeight;
+    /** The poll thread while it is parked, or null. */
+    private volatile Thread pollThread;
+
+    private volatile ReceiveStrategy receiveStrategy = ReceiveStrategy.adaptive(1, TimeUnit.MILLISECONDS);
+    private final long rxStartNanos = System.nanoTime();
+
+    /**
+     * The {@link RP1210Library}
+     */
+    private final RP1210Library rp1210Library;
+
+    /** Converts adapter ticks to system time. Replaced when started. */
+    private volatile AdapterClock clock = new AdapterClock(1000);
 
     public RP1210Bus(Adapter adapter,
             String connectionString,
@@ -135,7 +208,7 @@ public class RP1210Bus implements Bus {
         this(RP1210Library.load(adapter),
                 Executors.newSingleThreadExecutor(nameThreadFactory("RP1210 decoding")),
                 Executors.newSingleThreadExecutor(nameThreadFactory("RP1210 processing")),
-                new MultiQueue<>(),
+                new MultiQueue<>(Packet::getPgn, Packet::getSource),
                 adapter,
                 connectionString,
                 address,
@@ -203,6 +276,9 @@ public class RP1210Bus implements Bus {
         // }
         decodingExecutor.shutdownNow();
         queue.close();
+        logger.log(Level.INFO, "RP1210 receive: " + getReceiveStatistics());
+        logger.log(Level.INFO, "RP1210 transmit: " + transmitLatency + " echo: " + echoLatency);
+        logger.log(Level.INFO, "RP1210 clock: " + clock);
     }
 
     /**
@@ -216,9 +292,8 @@ public class RP1210Bus implements Bus {
      */
     private Packet decode(byte[] data, int length) {
         // only 32 bits used, but to get a u32, use a s64.
-        long timestamp = (0xFF000000L & data[0] << 24) | (0xFF0000L & data[1] << 16) | (0xFF00L & data[2] << 8)
+        long tick = (0xFF000000L & data[0] << 24) | (0xFF0000L & data[1] << 16) | (0xFF00L & data[2] << 8)
                 | (0xFFL & data[3]);
-        timestamp *= timestampWeight;
         // data[4] is echo
         int echoed = data[4];
         int pgn = ((data[7] & 0xFF) << 16) | ((data[6] & 0xFF) << 8) | (data[5] & 0xFF);
@@ -229,23 +304,19 @@ public class RP1210Bus implements Bus {
             pgn = pgn | (destination & 0xFF);
         }
 
-        // only recalibrate clocks when adapter rolls over
-        if (timestamp < lastTimestamp) {
-            Instant time = Instant.now();
-            timestampStartNanoseconds = time.getNano() + time.getEpochSecond() * GIGA - timestamp;
-            logger.log(Level.INFO,
-                    String.format("adapter time offset: %,d ns %s", timestampStartNanoseconds, time));
+        int samples = clock.getSamples();
+        long nanoseconds = clock.toEpochNanos(tick);
+        // only update the application clock offset when the clock is refit
+        if (clock.getSamples() != samples) {
+            DateTimeModule.getInstance().setNanoTime(nanoseconds);
+            if (clock.getSamples() == 1) {
+                logger.log(Level.INFO, "adapter clock started at tick " + tick);
+            }
         }
-        lastTimestamp = timestamp;
 
-        // update application clock offset
-        long nanoseconds = timestamp + timestampStartNanoseconds;
-        DateTimeModule.getInstance().setNanoTime(nanoseconds);
-
-        // convert to LocalTime for Packet
-        Instant time = Instant.ofEpochSecond( /* seconds */ nanoseconds / GIGA,
-                /* nanoseconds */(nanoseconds % GIGA));
-        return Packet.create(LocalDateTime.ofInstant(time, ZoneId.systemDefault()),
+        // the LocalDateTime is only built if someone asks for it
+        return Packet.create(nanoseconds,
+                tick,
                 priority,
                 pgn,
                 source,
@@ -253,18 +324,49 @@ public class RP1210Bus implements Bus {
                 Arrays.copyOfRange(data, 11, length));
     }
 
-    private void decodeDataAndQueuePacket(byte[] data, short rtn) {
-        decodingExecutor.submit(() -> {
-            Packet packet = decode(data, rtn);
-            // logger.log(Level.FINE, packet.toTimeString());
-            if (packet.getSource() == getAddress() && !packet.isTransmitted()) {
-                logger.log(Level.WARNING, "Another ECU is using this address: " + packet);
-                errorFn.accept(ErrorType.IMPOSTER, "Another ECU is using this address: " + packet);
+    /**
+     * Decodes the frames in receive buffers [from, to) and publishes them to
+     * the queue in one batch. Runs on the decoding thread.
+     *
+     * @param readTime
+     *            System.nanoTime() when the batch was read
+     */
+    private void decodeBatch(long from, long to, long readTime) {
+        long start = System.nanoTime();
+        int count = 0;
+        try {
+            for (long i = from; i < to; i++) {
+                int slot = (int) (i & (RX_BUFFERS - 1));
+                Packet packet;
+                try {
+                    packet = decode(rxBuffers[slot], rxLengths[slot]);
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Unable to decode RP1210 message", e);
+                    continue;
+                }
+                // logger.log(Level.FINE, packet.toTimeString());
+                if (packet.getSource() == getAddress() && !packet.isTransmitted()) {
+                    logger.log(Level.WARNING, "Another ECU is using this address: " + packet);
+                    errorFn.accept(ErrorType.IMPOSTER, "Another ECU is using this address: " + packet);
 
-                imposterDetected = true;
+                    imposterDetected = true;
+                }
+                if (packet.isTransmitted()) {
+                    completeEcho(packet);
+                }
+                rxPackets[count++] = packet;
             }
-            queue.add(packet);
-        });
+        } finally {
+            // release the buffers to the poll thread
+            rxDecoded = to;
+        }
+        long decoded = System.nanoTime();
+        queue.addAll(rxPackets, 0, count);
+        Arrays.fill(rxPackets, 0, count, null);
+        long published = System.nanoTime();
+        rxWaitNanos += (start - readTime) * (to - from);
+        rxDecodeNanos += decoded - start;
+        rxPublishNanos += published - decoded;
     }
 
     @Override
@@ -272,6 +374,18 @@ public class RP1210Bus implements Bus {
         return queue.duplicate(stream, time, unit);
     }
 
+    @Override
+    public Stream<Packet> duplicate(Stream<Packet> stream, PacketFilter filter, int time, TimeUnit unit) {
+        return queue.duplicate(stream, filter, time, unit);
+    }
+
+    /**
+     * @return the adapter clock model, for its skew and jitter
+     */
+    public AdapterClock getAdapterClock() {
+        return clock;
+    }
+
     @Override
     public int getAddress() {
         return address;
@@ -280,7 +394,7 @@ public class RP1210Bus implements Bus {
     @Override
     public int getConnectionSpeed() throws BusException {
         try {
-            return rp1210Executor.submit(() -> {
+            return submitToAdapter(() -> {
                 byte[] bytes = new byte[128];
                 sendCommand(RP1210Library.CMD_GET_PROTOCOL_CONNECTION_SPEED, bytes);
                 return Integer.parseInt(new String(bytes, UTF_8).trim());
@@ -294,6 +408,64 @@ public class RP1210Bus implements Bus {
         }
     }
 
+    /**
+     * @return the time from send() to the echo of the frame, which includes
+     *         the time in the transmit lane and on the bus
+     */
+    public LatencyHistogram getEchoLatency() {
+        return echoLatency;
+    }
+
+    /**
+     * @return the time from send() to the frame being accepted by the adapter
+     */
+    public LatencyHistogram getTransmitLatency() {
+        return transmitLatency;
+    }
+
+    public ReceiveStrategy getReceiveStrategy() {
+        return receiveStrategy;
+    }
+
+    /**
+     * Sets how the poll loop waits while the adapter is idle. The default is
+     * adaptive with a 1 ms latency bound.
+     *
+     * @param receiveStrategy
+     *            the {@link ReceiveStrategy} to use from the next poll
+     */
+    public void setReceiveStrategy(ReceiveStrategy receiveStrategy) {
+        this.receiveStrategy = receiveStrategy;
+    }
+
+    /**
+     * @return the counters of the receive pipeline
+     */
+    public ReceiveStatistics getReceiveStatistics() {
+        return new ReceiveStatistics(rxRead,
+                rxBatches,
+                System.nanoTime() - rxStartNanos,
+                rxReadNanos,
+                rxWaitNanos,
+                rxDecodeNanos,
+                rxPublishNanos,
+                rxSpins,
+                rxParks,
+                rxParkedNanos,
+                rxMaxParkNanos,
+                receiveStrategy.toString());
+    }
+
+    @Override
+    public List<StreamStatistics> getStatistics() {
+        return queue.getStatistics();
+    }
+
+    @Override
+    public Optional<StreamStatistics> getStatistics(Stream<Packet> stream) {
+        return queue.getStatistics(stream);
+    }
+
     private String getErrorMessage(short rtnCode) {
         rtnCode = (short) Math.abs(rtnCode);
         byte[] buffer = new byte[256];
@@ -307,26 +479,55 @@ public class RP1210Bus implements Bus {
     }
 
     /**
-     * Checks the {@link RP1210Library} for any incoming messages. Any incoming
-     * messages are decoded and added to the queue
+     * Checks the {@link RP1210Library} for any incoming messages. Incoming
+     * messages are read into the receive buffers, up to BATCH_SIZE at a time,
+     * and each batch is decoded and added to the queue by one decoding task.
      */
     private void poll() {
+        int received = 0;
         try {
             while (clientId >= 0) {
-                byte[] data = new byte[32];
-                short rtn = rp1210Library.RP1210_ReadMessage(clientId, data, (short) data.length, BLOCKING_NONE);
-                if (rtn > 0) {
-                    decodeDataAndQueuePacket(data, rtn);
-                } else if (rtn == -RP1210Library.ERR_RX_QUEUE_FULL) {
-                    // RX queue full, remedy is to reread.
-                    logger.log(Level.SEVERE, getErrorMessage(rtn));
-                } else {
-                    checkReturnCode(rtn);
+                long start = System.nanoTime();
+                long first = rxRead;
+                // leave frames in the adapter while decoding is a ring behind
+                long last = Math.min(first + BATCH_SIZE, rxDecoded + RX_BUFFERS);
+                long next = first;
+                boolean empty = false;
+                while (next < last) {
+                    if (!transmits.isEmpty()) {
+                        drainTransmits();
+                    }
+                    int slot = (int) (next & (RX_BUFFERS - 1));
+                    byte[] data = rxBuffers[slot];
+                    short rtn = rp1210Library.RP1210_ReadMessage(clientId, data, (short) data.length, BLOCKING_NONE);
+                    if (rtn > 0) {
+                        rxLengths[slot] = rtn;
+                        next++;
+                    } else if (rtn == -RP1210Library.ERR_RX_QUEUE_FULL) {
+                        // RX queue full, remedy is to reread.
+                        logger.log(Level.SEVERE, getErrorMessage(rtn));
+                    } else {
+                        empty = true;
+                        if (next > first) {
+                            submitBatch(first, next, start);
+                        }
+                        checkReturnCode(rtn);
+                        break;
+                    }
+                }
+                received += (int) (next - first);
+                if (next == first && !empty) {
+                    // decoding is behind, do not wait on the adapter
+                    received++;
+                }
+                if (empty || next == first) {
                     break;
                 }
+                submitBatch(first, next, start);
             }
-            // this allows the other calls to have a chance
-            Thread.yield();
+            drainTransmits();
+            idle(received);
+            drainTransmits();
         } catch (BusException e) {
             logger.log(Level.SEVERE, "Failed to read RP1210", e);
             errorFn.accept(ErrorType.OTHER, "Failed to read RP1210, restarting: " + e.getMessage());
@@ -340,7 +541,100 @@ public class RP1210Bus implements Bus {
                 errorFn.accept(ErrorType.OTHER, "Failed to reconnect RP1210, restarting: " + e.getMessage());
             }
         }
-        rp1210Executor.submit(this::poll);
+        rp1210Executor.submit(pollTask);
+    }
+
+    /**
+     * Waits as told by the receive strategy before the next poll. A park is
+     * ended early by any other call that needs the rp1210Executor.
+     */
+    private void idle(int received) {
+        long start = System.nanoTime();
+        long park = receiveStrategy.next(received, start);
+        if (park > 0) {
+            pollThread = Thread.currentThread();
+            // a frame queued before pollThread was set did not wake this
+            // thread, so send it now instead of after the park
+            if (transmits.isEmpty()) {
+                LockSupport.parkNanos(this, park);
+            }
+            pollThread = null;
+            long parked = System.nanoTime() - start;
+            rxParks++;
+            rxParkedNanos += parked;
+            if (parked > rxMaxParkNanos) {
+                rxMaxParkNanos = parked;
+            }
+        } else {
+            if (received == 0) {
+                rxSpins++;
+            }
+            // this allows the other calls to have a chance
+            Thread.yield();
+        }
+    }
+
+    /** Key of a frame and of its echo: payload hash, id and source. */
+    private static long echoKey(Packet packet) {
+        return (long) packet.getPayload().hashCode() << 32 | packet.getId(0xFFFF) << 8 | packet.getSource();
+    }
+
+    /** Completes the oldest send waiting for this echo. */
+    private void completeEcho(Packet echo) {
+        Queue<CompletableFuture<Packet>> waiting = pendingEchoes.get(echoKey(echo));
+        if (waiting != null) {
+            CompletableFuture<Packet> future;
+            while ((future = waiting.poll()) != null) {
+                if (future.complete(echo)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void removeEcho(long key, CompletableFuture<Packet> echo) {
+        pendingEchoes.computeIfPresent(key, (k, waiting) -> {
+            waiting.remove(echo);
+            return waiting.isEmpty() ? null : waiting;
+        });
+    }
+
+    /** Sends the frames in the transmit lane. Runs on the poll thread. */
+    private void drainTransmits() {
+        Transmit tx;
+        while ((tx = transmits.poll()) != null) {
+            try {
+                short rtn = clientId < 0 ? (short) RP1210Library.ERR_CLIENT_DISCONNECTED : sendRaw(tx.data);
+                transmitLatency.recordSince(tx.submitted);
+                tx.result.complete(rtn);
+            } catch (Throwable t) {
+                tx.result.completeExceptionally(t);
+            }
+        }
+    }
+
+    /** Submits a task to the rp1210Executor, waking the poll thread. */
+    private <T> Future<T> submitToAdapter(Callable<T> task) {
+        Future<T> future = rp1210Executor.submit(task);
+        wakePoller();
+        return future;
+    }
+
+    /** Ends a park of the poll thread. */
+    private void wakePoller() {
+        Thread thread = pollThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /** Hands receive buffers [from, to) to the decoding thread. */
+    private void submitBatch(long from, long to, long start) {
+        long read = System.nanoTime();
+        rxRead = to;
+        rxBatches++;
+        rxReadNanos += read - start;
+        decodingExecutor.submit(() -> decodeBatch(from, to, read));
     }
 
     @Override
@@ -348,6 +642,11 @@ public class RP1210Bus implements Bus {
         return queue.stream(timeout, unit);
     }
 
+    @Override
+    public Stream<Packet> read(PacketFilter filter, long timeout, TimeUnit unit) {
+        return queue.stream(timeout, unit, filter);
+    }
+
     /**
      * Reset stream timeout for stream created with bus.read(). To be used in a
      * stream call like peek, map or forEach.
@@ -360,28 +659,47 @@ public class RP1210Bus implements Bus {
     @Override
     public Packet send(Packet tx) throws BusException {
         byte[] data = encode(tx);
-        try (Stream<Packet> stream = read(1000, TimeUnit.MILLISECONDS)) {
-            // rp1210 libraries may not be thread safe
-            Optional<String> error = rp1210Executor.submit(() -> {
-                short rtn = sendRaw(data);
-                if (rtn > 127 || rtn < 0) {
-                    return Optional.of(getErrorMessage(rtn));
+        // registered before sending, so the echo can not be missed
+        long key = echoKey(tx);
+        CompletableFuture<Packet> echo = new CompletableFuture<>();
+        pendingEchoes.compute(key, (k, waiting) -> {
+            waiting = waiting == null ? new ConcurrentLinkedQueue<>() : waiting;
+            waiting.add(echo);
+            return waiting;
+        });
+        try {
+            // rp1210 libraries may not be thread safe, so the poll thread
+            // sends the frame
+            Transmit transmit = new Transmit(data);
+            transmits.add(transmit);
+            wakePoller();
+            short rtn;
+            try {
+                rtn = transmit.result.get(1000, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // do not send it late
+                if (transmits.remove(transmit)) {
+                    throw new BusException("Adapter did not accept: " + tx, e);
                 }
-                return Optional.<String>empty();
-            }).get();
-            if (error.isPresent()) {
-                throw new BusException(error.get());
+                rtn = transmit.result.get();
+            }
+            if (rtn > 127 || rtn < 0) {
+                throw new BusException(getErrorMessage(rtn));
             }
-            int id = tx.getId(0xFFFF);
-            int source = tx.getSource();
-            return stream
-                    .filter(rx -> rx.isTransmitted() && id == rx.getId(0xFFFF) && rx.getSource() == source)
-                    .findFirst()
-                    .orElseThrow(() -> new BusException("Failed to send: " + tx));
+            Packet sent;
+            try {
+                sent = echo.get(1000, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                throw new BusException("Failed to send: " + tx);
+            }
+            echoLatency.recordSince(transmit.submitted);
+            return sent;
         } catch (BusException e) {
             throw e;
         } catch (Throwable t) {
             throw new BusException("Failed to send: " + tx, t);
+        } finally {
+            removeEcho(key, echo);
         }
 
     }
@@ -414,8 +732,8 @@ public class RP1210Bus implements Bus {
         if (clientId >= 0) {
             return;
         }
-        timestampWeight = adapter.getTimestampWeight() * 1000L;
-        timestampStartNanoseconds = 0;
+        // from the .INI file.
+        clock = new AdapterClock(adapter.getTimestampWeight() * 1000L);
 
         clientId = rp1210Library.RP1210_ClientConnect(0,
                 adapter.getDeviceId(),
@@ -431,7 +749,7 @@ public class RP1210Bus implements Bus {
             sendCommand(CMD_ECHO_TRANSMITTED_MESSAGES, ECHO_ON);
             sendCommand(CMD_SET_ALL_FILTERS_STATES_TO_PASS);
 
-            rp1210Executor.submit(this::poll);
+            rp1210Executor.submit(pollTask);
         } catch (Throwable e) {
             stop();
             throw new BusException("Failed to configure adapter.", e);
@@ -446,7 +764,7 @@ public class RP1210Bus implements Bus {
      */
     public void stop() throws BusException {
         try {
-            rp1210Executor.submit(() -> rp1210Library.RP1210_ClientDisconnect(clientId)).get();
+            submitToAdapter(() -> rp1210Library.RP1210_ClientDisconnect(clientId)).get();
         } catch (Exception e) {
             throw new BusException("Failed to stop RP1210.", e);
         } finally {
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+/**
+ * Snapshot of the counters of the {@link RP1210Bus} receive pipeline. Frames
+ * are read from the adapter in batches, each batch waits to be decoded, is
+ * decoded, and then is published to the readers. The time spent in each stage
+ * is totalled, so dividing by the frames gives the cost per frame of each
+ * stage.
+ *
+ * While the adapter is idle the poll loop either spins, using CPU, or parks,
+ * adding up to the park time to the receive latency, as chosen by the
+ * {@link ReceiveStrategy}.
+ */
+public class ReceiveStatistics {
+
+    private final long batches;
+
+    private final long decodeNanos;
+
+    private final long elapsedNanos;
+
+    private final long frames;
+
+    private final long maxParkNanos;
+
+    private final long parkedNanos;
+
+    private final long parks;
+
+    private final long spins;
+
+    private final String strategy;
+
+    private final long publishNanos;
+
+    private final long readNanos;
+
+    private final long waitNanos;
+
+    /**
+     * @param frames
+     *                         number of frames received
+     * @param batches
+     *                         number of batches they were received in
+     * @param elapsedNanos
+     *                         time since the bus was started
+     * @param readNanos
+     *                         total time reading frames from the adapter
+     * @param waitNanos
+     *                         total time batches waited to be decoded
+     * @param decodeNanos
+     *                         total time decoding frames into packets
+     * @param publishNanos
+     *                         total time publishing packets to the readers
+     * @param spins
+     *                         number of empty polls followed at once by
+     *                         another poll
+     * @param parks
+     *                         number of empty polls followed by a park
+     * @param parkedNanos
+     *                         total time parked
+     * @param maxParkNanos
+     *                         longest park, the worst latency added
+     * @param strategy
+     *                         description of the receive strategy
+     */
+    public ReceiveStatistics(long frames,
+                             long batches,
+                             long elapsedNanos,
+                             long readNanos,
+                             long waitNanos,
+                             long decodeNanos,
+                             long publishNanos,
+                             long spins,
+                             long parks,
+                             long parkedNanos,
+                             long maxParkNanos,
+                             String strategy) {
+        this.frames = frames;
+        this.batches = batches;
+        this.elapsedNanos = elapsedNanos;
+        this.readNanos = readNanos;
+        this.waitNanos = waitNanos;
+        this.decodeNanos = decodeNanos;
+        this.publishNanos = publishNanos;
+        this.spins = spins;
+        this.parks = parks;
+        this.parkedNanos = parkedNanos;
+        this.maxParkNanos = maxParkNanos;
+        this.strategy = strategy;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return the average frames per second since the bus was started
+     */
+    public double getFramesPerSecond() {
+        return elapsedNanos <= 0 ? 0 : frames * 1e9 / elapsedNanos;
+    }
+
+    public long getMaxParkNanos() {
+        return maxParkNanos;
+    }
+
+    public long getParkedNanos() {
+        return parkedNanos;
+    }
+
+    /**
+     * @return the fraction of the time the poll thread was parked, rather than
+     *         using CPU
+     */
+    public double getParkedFraction() {
+        return elapsedNanos <= 0 ? 0 : (double) parkedNanos / elapsedNanos;
+    }
+
+    public long getParks() {
+        return parks;
+    }
+
+    public long getSpins() {
+        return spins;
+    }
+
+    public String getStrategy() {
+        return strategy;
+    }
+
+    public long getPublishNanos() {
+        return publishNanos;
+    }
+
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    private String perFrame(long nanos) {
+        return frames == 0 ? "-" : String.format("%.1f us", nanos / 1000.0 / frames);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("frames: %d batches: %d rate: %.0f/s", frames, batches, getFramesPerSecond())
+                + " per frame read: " + perFrame(readNanos)
+                + " wait: " + perFrame(waitNanos)
+                + " decode: " + perFrame(decodeNanos)
+                + " publish: " + perFrame(publishNanos)
+                + String.format(" strategy: %s spins: %d parks: %d parked: %.0f%% max park: %d us",
+                                strategy,
+                                spins,
+                                parks,
+                                getParkedFraction() * 100,
+                                maxParkNanos / 1000);
+    }
+}
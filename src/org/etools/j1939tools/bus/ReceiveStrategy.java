@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how long the {@link RP1210Bus} poll loop waits when the adapter has
+ * no frames, trading CPU for receive latency.
+ *
+ * <ul>
+ * <li>{@link Mode#BUSY_SPIN} polls again at once: lowest latency, one core
+ * busy.</li>
+ * <li>{@link Mode#BACKOFF} spins briefly, then parks for exponentially longer
+ * times, up to the latency bound.</li>
+ * <li>{@link Mode#FIXED_INTERVAL} parks for the latency bound after every empty
+ * poll.</li>
+ * </ul>
+ *
+ * An adaptive strategy picks the mode from the frame rate seen over the last
+ * second. No mode ever parks longer than the latency bound, so a frame never
+ * waits in the adapter longer than that because of this strategy.
+ *
+ * Only used by the poll thread, so it is not thread safe, except for
+ * {@link #getMode()}.
+ */
+public final class ReceiveStrategy {
+
+    public enum Mode {
+        BACKOFF, BUSY_SPIN, FIXED_INTERVAL
+    }
+
+    /** Frames per second above which an adaptive strategy busy spins. */
+    public static final long BUSY_RATE = 2000;
+
+    /** Frames per second below which an adaptive strategy polls at intervals. */
+    public static final long IDLE_RATE = 50;
+
+    /** Shortest park of the backoff. */
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    /** Empty polls before the backoff starts to park. */
+    private static final int SPINS = 100;
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * @param  maxLatency
+     *                        longest time a frame may wait in the adapter
+     * @return            a strategy that picks the mode from the frame rate
+     */
+    public static ReceiveStrategy adaptive(long maxLatency, TimeUnit unit) {
+        return new ReceiveStrategy(null, unit.toNanos(maxLatency));
+    }
+
+    /**
+     * @param  maxLatency
+     *                        longest time a frame may wait in the adapter
+     * @return            a strategy that spins, then parks for longer and
+     *                    longer
+     */
+    public static ReceiveStrategy backoff(long maxLatency, TimeUnit unit) {
+        return new ReceiveStrategy(Mode.BACKOFF, unit.toNanos(maxLatency));
+    }
+
+    /**
+     * @return a strategy that never waits
+     */
+    public static ReceiveStrategy busySpin() {
+        return new ReceiveStrategy(Mode.BUSY_SPIN, 0);
+    }
+
+    /**
+     * @param  interval
+     *                      time between polls of an idle adapter
+     * @return          a strategy that polls an idle adapter at a fixed
+     *                  interval
+     */
+    public static ReceiveStrategy fixedInterval(long interval, TimeUnit unit) {
+        return new ReceiveStrategy(Mode.FIXED_INTERVAL, unit.toNanos(interval));
+    }
+
+    /** The mode, or null for an adaptive strategy. */
+    private final Mode fixedMode;
+
+    /** Frames received in the current window. */
+    private long frames;
+
+    /** Number of empty polls since the last frame. */
+    private int idle;
+
+    private final long maxLatencyNanos;
+
+    private volatile Mode mode;
+
+    /** Start of the current rate window. */
+    private long windowStart = System.nanoTime();
+
+    private ReceiveStrategy(Mode fixedMode, long maxLatencyNanos) {
+        if (maxLatencyNanos < 0) {
+            throw new IllegalArgumentException("Invalid latency: " + maxLatencyNanos);
+        }
+        this.fixedMode = fixedMode;
+        this.maxLatencyNanos = maxLatencyNanos;
+        mode = fixedMode == null ? Mode.BACKOFF : fixedMode;
+    }
+
+    /**
+     * @return the latency bound in ns
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    /**
+     * @return the mode in use
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    public boolean isAdaptive() {
+        return fixedMode == null;
+    }
+
+    /**
+     * Called after every poll of the adapter.
+     *
+     * @param  received
+     *                      number of frames the poll read
+     * @param  now
+     *                      System.nanoTime()
+     * @return          how long to park before polling again, 0 to poll again
+     *                  at once
+     */
+    public long next(int received, long now) {
+        if (fixedMode == null && now - windowStart >= WINDOW_NANOS) {
+            long rate = frames * WINDOW_NANOS / (now - windowStart);
+            mode = rate >= BUSY_RATE ? Mode.BUSY_SPIN : rate >= IDLE_RATE ? Mode.BACKOFF : Mode.FIXED_INTERVAL;
+            frames = 0;
+            windowStart = now;
+        }
+        if (received > 0) {
+            frames += received;
+            idle = 0;
+            return 0;
+        }
+        idle++;
+        switch (mode) {
+            case FIXED_INTERVAL:
+                return maxLatencyNanos;
+            case BACKOFF:
+                if (idle <= SPINS) {
+                    return 0;
+                }
+                int doublings = Math.min(idle - SPINS - 1, 30);
+                return Math.min(MIN_PARK_NANOS << doublings, maxLatencyNanos);
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (isAdaptive() ? "adaptive " : "") + mode + " max latency: "
+                + TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos) + " us";
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+import org.etools.j1939_84.J1939_84;
+
+/**
+ * A {@link Bus} that plays back a capture, so the stack above it can be run
+ * and timed without a vehicle. The capture is either the .j1939 segments
+ * written by J1939.startLogger(), read through {@link CaptureReader}, or a
+ * Vector ASCII log, like those written by {@link CaptureReader#toAsc}.
+ *
+ * Frames are replayed at the recorded rate, at a multiple of it, or as fast as
+ * possible. Whatever the speed, each {@link Packet} is timestamped with the
+ * start of the replay plus its time in the capture, so the relative timestamps
+ * are the recorded ones. Frames that are due are published to the readers in
+ * batches.
+ *
+ * Nothing is replayed until {@link #start()}, so readers can open their
+ * streams first. Packets sent are echoed back, like {@link EchoBus}.
+ *
+ * Lines that are not frames, like the header and comments, are skipped, as
+ * are the gaps in a .j1939 capture.
+ */
+public class ReplayBus implements Bus {
+
+    /** Replay speed for as fast as possible. */
+    public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+    /** Replay speed for the recorded rate. */
+    public static final double REAL_TIME = 1;
+
+    /** Most frames published at once. */
+    private static final int BATCH_SIZE = 256;
+
+    private static final long GIGA = 1_000_000_000L;
+
+    /** Waits shorter than this are not parked for. */
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    /** Index of the first non blank char at or after i. */
+    private static int skipBlanks(String line, int i) {
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /** Index of the first blank char at or after i. */
+    private static int skipToken(String line, int i) {
+        while (i < line.length() && !Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private final int address;
+
+    /** The .j1939 capture, or null to read {@link #in}. */
+    private final CaptureReader capture;
+
+    /** Time of the first frame in the capture. */
+    private long captureStart = Long.MIN_VALUE;
+
+    /** Completed with the number of packets replayed. */
+    private final CompletableFuture<Long> done = new CompletableFuture<>();
+
+    /** The .asc capture, or null to read {@link #capture}. */
+    private final Reader in;
+
+    private volatile long packets;
+
+    private final MultiQueue<Packet> queue;
+
+    private volatile long skipped;
+
+    private final double speed;
+
+    private volatile Thread thread;
+
+    /**
+     * @param file
+     *                    the .asc capture
+     * @param address
+     *                    the address of the tool
+     * @param speed
+     *                    multiple of the recorded rate, {@link #REAL_TIME} or
+     *                    {@link #AS_FAST_AS_POSSIBLE}
+     */
+    public ReplayBus(Path file, int address, double speed) throws IOException {
+        this(Files.newBufferedReader(file, StandardCharsets.UTF_8), address, speed, new MultiQueue<>(Packet::getPgn, Packet::getSource));
+    }
+
+    /**
+     * @param segments
+     *                     the segments of the .j1939 capture, in order, like
+     *                     those found by {@link CaptureReader#findSegments}
+     * @param address
+     *                     the address of the tool
+     * @param speed
+     *                     multiple of the recorded rate, {@link #REAL_TIME} or
+     *                     {@link #AS_FAST_AS_POSSIBLE}
+     */
+    public ReplayBus(List<Path> segments, int address, double speed) {
+        this(null, new CaptureReader(segments), address, speed, new MultiQueue<>(Packet::getPgn, Packet::getSource));
+    }
+
+    /**
+     * Constructor exposed for testing
+     */
+    public ReplayBus(Reader in, int address, double speed, MultiQueue<Packet> queue) {
+        this(in, null, address, speed, queue);
+    }
+
+    private ReplayBus(Reader in, CaptureReader capture, int address, double speed, MultiQueue<Packet> queue) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Invalid speed: " + speed);
+        }
+        this.in = in;
+        this.capture = capture;
+        this.address = address;
+        this.speed = speed;
+        this.queue = queue;
+    }
+
+    /**
+     * Blocks until the whole capture has been replayed.
+     *
+     * @return the number of packets replayed
+     */
+    public long await() throws InterruptedException {
+        try {
+            return done.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        Thread t = thread;
+        if (t != null) {
+            t.interrupt();
+        }
+        queue.close();
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                J1939_84.getLogger().log(Level.WARNING, "Unable to close capture", e);
+            }
+        }
+    }
+
+    @Override
+    public Stream<Packet> duplicate(Stream<Packet> stream, int time, TimeUnit unit) {
+        return queue.duplicate(stream, time, unit);
+    }
+
+    @Override
+    public Stream<Packet> duplicate(Stream<Packet> stream, PacketFilter filter, int time, TimeUnit unit) {
+        return queue.duplicate(stream, filter, time, unit);
+    }
+
+    @Override
+    public int getAddress() {
+        return address;
+    }
+
+    @Override
+    public int getConnectionSpeed() throws BusException {
+        throw new BusException("Could not be determined");
+    }
+
+    /**
+     * @return the number of packets replayed so far
+     */
+    public long getPacketCount() {
+        return packets;
+    }
+
+    /**
+     * @return the number of lines skipped because they were not frames, or of
+     *         records skipped because they were gaps or too short for a
+     *         {@link Packet}
+     */
+    public long getSkippedLines() {
+        return skipped;
+    }
+
+    @Override
+    public List<StreamStatistics> getStatistics() {
+        return queue.getStatistics();
+    }
+
+    @Override
+    public Optional<StreamStatistics> getStatistics(Stream<Packet> stream) {
+        return queue.getStatistics(stream);
+    }
+
+    @Override
+    public boolean imposterDetected() {
+        return false;
+    }
+
+    /**
+     * @return the next packet of the capture, or null at its end
+     */
+    private Packet next(BufferedReader reader, long startNanos) throws IOException {
+        if (reader != null) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Packet packet = parse(line, startNanos);
+                if (packet != null) {
+                    return packet;
+                }
+                skipped++;
+            }
+            return null;
+        }
+        while (capture.next()) {
+            if (capture.isGap() || capture.getLength() < 3) {
+                skipped++;
+                continue;
+            }
+            if (captureStart == Long.MIN_VALUE) {
+                captureStart = capture.getTimeNanos();
+            }
+            byte[] data = new byte[capture.getLength()];
+            capture.getData(data);
+            return Packet.create(startNanos + capture.getTimeNanos() - captureStart,
+                                 Packet.NO_TICK,
+                                 capture.getPriority(),
+                                 capture.getId(),
+                                 capture.getSource(),
+                                 capture.isTransmitted(),
+                                 data);
+        }
+        return null;
+    }
+
+    /**
+     * Parses a line like "1.234567 1  18FECA00x Rx d 8 01 02 03 04 05 06 07
+     * 08".
+     *
+     * @param  line
+     *                       the line of the capture
+     * @param  startNanos
+     *                       the time the replay started, in ns since the
+     *                       epoch
+     * @return            the packet, or null if the line is not a frame
+     */
+    Packet parse(String line, long startNanos) {
+        // time in seconds, to the us or better
+        int i = skipBlanks(line, 0);
+        long seconds = 0;
+        long fraction = 0;
+        long scale = GIGA;
+        boolean digits = false;
+        while (i < line.length() && Character.isDigit(line.charAt(i))) {
+            seconds = seconds * 10 + line.charAt(i++) - '0';
+            digits = true;
+        }
+        if (i < line.length() && line.charAt(i) == '.') {
+            i++;
+            while (i < line.length() && Character.isDigit(line.charAt(i))) {
+                if (scale > 1) {
+                    scale /= 10;
+                    fraction += (line.charAt(i) - '0') * scale;
+                }
+                i++;
+                digits = true;
+            }
+        }
+        if (!digits) {
+            return null;
+        }
+        long nanos = seconds * GIGA + fraction;
+
+        // channel
+        i = skipToken(line, skipBlanks(line, i));
+
+        // identifier, ending in x for extended
+        i = skipBlanks(line, i);
+        long header = 0;
+        int idDigits = 0;
+        int d;
+        while (i < line.length() && (d = hexDigit(line.charAt(i))) >= 0) {
+            header = header << 4 | d;
+            idDigits++;
+            i++;
+        }
+        if (idDigits == 0 || idDigits > 8 || i >= line.length() || line.charAt(i) != 'x') {
+            return null;
+        }
+        i++;
+
+        // direction
+        i = skipBlanks(line, i);
+        boolean transmitted;
+        if (line.startsWith("Rx", i)) {
+            transmitted = false;
+        } else if (line.startsWith("Tx", i)) {
+            transmitted = true;
+        } else {
+            return null;
+        }
+        i = skipBlanks(line, i + 2);
+
+        // d for a data frame, then the length
+        if (i >= line.length() || line.charAt(i) != 'd') {
+            return null;
+        }
+        i = skipBlanks(line, i + 1);
+        int length = 0;
+        while (i < line.length() && Character.isDigit(line.charAt(i))) {
+            length = length * 10 + line.charAt(i++) - '0';
+        }
+        if (length < 3) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        for (int b = 0; b < length; b++) {
+            i = skipBlanks(line, i);
+            if (i + 1 >= line.length()) {
+                return null;
+            }
+            int hi = hexDigit(line.charAt(i));
+            int lo = hexDigit(line.charAt(i + 1));
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            bytes[b] = (byte) (hi << 4 | lo);
+            i += 2;
+        }
+
+        if (captureStart == Long.MIN_VALUE) {
+            captureStart = nanos;
+        }
+        int priority = (int) (header >> 26) & 0x07;
+        int id = (int) (header >> 8) & 0x3FFFF;
+        int source = (int) header & 0xFF;
+        return Packet.create(startNanos + nanos - captureStart, Packet.NO_TICK, priority, id, source, transmitted, bytes);
+    }
+
+    @Override
+    public Stream<Packet> read(long timeout, TimeUnit unit) {
+        return queue.stream(timeout, unit);
+    }
+
+    @Override
+    public Stream<Packet> read(PacketFilter filter, long timeout, TimeUnit unit) {
+        return queue.stream(timeout, unit, filter);
+    }
+
+    private void replay() {
+        Instant now = Instant.now();
+        long startNanos = now.getEpochSecond() * GIGA + now.getNano();
+        long startNanoTime = System.nanoTime();
+        Packet[] batch = new Packet[BATCH_SIZE];
+        int n = 0;
+        long count = 0;
+        try (BufferedReader reader = in == null || in instanceof BufferedReader ? (BufferedReader) in
+                : new BufferedReader(in, 1 << 16);
+                CaptureReader c = capture) {
+            Packet packet;
+            while (!Thread.currentThread().isInterrupted() && (packet = next(reader, startNanos)) != null) {
+                if (speed != AS_FAST_AS_POSSIBLE) {
+                    long due = startNanoTime
+                            + (long) ((packet.getTimestampNanos() - startNanos) / speed);
+                    long wait = due - System.nanoTime();
+                    if (wait > MIN_PARK_NANOS) {
+                        // publish what is due before waiting for the next
+                        queue.addAll(batch, 0, n);
+                        n = 0;
+                        while ((wait = due - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                }
+                batch[n++] = packet;
+                count++;
+                if (n == BATCH_SIZE) {
+                    queue.addAll(batch, 0, n);
+                    n = 0;
+                    packets = count;
+                }
+            }
+            queue.addAll(batch, 0, n);
+            packets = count;
+            done.complete(count);
+        } catch (IOException e) {
+            done.completeExceptionally(new UncheckedIOException(e));
+        } catch (Throwable t) {
+            done.completeExceptionally(t);
+            throw t;
+        }
+    }
+
+    /**
+     * Reset stream timeout for stream created with bus.read(). To be used in a
+     * stream call like peek, map or forEach.
+     */
+    @Override
+    public void resetTimeout(Stream<Packet> stream, int time, TimeUnit unit) {
+        queue.resetTimeout(stream, time, unit);
+    }
+
+    @Override
+    public Packet send(Packet p) {
+        queue.add(p);
+        return p;
+    }
+
+    /**
+     * Starts the replay on its own thread. Streams opened before this see every
+     * packet.
+     *
+     * @return this
+     */
+    public synchronized ReplayBus start() {
+        if (thread == null) {
+            Thread t = new Thread(this::replay, "Replay");
+            t.setDaemon(true);
+            thread = t;
+            t.start();
+        }
+        return this;
+    }
+}
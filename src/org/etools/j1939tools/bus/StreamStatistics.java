@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.bus;
+
+/**
+ * Snapshot of the counters for a single stream read from a {@link Bus}.
+ */
+public class StreamStatistics {
+
+    private final long delivered;
+
+    private final long dropped;
+
+    private final long lag;
+
+    /**
+     * @param delivered
+     *                      number of items returned by the stream
+     * @param dropped
+     *                      number of items the stream lost because it fell more
+     *                      than the queue capacity behind
+     * @param lag
+     *                      number of items published but not yet read by the
+     *                      stream
+     */
+    public StreamStatistics(long delivered, long dropped, long lag) {
+        this.delivered = delivered;
+        this.dropped = dropped;
+        this.lag = lag;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getLag() {
+        return lag;
+    }
+
+    @Override
+    public String toString() {
+        return "delivered: " + delivered + " dropped: " + dropped + " lag: " + lag;
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.j1939;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+import org.etools.j1939_84.J1939_84;
+import org.etools.j1939tools.bus.Bus;
+import org.etools.j1939tools.bus.BusException;
+import org.etools.j1939tools.bus.MultiQueue.OverflowException;
+import org.etools.j1939tools.bus.Packet;
+
+/**
+ * Live statistics of the raw bus: frames per second, estimated bus load, the
+ * rate and inter-arrival jitter of each PGN and source address, and the
+ * number of TP sessions and aborts. Tells whether the vehicle bus is saturated
+ * before slow responses are blamed on the tool.
+ *
+ * Rates are frames in the last whole second, by the packet timestamps, so a
+ * replayed capture gives the recorded rates. When the bus goes quiet the
+ * window still rolls, by the time passed since the last frame. Jitter is the
+ * smoothed mean deviation of the time between frames, as RFC 3550 computes
+ * it.
+ *
+ * All counters are in arrays of a fixed size, so it can run for days. Up to
+ * {@value #PGN_SLOTS} PGNs are tracked, the first seen; frames of other PGNs
+ * are only counted in the totals. Lookups probe at most {@value #MAX_PROBES}
+ * slots of a table twice that size, so untracked PGNs stay cheap.
+ *
+ * TP sessions and failures are what is seen on the bus, the RTS and BAM
+ * announcements and the aborts. Sessions that time out without an abort are
+ * not seen.
+ */
+public class BusStatistics implements AutoCloseable {
+
+    /** Counters of one kind of frame, in parallel arrays indexed by slot. */
+    private static final class Rates {
+        private final long[] count;
+        private final long[] window;
+        private final long[] rate;
+        private final long[] last;
+        private final double[] interval;
+        private final double[] jitter;
+
+        private Rates(int slots) {
+            count = new long[slots];
+            window = new long[slots];
+            rate = new long[slots];
+            last = new long[slots];
+            interval = new double[slots];
+            jitter = new double[slots];
+        }
+
+        private void record(int slot, long timeNanos) {
+            if (count[slot]++ > 0) {
+                double d = timeNanos - last[slot];
+                if (count[slot] == 2) {
+                    interval[slot] = d;
+                } else {
+                    double deviation = Math.abs(d - interval[slot]);
+                    interval[slot] += (d - interval[slot]) / 16;
+                    jitter[slot] += (deviation - jitter[slot]) / 16;
+                }
+            }
+            last[slot] = timeNanos;
+            window[slot]++;
+        }
+
+        /** Ends the window. elapsed is the number of whole windows passed. */
+        private void roll(long elapsed) {
+            for (int i = 0; i < window.length; i++) {
+                rate[i] = elapsed == 1 ? window[i] : 0;
+                window[i] = 0;
+            }
+        }
+    }
+
+    /** Most slots probed to find a PGN. */
+    private static final int MAX_PROBES = 16;
+
+    /** Number of PGNs tracked. */
+    public static final int PGN_SLOTS = 1024;
+
+    /** Size of the PGN table, a power of 2 keeping it at most half full. */
+    private static final int TABLE_SIZE = 2 * PGN_SLOTS;
+
+    private static final int TP_CM = 0xEC00;
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Worst case bits on the wire for an extended frame, with stuff bits and
+     * the interframe space.
+     */
+    static int frameBits(int length) {
+        return 8 * length + 67 + (54 + 8 * length - 1) / 4;
+    }
+
+    private final int bitRate;
+
+    /** Bits of the frames in the current window. */
+    private long bits;
+
+    /** Monotonic clock in ns, to roll the window when no frames arrive. */
+    private final LongSupplier clock;
+
+    private long frames;
+
+    private long framesRate;
+
+    private long framesWindow;
+
+    private long lastBitsRate;
+
+    /** Clock reading when the last frame was counted. */
+    private long lastClock;
+
+    /** Timestamp of the last frame counted. */
+    private long lastTime;
+
+    private long lost;
+
+    /** PGN in each slot, or -1. */
+    private final int[] pgns = new int[TABLE_SIZE];
+
+    private final Rates pgnRates = new Rates(TABLE_SIZE);
+
+    private final Rates sourceRates = new Rates(256);
+
+    private final Stream<Packet> stream;
+
+    private long tpAborts;
+
+    private long tpSessions;
+
+    /** Number of PGNs in the table. */
+    private int tracked;
+
+    private long untracked;
+
+    /** Start of the current window, or Long.MIN_VALUE before the first frame. */
+    private long windowStart = Long.MIN_VALUE;
+
+    /**
+     * Starts collecting statistics of the raw bus under bus.
+     */
+    public BusStatistics(Bus bus) throws BusException {
+        this(bus, System::nanoTime);
+    }
+
+    /**
+     * @param clock
+     *                  monotonic clock in ns, used to roll the window while
+     *                  no frames arrive
+     */
+    public BusStatistics(Bus bus, LongSupplier clock) throws BusException {
+        this.clock = clock;
+        Bus raw = bus.getRawBus() == null ? bus : bus.getRawBus();
+        int speed;
+        try {
+            speed = raw.getConnectionSpeed();
+        } catch (BusException e) {
+            speed = 0;
+        }
+        bitRate = speed;
+        Arrays.fill(pgns, -1);
+        stream = raw.read(Integer.MAX_VALUE, TimeUnit.DAYS);
+        Thread thread = new Thread(this::run, "Bus statistics");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+    }
+
+    /**
+     * @return the bit rate of the bus, or 0 if it could not be determined
+     */
+    public int getBitRate() {
+        return bitRate;
+    }
+
+    /**
+     * @return the estimated percentage of the bus capacity used in the last
+     *         second, or -1 if the bit rate is not known
+     */
+    public synchronized double getBusLoad() {
+        rollToNow();
+        return bitRate <= 0 ? -1 : lastBitsRate * 100.0 / bitRate;
+    }
+
+    /**
+     * @return the number of frames seen
+     */
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return the frames seen in the last second
+     */
+    public synchronized long getFramesPerSecond() {
+        rollToNow();
+        return framesRate;
+    }
+
+    /**
+     * @return the number of frames that were lost because this fell behind
+     */
+    public synchronized long getLost() {
+        return lost;
+    }
+
+    /**
+     * @return the mean time between frames of pgn in ns, or 0 if not tracked
+     */
+    public synchronized double getPgnInterval(int pgn) {
+        int slot = slotOf(pgn, false);
+        return slot < 0 ? 0 : pgnRates.interval[slot];
+    }
+
+    /**
+     * @return the inter-arrival jitter of pgn in ns, or 0 if not tracked
+     */
+    public synchronized double getPgnJitter(int pgn) {
+        int slot = slotOf(pgn, false);
+        return slot < 0 ? 0 : pgnRates.jitter[slot];
+    }
+
+    /**
+     * @return the frames of pgn in the last second
+     */
+    public synchronized long getPgnRate(int pgn) {
+        rollToNow();
+        int slot = slotOf(pgn, false);
+        return slot < 0 ? 0 : pgnRates.rate[slot];
+    }
+
+    /**
+     * @return the mean time between frames from source in ns
+     */
+    public synchronized double getSourceInterval(int source) {
+        return sourceRates.interval[source & 0xFF];
+    }
+
+    /**
+     * @return the inter-arrival jitter of the frames from source in ns
+     */
+    public synchronized double getSourceJitter(int source) {
+        return sourceRates.jitter[source & 0xFF];
+    }
+
+    /**
+     * @return the frames from source in the last second
+     */
+    public synchronized long getSourceRate(int source) {
+        rollToNow();
+        return sourceRates.rate[source & 0xFF];
+    }
+
+    /**
+     * @return the number of TP sessions aborted
+     */
+    public synchronized long getTpAborts() {
+        return tpAborts;
+    }
+
+    /**
+     * @return the number of TP sessions announced, by RTS or BAM
+     */
+    public synchronized long getTpSessions() {
+        return tpSessions;
+    }
+
+    /**
+     * @return the number of frames of PGNs that did not fit in the table
+     */
+    public synchronized long getUntracked() {
+        return untracked;
+    }
+
+    /**
+     * Counts a frame. Called for each frame read from the bus.
+     */
+    synchronized void record(Packet packet) {
+        long time = packet.getTimestampNanos();
+        if (windowStart == Long.MIN_VALUE) {
+            windowStart = time;
+        } else {
+            roll(time);
+        }
+        lastTime = time;
+        lastClock = clock.getAsLong();
+        frames++;
+        framesWindow++;
+        int length = packet.getLength();
+        bits += frameBits(length);
+
+        int pgn = packet.getPgn();
+        int slot = slotOf(pgn, true);
+        if (slot < 0) {
+            untracked++;
+        } else {
+            pgnRates.record(slot, time);
+        }
+        sourceRates.record(packet.getSource(), time);
+
+        if (pgn == TP_CM && length > 0) {
+            int control = packet.get(0);
+            if (control == J1939TP.CM_RTS || control == J1939TP.CM_BAM) {
+                tpSessions++;
+            } else if (control == J1939TP.CM_ConnAbort) {
+                tpAborts++;
+            }
+        }
+    }
+
+    /** Ends the current window if time is past it. Called holding this. */
+    private void roll(long time) {
+        if (windowStart != Long.MIN_VALUE && time - windowStart >= WINDOW_NANOS) {
+            long elapsed = (time - windowStart) / WINDOW_NANOS;
+            framesRate = elapsed == 1 ? framesWindow : 0;
+            lastBitsRate = elapsed == 1 ? bits : 0;
+            framesWindow = 0;
+            bits = 0;
+            pgnRates.roll(elapsed);
+            sourceRates.roll(elapsed);
+            windowStart += elapsed * WINDOW_NANOS;
+        }
+    }
+
+    /** Rolls the window by the time passed since the last frame. */
+    private void rollToNow() {
+        roll(lastTime + clock.getAsLong() - lastClock);
+    }
+
+    private void run() {
+        Iterator<Packet> it = stream.iterator();
+        while (true) {
+            try {
+                while (it.hasNext()) {
+                    record(it.next());
+                }
+                return;
+            } catch (OverflowException e) {
+                synchronized (this) {
+                    lost += e.getDropped();
+                }
+            } catch (RuntimeException e) {
+                J1939_84.getLogger().log(Level.WARNING, "Bus statistics stopped", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Open addressing: the slot of pgn, or -1 if absent and not added. Gives
+     * up after {@value #MAX_PROBES} slots.
+     */
+    private int slotOf(int pgn, boolean add) {
+        int slot = (pgn * 0x9E3779B1 >>> 21) & (TABLE_SIZE - 1);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int key = pgns[slot];
+            if (key == pgn) {
+                return slot;
+            }
+            if (key == -1) {
+                if (!add || tracked == PGN_SLOTS) {
+                    return -1;
+                }
+                pgns[slot] = pgn;
+                tracked++;
+                return slot;
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("frames: %d rate: %d/s load: %.1f%% TP sessions: %d aborts: %d lost: %d",
+                             frames,
+                             getFramesPerSecond(),
+                             getBusLoad(),
+                             tpSessions,
+                             tpAborts,
+                             lost);
+    }
+}
@@ -8,21 +8,31 @@ import static java.util.logging.Level.SEVERE;
 import static org.etools.j1939tools.j1939.packets.AcknowledgmentPacket.Response.BUSY;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.PrintWriter;
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -32,10 +42,14 @@ import org.etools.j1939tools.CommunicationsListener;
 import org.etools.j1939tools.bus.Bus;
 import org.etools.j1939tools.bus.BusException;
 import org.etools.j1939tools.bus.BusResult;
+import org.etools.j1939tools.bus.CaptureLogger;
+import org.etools.j1939tools.bus.CaptureWriter;
 import org.etools.j1939tools.bus.EchoBus;
 import org.etools.j1939tools.bus.Either;
+import org.etools.j1939tools.bus.MultiQueue.OverflowException;
 import org.etools.j1939tools.bus.Packet;
 import org.etools.j1939tools.bus.Packet.PacketException;
+import org.etools.j1939tools.bus.PacketFilter;
 import org.etools.j1939tools.bus.RequestResult;
 import org.etools.j1939tools.j1939.packets.AcknowledgmentPacket;
 import org.etools.j1939tools.j1939.packets.AddressClaimPacket;
@@ -117,6 +131,19 @@ public class J1939 {
 
     private static final String LATE_RESPONSE = "TIMING: Late response - ";
 
+    /**
+     * The time between the requests of a batch, so that a module is not sent
+     * the next request while it is still queuing its answer to the last.
+     */
+    public static final long REQUEST_SPACING = 10; // milliseconds
+
+    /** Makes the DS requests that follow a global request at the same time. */
+    private static final ExecutorService DS_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "DS fallback");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private static final String TIMEOUT_MESSAGE = "Timeout - No Response";
 
     /**
@@ -137,6 +164,27 @@ public class J1939 {
         };
     }
 
+    /**
+     * Collects the responses to a global request. With no expected addresses,
+     * reads until the stream times out. Otherwise stops as soon as each
+     * expected address has sent a response or a NACK, without waiting for the
+     * next packet.
+     */
+    static private List<Packet> collectResponses(Stream<Packet> stream, Collection<Integer> expected) {
+        if (expected.isEmpty()) {
+            return stream.collect(Collectors.toList());
+        }
+        Set<Integer> waiting = new HashSet<>(expected);
+        List<Packet> packets = new ArrayList<>();
+        Iterator<Packet> it = stream.iterator();
+        while (!waiting.isEmpty() && it.hasNext()) {
+            Packet p = it.next();
+            packets.add(p);
+            waiting.remove(p.getSource());
+        }
+        return packets;
+    }
+
     private static DateTimeModule getDateTimeModule() {
         return DateTimeModule.getInstance();
     }
@@ -175,8 +223,8 @@ public class J1939 {
     /**
      * filter by pgn
      */
-    static private Predicate<Packet> pgnFilter(int pgn) {
-        return response -> response.getPgn() == pgn;
+    static private PacketFilter pgnFilter(int pgn) {
+        return PacketFilter.pgn(pgn);
     }
 
     static public ParsedPacket processRaw(int pgn, Packet packet) {
@@ -297,20 +345,54 @@ public class J1939 {
         J1939_84.getLogger().log(SEVERE, message, t);
     }
 
-    static private Predicate<Packet> sourceFilter(int addr) {
+    static private PacketFilter sourceFilter(PacketFilter filter, int addr) {
         if (addr == GLOBAL_ADDR) {
             throw new IllegalArgumentException("Invalid use of global source.");
         }
-        return response -> response.getSource() == addr;
+        return filter.source(addr);
+    }
+
+    /**
+     * Only consider the request echo and the packets that match filter. This
+     * is what a read opened before sending request must deliver, so that
+     * after(sent) sees the echo. The PGNs and sources of filter are kept as
+     * keys, with those of the echo added.
+     */
+    static private PacketFilter withRequest(PacketFilter filter, Packet request) {
+        int[] keys = filter.getKeys();
+        if (keys == null) {
+            return filter;
+        }
+        int[] pgns = Arrays.copyOf(keys, keys.length + 1);
+        pgns[keys.length] = request.getPgn();
+        int requestPgn = request.getPgn();
+        int requestSource = request.getSource();
+        PacketFilter result = PacketFilter.pgn(pgns);
+        int[] sources = filter.getSources();
+        if (sources != null) {
+            sources = Arrays.copyOf(sources, sources.length + 1);
+            sources[sources.length - 1] = requestSource;
+            result = result.source(sources);
+        }
+        return result.and(p -> (p.getPgn() == requestPgn && p.getSource() == requestSource) || filter.test(p));
     }
 
     private final Bus bus;
 
+    /** Requests on the bus, by PGN, destination, source and expected. */
+    private RequestCoalescer coalescer = new RequestCoalescer();
+
+    private ResponseCache responseCache = new ResponseCache();
+
+    private final ResponseLatencies latencies = new ResponseLatencies();
+
+    private RequestScheduler scheduler = new RequestScheduler();
+
     private boolean logDeltaTime;
 
     private Stream<Packet> loggerStream = Stream.empty();
 
-    private int warnings;
+    private final AtomicInteger warnings = new AtomicInteger();
 
     public J1939() {
         this(new EchoBus(0xA5));
@@ -346,6 +428,82 @@ public class J1939 {
         };
     }
 
+    /**
+     * Makes request, unless an identical request is already on the bus, in
+     * which case waits for that one and shares its result. This keeps several
+     * views asking for the same PGN at once from loading the bus and drawing
+     * BUSY NACKs. See {@link RequestCoalescer}.
+     */
+    private <R> R coalesce(List<Object> key,
+            CommunicationsListener listener,
+            Function<CommunicationsListener, R> request) {
+        return coalescer.coalesce(key, listener, request);
+    }
+
+    /**
+     * @return the number of requests that shared the result of an identical
+     *         request already on the bus
+     */
+    public int getCoalesced() {
+        return coalescer.getCoalesced();
+    }
+
+    /**
+     * @return the requests on the bus that identical requests wait for
+     */
+    public RequestCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * Shares coalescer with the other J1939s on the same bus, so identical
+     * requests made through any of them at once share one request.
+     */
+    public void setCoalescer(RequestCoalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    /**
+     * @return the cache of responses to requests for static data
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Shares responseCache with the other J1939s on the same bus, so a
+     * response cached by one is used by the next.
+     */
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * @return the response times of each module to each PGN
+     */
+    public ResponseLatencies getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @return the scheduler every request waits on before it is sent
+     */
+    public RequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Shares scheduler with the other J1939s on the same bus, so their
+     * requests are arbitrated together.
+     */
+    public void setScheduler(RequestScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    private static List<Object> key(int pgn, Packet request, Collection<Integer> expected) {
+        return List.of(pgn, request.getDestination(), request.getSource(), Set.copyOf(expected));
+    }
+
     public void closeLogger() {
         loggerStream.close();
     }
@@ -364,35 +522,32 @@ public class J1939 {
         return Packet.create(0xEA00 | addr, getBusAddress(), true, pgn, pgn >> 8, pgn >> 16);
     }
 
-    private Predicate<Packet> dsCommandFilter(int command, int pgn, int requestDestination, int requestSource) {
+    private PacketFilter dsCommandFilter(int command, int pgn, int requestDestination, int requestSource) {
         if (requestDestination == GLOBAL_ADDR || requestSource == GLOBAL_ADDR) {
             throw new IllegalArgumentException("Invalid use of global.");
         }
-        return // does the packet have the right ID
-        (pgnFilter(pgn)
-                .or(ackNackFilter(pgn))
-                .or(ackNackFilter(command)))
-                        // not something tool sent
-                        .and(p -> !p.isTransmitted())
-                        // is it addressed to tool or all
-                        .and((p -> p.getDestination() == bus.getAddress()
-                                || p.getDestination() == GLOBAL_ADDR
-                                // A TP message to global will have a
-                                // destination of 0
-                                || (p.getDestination() == 0
-                                        && p.getLength() > 8)))
-                        // did it come from the right module or any if
-                        // addressed to all
-                        .and(sourceFilter(requestDestination));
-    }
-
-    private Predicate<Packet> dsFilter(int pgn, int requestDestination, int requestSource) {
+        Predicate<Packet> ackNack = ackNackFilter(pgn).or(ackNackFilter(command));
+        // did it come from the right module or any if addressed to all
+        return sourceFilter(PacketFilter.pgn(pgn, AcknowledgmentPacket.PGN), requestDestination)
+                // does the packet have the right ID
+                .and(p -> p.getPgn() == pgn || ackNack.test(p))
+                // not something tool sent
+                .and(p -> !p.isTransmitted())
+                // is it addressed to tool or all
+                .and(p -> p.getDestination() == bus.getAddress()
+                        || p.getDestination() == GLOBAL_ADDR
+                        // A TP message to global will have a
+                        // destination of 0
+                        || (p.getDestination() == 0
+                                && p.getLength() > 8));
+    }
+
+    private PacketFilter dsFilter(int pgn, int requestDestination, int requestSource) {
         if (requestDestination == GLOBAL_ADDR || requestSource == GLOBAL_ADDR) {
             throw new IllegalArgumentException("Invalid use of global.");
         }
-        return globalFilter(pgn)
-                // did it come from the right module or any if addressed to all
-                .and(sourceFilter(requestDestination));
+        // did it come from the right module or any if addressed to all
+        return sourceFilter(globalFilter(pgn), requestDestination);
     }
 
     public GenericPacket emptyPacket(int pgn) {
@@ -427,20 +582,21 @@ public class J1939 {
      * Count of warnings detected in J1939 and J1939TP.
      */
     public int getWarnings() {
-        return warnings;
+        return warnings.get();
     }
 
-    private Predicate<Packet> globalFilter(int pgn) {
-        return
-        // does the packet have the right ID
-        (pgnFilter(pgn).or(ackNackFilter(pgn)))
+    private PacketFilter globalFilter(int pgn) {
+        Predicate<Packet> ackNack = ackNackFilter(pgn);
+        return PacketFilter.pgn(pgn, AcknowledgmentPacket.PGN)
+                // does the packet have the right ID
+                .and(p -> p.getPgn() == pgn || ackNack.test(p))
                 // not something tool sent
                 .and(p -> !p.isTransmitted())
                 // is it addressed to tool or all
-                .and((p -> p.getDestination() == bus.getAddress()
+                .and(p -> p.getDestination() == bus.getAddress()
                         || p.getDestination() == GLOBAL_ADDR
                         // A TP message to global will have a destination of 0
-                        || (p.getDestination() == 0 && p.getLength() > 8)));
+                        || (p.getDestination() == 0 && p.getLength() > 8));
     }
 
     public void interrupt() {
@@ -456,6 +612,13 @@ public class J1939 {
     }
 
     private void logResponse(CommunicationsListener listener, Packet sent, Packet response) {
+        if (sent != null && sent.getPgn() == 0xEA00) {
+            Packet first = response.getFragments().isEmpty() ? response : response.getFragments().get(0);
+            long latency = first.getTimestampNanos() - sent.getTimestampNanos();
+            if (latency >= 0) {
+                latencies.record(response.getSource(), sent.get24(0), latency);
+            }
+        }
         if (logDeltaTime) {
             listener.onResult(response.toDeltaTimeString(sent));
         } else {
@@ -464,7 +627,7 @@ public class J1939 {
     }
 
     private void logTiming(CommunicationsListener listener, String message) {
-        warnings++;
+        warnings.incrementAndGet();
         listener.onResult(message);
         J1939_84.getLogger().warning(message);
     }
@@ -534,9 +697,8 @@ public class J1939 {
         }
 
         int pgn = getPgn(T);
-        try (Stream<Packet> stream = read(timeout, unit)) {
+        try (Stream<Packet> stream = read(sourceFilter(pgnFilter(pgn), addr), timeout, unit)) {
             return stream
-                    .filter(sourceFilter(addr).and(pgnFilter(pgn)))
                     .findFirst()
                     .map(this::process);
         } catch (BusException e) {
@@ -563,11 +725,8 @@ public class J1939 {
             long timeout,
             TimeUnit unit) {
         try {
-            Stream<Packet> stream = read(timeout, unit);
             int pgn = getPgn(T);
-            if (pgn >= 0) {
-                stream = stream.filter(pgnFilter(pgn));
-            }
+            Stream<Packet> stream = read(pgn >= 0 ? pgnFilter(pgn) : PacketFilter.all(), timeout, unit);
 
             return stream.map(this::process);
         } catch (BusException e) {
@@ -592,10 +751,7 @@ public class J1939 {
             long timeout,
             TimeUnit unit) {
         try {
-            Stream<Packet> stream = read(timeout, unit);
-            if (pg >= 0) {
-                stream = stream.filter(pgnFilter(pg));
-            }
+            Stream<Packet> stream = read(pg >= 0 ? pgnFilter(pg) : PacketFilter.all(), timeout, unit);
 
             return stream.map(this::process);
         } catch (BusException e) {
@@ -605,7 +761,17 @@ public class J1939 {
     }
 
     public Stream<Packet> read(long timeout, TimeUnit unit) throws BusException {
-        return bus.read(timeout, unit)
+        return read(PacketFilter.all(), timeout, unit);
+    }
+
+    /**
+     * Reads the packets that match filter. The filter is applied by the bus,
+     * so packets that can not match are never delivered to this stream.
+     * Packets are returned as they complete, so a TP packet still being
+     * collected does not hold up the packets behind it.
+     */
+    public Stream<Packet> read(PacketFilter filter, long timeout, TimeUnit unit) throws BusException {
+        return bus.read(filter.inCompletionOrder(), timeout, unit)
                 // only return complete and valid packets (not broken TP
                 // packets).
                 .filter(Packet::isValid);
@@ -640,7 +806,47 @@ public class J1939 {
             listener.onResult(getDateTimeModule().getTime() + " Destination Specific " + title + " Request to "
                     + Lookup.getAddressName(request.getDestination()));
         }
+        if (pgn == DM11ClearActiveDTCsPacket.PGN) {
+            responseCache.invalidate();
+        }
+        Optional<Either<? extends GenericPacket, AcknowledgmentPacket>> cached = responseCache.get(pgn,
+                request.getDestination());
+        if (cached.isPresent()) {
+            logCached(listener, request, List.of(cached.get()));
+            @SuppressWarnings("unchecked")
+            Either<T, AcknowledgmentPacket> response = (Either<T, AcknowledgmentPacket>) cached.get();
+            return new BusResult<>(false, response);
+        }
+        BusResult<T> result = coalesce(key(pgn, request, Collections.emptySet()),
+                listener,
+                l -> requestDSShared(pgn, request, l));
+        result.getPacket()
+              .filter(e -> !isBusy(e))
+              .ifPresent(e -> responseCache.put(pgn, request.getDestination(), e));
+        return result;
+    }
+
+    /**
+     * Logs the cached responses used instead of sending request, so the log
+     * still shows where each value came from.
+     */
+    private void logCached(CommunicationsListener listener,
+            Packet request,
+            List<? extends Either<? extends GenericPacket, AcknowledgmentPacket>> responses) {
+        listener.onResult(getDateTimeModule().getTime() + " Using cached responses to " + request);
+        for (Either<? extends GenericPacket, AcknowledgmentPacket> e : responses) {
+            ParsedPacket pp = e.resolve();
+            listener.onResult(pp.getPacket().toTimeString() + " (cached)");
+            listener.onResult(pp.toString());
+        }
+    }
 
+    /**
+     * The DS request made for all identical requests in flight.
+     */
+    private <T extends GenericPacket> BusResult<T> requestDSShared(int pgn,
+            Packet request,
+            CommunicationsListener listener) {
         // 6.II.B
         long end = getDateTimeModule().getTimeAsLong() + 1200;
         boolean retry = false;
@@ -673,20 +879,19 @@ public class J1939 {
             throw new IllegalArgumentException("Request to global.");
         }
 
-        try {
-            Stream<Packet> packetStream = read(DS_TIMEOUT, MILLISECONDS);
+        try (RequestScheduler.Permit permit = scheduler.acquire(request.getDestination(), 1)) {
+            PacketFilter filter = dsFilter(pgn, request.getDestination(), getBusAddress());
+            Stream<Packet> packetStream = read(withRequest(filter, request), DS_TIMEOUT, MILLISECONDS);
             Packet sent = bus.send(request);
-            LocalDateTime lateTime;
+            long lateTime;
             if (sent != null) {
                 listener.onResult(sent.toTimeString());
-                lateTime = sent.getTimestamp().plus(GLOBAL_WARN_TIMEOUT, ChronoUnit.MILLIS);
+                lateTime = sent.getTimestampNanos() + MILLISECONDS.toNanos(GLOBAL_WARN_TIMEOUT);
             } else {
                 logWarning(listener, FAILED_TO_SEND + request);
-                lateTime = null;
+                lateTime = Long.MAX_VALUE;
             }
-            Stream<Either<T, AcknowledgmentPacket>> stream = packetStream.filter(after(sent).and(dsFilter(pgn,
-                    request.getDestination(),
-                    getBusAddress())))
+            Stream<Either<T, AcknowledgmentPacket>> stream = packetStream.filter(after(sent).and(filter))
                     .map(this::process);
             Optional<Either<T, AcknowledgmentPacket>> result = stream.findFirst();
             result.ifPresentOrElse(p -> {
@@ -694,7 +899,7 @@ public class J1939 {
                 logResponse(listener, sent, pp.getPacket());
                 listener.onResult(pp.toString());
 
-                if (lateTime != null && pp.getPacket().getFragments().get(0).getTimestamp().isAfter(lateTime)) {
+                if (pp.getPacket().getFragments().get(0).getTimestampNanos() > lateTime) {
                     logTiming(listener, LATE_RESPONSE + " " + pp.getPacket().getFragments().get(0).toTimeString());
                 }
             },
@@ -720,6 +925,9 @@ public class J1939 {
      */
     public List<AcknowledgmentPacket> requestForAcks(CommunicationsListener listener, String title, int pgn,
             int address) {
+        if (pgn == DM11ClearActiveDTCsPacket.PGN) {
+            responseCache.invalidate();
+        }
         listener.onResult("");
         listener.onResult(getDateTimeModule().getTime() + " " + title);
         Packet requestPacket = createRequestPacket(pgn, address);
@@ -734,10 +942,13 @@ public class J1939 {
      */
     public List<AcknowledgmentPacket> requestForAcks(CommunicationsListener listener, String title, int pgn,
             long timeOut, TimeUnit timeUnit) {
+        if (pgn == DM11ClearActiveDTCsPacket.PGN) {
+            responseCache.invalidate();
+        }
         listener.onResult("");
         listener.onResult(getDateTimeModule().getTime() + " " + title);
         Packet requestPacket = createRequestPacket(pgn, GLOBAL_ADDR);
-        return requestGlobalOnce(pgn, requestPacket, listener, timeOut, timeUnit, true)
+        return requestGlobalOnce(pgn, requestPacket, listener, timeOut, timeUnit, true, Collections.emptySet())
                 .stream()
                 .flatMap(e -> e.right.stream())
                 .collect(Collectors.toList());
@@ -766,13 +977,66 @@ public class J1939 {
             int pgn,
             Packet requestPacket,
             CommunicationsListener listener) {
-        boolean retry = false;
+        return requestGlobal(title, pgn, requestPacket, listener, Collections.emptySet());
+    }
 
+    /**
+     * As {@link #requestGlobal(String, int, Packet, CommunicationsListener)},
+     * but each global request returns as soon as every address in expected
+     * has responded or NACKed, instead of waiting the full
+     * {@link #GLOBAL_TIMEOUT}, and once they are known to respond quickly,
+     * gives up on them as soon as they all should have responded (see
+     * {@link ResponseLatencies}). Other modules that respond before then are
+     * still collected; ones that would have responded later are missed. Only
+     * for polling a known set of modules; a procedure step that must hear
+     * every module on the bus uses the full window (empty expected).
+     */
+    public <T extends GenericPacket> RequestResult<T> requestGlobal(String title,
+            int pgn,
+            Packet requestPacket,
+            CommunicationsListener listener,
+            Collection<Integer> expected) {
         if (title != null) {
             listener.onResult(getDateTimeModule().getTime() + " Global " + title + " Request");
         }
+        if (pgn == DM11ClearActiveDTCsPacket.PGN) {
+            responseCache.invalidate();
+        }
+        Optional<List<Either<? extends GenericPacket, AcknowledgmentPacket>>> cached = responseCache.getGlobal(pgn);
+        if (cached.isPresent()) {
+            logCached(listener, requestPacket, cached.get());
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            List<Either<T, AcknowledgmentPacket>> responses = (List) cached.get();
+            return new RequestResult<>(false, responses);
+        }
+        RequestResult<T> result = coalesce(key(pgn, requestPacket, expected),
+                listener,
+                l -> requestGlobalShared(pgn, requestPacket, l, expected));
+        // a partial answer is not cached as the complete set of responders
+        List<Either<T, AcknowledgmentPacket>> responses = result.getEither();
+        if (expected.isEmpty() && !responses.isEmpty() && responses.stream().noneMatch(J1939::isBusy)) {
+            responseCache.putGlobal(pgn,
+                    responses.stream()
+                             .map(e -> ((ParsedPacket) e.resolve()).getSourceAddress())
+                             .collect(Collectors.toList()),
+                    responses);
+        }
+        return result;
+    }
 
-        Collection<Either<T, AcknowledgmentPacket>> results = requestGlobalOnce(pgn, requestPacket, listener);
+    /**
+     * The global request made for all identical requests in flight.
+     */
+    private <T extends GenericPacket> RequestResult<T> requestGlobalShared(int pgn,
+            Packet requestPacket,
+            CommunicationsListener listener,
+            Collection<Integer> expected) {
+        boolean retry = false;
+
+        Collection<Either<T, AcknowledgmentPacket>> results = requestGlobalOnce(pgn,
+                requestPacket,
+                listener,
+                expected);
 
         if (results.stream().anyMatch(J1939::isBusy)) {
             retry = true;
@@ -784,7 +1048,10 @@ public class J1939 {
                             // just take second if
                             // there are multiple
                             (a, b) -> b));
-            List<Either<T, AcknowledgmentPacket>> retryResults = requestGlobalOnce(pgn, requestPacket, listener);
+            List<Either<T, AcknowledgmentPacket>> retryResults = requestGlobalOnce(pgn,
+                    requestPacket,
+                    listener,
+                    expected);
             map.putAll(retryResults.stream()
                     // don't overwrite with busy responses, but do add them if
                     // not already in map
@@ -800,32 +1067,16 @@ public class J1939 {
         }
 
         // replace any BUSY NACKS with DS results
+        Map<Integer, Either<T, AcknowledgmentPacket>> fallbacks = requestDSFallbacks(pgn,
+                results.stream()
+                        .filter(J1939::isBusy)
+                        .map(e -> ((ParsedPacket) e.resolve()).getSourceAddress())
+                        .collect(Collectors.toCollection(TreeSet::new)),
+                listener);
         results = results.stream()
-                .map(e -> {
-                    if (isBusy(e)) {
-                        Packet dsRequest = createRequestPacket(pgn,
-                                ((ParsedPacket) e.resolve()).getSourceAddress());
-                        Optional<Either<T, AcknowledgmentPacket>> response = requestDSOnce(pgn,
-                                dsRequest,
-                                listener);
-
-                        if (response.map(J1939::isBusy).orElse(true)) {
-                            // still busy, try one last time
-                            logInfo(
-                                    "first DS request after global busy NACK: " + dsRequest + " -> "
-                                            + response);
-                            response = requestDSOnce(pgn, dsRequest, listener);
-                            if (response.map(J1939::isBusy).orElse(true)) {
-                                logInfo(
-                                        "second DS request after global busy NACK: " + dsRequest + " -> "
-                                                + response);
-                            }
-                        }
-                        return response.orElse(e);
-                    } else {
-                        return e;
-                    }
-                })
+                .map(e -> isBusy(e)
+                        ? fallbacks.getOrDefault(((ParsedPacket) e.resolve()).getSourceAddress(), e)
+                        : e)
                 .collect(Collectors.toList());
 
         return new RequestResult<>(retry,
@@ -835,6 +1086,223 @@ public class J1939 {
 
     }
 
+    /**
+     * Requests several PGNs from global in one window. The requests are sent
+     * back-to-back, {@link #REQUEST_SPACING} apart, and the responses to all
+     * of them are read together, so the batch takes about one
+     * {@link #GLOBAL_TIMEOUT} instead of one for each PGN. Each PGN gets its
+     * own responses, and the log reads as if the requests were made one after
+     * the other.
+     *
+     * If expected is not empty, the window ends as soon as every expected
+     * address has responded or NACKed every PGN, or should have by their
+     * past response times. Modules that answer a
+     * request BUSY are asked DS, as {@link #requestGlobal} does, but the
+     * global request is not repeated.
+     *
+     * @return the results of each PGN, in the order requested
+     */
+    public Map<Integer, RequestResult<GenericPacket>> requestGlobals(CommunicationsListener listener,
+            Collection<Integer> expected,
+            int... pgns) {
+        Map<Integer, RequestResult<GenericPacket>> results = new LinkedHashMap<>();
+        if (pgns.length == 0) {
+            return results;
+        }
+        Packet[] requests = new Packet[pgns.length];
+        PacketFilter[] filters = new PacketFilter[pgns.length];
+        int[] keys = new int[pgns.length + 1];
+        for (int i = 0; i < pgns.length; i++) {
+            requests[i] = createRequestPacket(pgns[i], GLOBAL_ADDR);
+            filters[i] = globalFilter(pgns[i]);
+            keys[i] = pgns[i];
+        }
+        keys[pgns.length] = AcknowledgmentPacket.PGN;
+        PacketFilter filter = PacketFilter.pgn(keys).and(p -> route(filters, p) >= 0);
+
+        List<List<Packet>> responses = new ArrayList<>();
+        Packet[] sent = new Packet[pgns.length];
+        long deadline = 0;
+        for (int pgn : pgns) {
+            deadline = Math.max(deadline, latencies.getDeadline(pgn, expected, GLOBAL_TIMEOUT));
+        }
+        long timeout = deadline + REQUEST_SPACING * (pgns.length - 1);
+        try (RequestScheduler.Permit permit = scheduler.acquire(GLOBAL_ADDR, pgns.length);
+                Stream<Packet> stream = bus.read(withRequest(filter, requests[0]), timeout, MILLISECONDS)) {
+            for (int i = 0; i < pgns.length; i++) {
+                if (i > 0) {
+                    getDateTimeModule().pauseFor(REQUEST_SPACING);
+                }
+                sent[i] = bus.send(requests[i]);
+                responses.add(new ArrayList<>());
+            }
+
+            List<Predicate<Packet>> afters = Arrays.stream(sent).map(J1939::after).collect(Collectors.toList());
+            Set<Integer> waiting = new HashSet<>();
+            for (int i = 0; i < pgns.length; i++) {
+                for (int address : expected) {
+                    waiting.add(i << 8 | address);
+                }
+            }
+            Iterator<Packet> it = stream.iterator();
+            while ((expected.isEmpty() || !waiting.isEmpty()) && it.hasNext()) {
+                Packet p = it.next();
+                // every request must see p, to know whether its echo has passed
+                boolean[] isAfter = new boolean[pgns.length];
+                for (int i = 0; i < pgns.length; i++) {
+                    isAfter[i] = afters.get(i).test(p);
+                }
+                int i = route(filters, p);
+                if (i >= 0 && isAfter[i]) {
+                    responses.get(i).add(p);
+                    waiting.remove(i << 8 | p.getSource());
+                }
+            }
+        } catch (BusException e) {
+            severe("Error requesting packet", e);
+        }
+
+        for (int i = 0; i < pgns.length; i++) {
+            int pgn = pgns[i];
+            List<Either<GenericPacket, AcknowledgmentPacket>> result;
+            if (i < responses.size() && deadline < GLOBAL_TIMEOUT) {
+                forgetMissing(pgn, expected, responses.get(i));
+            }
+            if (i < responses.size()) {
+                if (sent[i] != null) {
+                    listener.onResult(sent[i].toTimeString());
+                } else {
+                    logWarning(listener, FAILED_TO_SEND + requests[i]);
+                }
+                result = toResults(responses.get(i), sent[i], listener, true);
+            } else {
+                result = Collections.emptyList();
+            }
+            boolean busy = result.stream().anyMatch(J1939::isBusy);
+            if (busy) {
+                Map<Integer, Either<GenericPacket, AcknowledgmentPacket>> fallbacks = requestDSFallbacks(pgn,
+                        result.stream()
+                                .filter(J1939::isBusy)
+                                .map(e -> ((ParsedPacket) e.resolve()).getSourceAddress())
+                                .collect(Collectors.toCollection(TreeSet::new)),
+                        listener);
+                result = result.stream()
+                        .map(e -> isBusy(e)
+                                ? fallbacks.getOrDefault(((ParsedPacket) e.resolve()).getSourceAddress(), e)
+                                : e)
+                        .collect(Collectors.toList());
+            }
+            results.put(pgn,
+                    new RequestResult<>(busy,
+                            result.stream()
+                                    .sorted(Comparator.comparingInt(o -> ((ParsedPacket) o.resolve())
+                                            .getSourceAddress()))
+                                    .collect(Collectors.toList())));
+        }
+        return results;
+    }
+
+    /**
+     * {@link #requestGlobals(CommunicationsListener, Collection, int...)}
+     * logging to the default listener
+     */
+    public Map<Integer, RequestResult<GenericPacket>> requestGlobals(Collection<Integer> expected, int... pgns) {
+        return requestGlobals(getDefaultListener(), expected, pgns);
+    }
+
+    /**
+     * Drops the latencies of the expected modules that did not respond by
+     * the deadline, so the next request waits for them.
+     */
+    private void forgetMissing(int pgn, Collection<Integer> expected, List<Packet> packets) {
+        Set<Integer> missing = new HashSet<>(expected);
+        packets.forEach(p -> missing.remove(p.getSource()));
+        missing.forEach(source -> latencies.forget(source, pgn));
+    }
+
+    /**
+     * @return the index of the first filter that accepts p, or -1
+     */
+    static private int route(PacketFilter[] filters, Packet p) {
+        for (int i = 0; i < filters.length; i++) {
+            if (filters[i].test(p)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Makes up to two DS requests to each address that answered a global
+     * request with BUSY. Requests to different addresses don't conflict on the
+     * wire, so they are made at the same time, and take as long as the slowest
+     * module rather than the sum of them. Each logs to its own buffer, which
+     * is copied to listener in address order, so the log is the same as if
+     * they were made one after the other.
+     *
+     * @return the responses by address, for the addresses that responded
+     */
+    private <T extends GenericPacket> Map<Integer, Either<T, AcknowledgmentPacket>> requestDSFallbacks(int pgn,
+            SortedSet<Integer> addresses,
+            CommunicationsListener listener) {
+        Map<Integer, List<String>> logs = new LinkedHashMap<>();
+        Map<Integer, CompletableFuture<Optional<Either<T, AcknowledgmentPacket>>>> futures = new LinkedHashMap<>();
+        // the fallbacks have the priority of the request they complete
+        RequestScheduler.Priority priority = RequestScheduler.getPriority();
+        for (int address : addresses) {
+            List<String> log = new ArrayList<>();
+            logs.put(address, log);
+            Supplier<Optional<Either<T, AcknowledgmentPacket>>> fallback = () -> {
+                RequestScheduler.Priority previous = RequestScheduler.setPriority(priority);
+                try {
+                    return requestDSFallback(pgn, address, log::add);
+                } finally {
+                    RequestScheduler.setPriority(previous);
+                }
+            };
+            futures.put(address,
+                    addresses.size() == 1 ? CompletableFuture.completedFuture(fallback.get())
+                            : CompletableFuture.supplyAsync(fallback, DS_EXECUTOR));
+        }
+
+        Map<Integer, Either<T, AcknowledgmentPacket>> responses = new TreeMap<>();
+        RuntimeException failure = null;
+        for (int address : addresses) {
+            try {
+                futures.get(address).join().ifPresent(r -> responses.put(address, r));
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                }
+            }
+            logs.get(address).forEach(listener::onResult);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return responses;
+    }
+
+    /**
+     * A DS request, and one more if the module is still busy.
+     */
+    private <T extends GenericPacket> Optional<Either<T, AcknowledgmentPacket>> requestDSFallback(int pgn,
+            int address,
+            CommunicationsListener listener) {
+        Packet dsRequest = createRequestPacket(pgn, address);
+        Optional<Either<T, AcknowledgmentPacket>> response = requestDSOnce(pgn, dsRequest, listener);
+
+        if (response.map(J1939::isBusy).orElse(true)) {
+            // still busy, try one last time
+            logInfo("first DS request after global busy NACK: " + dsRequest + " -> " + response);
+            response = requestDSOnce(pgn, dsRequest, listener);
+            if (response.map(J1939::isBusy).orElse(true)) {
+                logInfo("second DS request after global busy NACK: " + dsRequest + " -> " + response);
+            }
+        }
+        return response;
+    }
+
     public List<Either<GenericPacket, AcknowledgmentPacket>> requestGlobalNoDecode(String title,
             Class<DM5DiagnosticReadinessPacket> clas, ResultsListener listener) {
         listener.onResult("");
@@ -846,7 +1314,8 @@ public class J1939 {
                 listener,
                 GLOBAL_TIMEOUT,
                 MILLISECONDS,
-                false);
+                false,
+                Collections.emptySet());
     }
 
     /**
@@ -854,78 +1323,48 @@ public class J1939 {
      */
     private <T extends GenericPacket> List<Either<T, AcknowledgmentPacket>> requestGlobalOnce(int pgn,
             Packet request,
-            CommunicationsListener listener) {
-        return requestGlobalOnce(pgn, request, listener, GLOBAL_TIMEOUT, MILLISECONDS, true);
+            CommunicationsListener listener,
+            Collection<Integer> expected) {
+        return requestGlobalOnce(pgn, request, listener, GLOBAL_TIMEOUT, MILLISECONDS, true, expected);
     }
 
     /**
-     * Request from global only once.
+     * Request from global only once. If expected is not empty, stop reading
+     * once every address in it has responded, or once they all should have
+     * (see {@link ResponseLatencies}), if that is sooner than timeOut.
      */
     private <T extends GenericPacket> List<Either<T, AcknowledgmentPacket>> requestGlobalOnce(int pgn,
             Packet request,
             CommunicationsListener listener,
             long timeOut,
             TimeUnit timeUnit,
-            boolean decode) {
+            boolean decode,
+            Collection<Integer> expected) {
         if (request.getDestination() != GLOBAL_ADDR) {
             throw new IllegalArgumentException("Request not to global.");
         }
 
         List<Either<T, AcknowledgmentPacket>> result;
-        try (Stream<Packet> stream = read(timeOut, timeUnit)) {
+        PacketFilter filter = globalFilter(pgn);
+        long max = timeUnit.toMillis(timeOut);
+        long deadline = latencies.getDeadline(pgn, expected, max);
+        // read in announce order, responses announced in time count even if
+        // they complete later
+        try (RequestScheduler.Permit permit = scheduler.acquire(GLOBAL_ADDR, 1);
+                Stream<Packet> stream = bus.read(withRequest(filter, request), deadline, MILLISECONDS)) {
             Packet sent = bus.send(request);
-            LocalDateTime lateTime;
             if (sent != null) {
                 listener.onResult(sent.toTimeString());
-                lateTime = sent.getTimestamp().plus(GLOBAL_WARN_TIMEOUT, ChronoUnit.MILLIS);
             } else {
                 logWarning(listener, FAILED_TO_SEND + request);
-                lateTime = null;
             }
-            List<Packet> lateBam = new ArrayList<>();
-            result = stream.filter(after(sent))
-                    .filter(globalFilter(pgn))
-                    .peek(p -> {
-                        /*
-                         * If the first fragment arrived after lateBam, then it
-                         * is late.
-                         */
-                        if (lateTime != null && p.getFragments().size() > 0
-                                && p.getFragments().get(0).getTimestamp().isAfter(lateTime)
-                        // only record first one
-                                && !lateBam.contains(p)) {
-                            lateBam.add(p);
-                        }
-                    })
-                    // Collect all of the packets, even though they are not
-                    // complete. They were all announced in time.
-                    .collect(Collectors.toList())
-                    .stream()
-                    .map(rawPacket -> {
-                        try {
-                            logResponse(listener, sent, rawPacket);
-                            Either<T, AcknowledgmentPacket> pp = process(rawPacket);
-                            if (decode) {
-                                listener.onResult(pp.resolve().toString());
-                            }
-                            listener.onResult("");
-                            return pp;
-                        } catch (PacketException e) {
-                            // This is not a complete packet. Should be logged
-                            // as a failure elsewhere.
-                            return null;
-                        }
-                    })
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toList());
-            /* Log late fragments as raw packets. */
-            lateBam.forEach(p -> {
-                logTiming(listener, LATE_RESPONSE + " " + p.getFragments().get(0).toTimeString());
-            });
-
-            if (result.isEmpty()) {
-                listener.onResult(getDateTimeModule().getTime() + " " + TIMEOUT_MESSAGE);
+            // Collect all of the packets, even though they are not complete.
+            // They were all announced in time.
+            List<Packet> packets = collectResponses(stream.filter(after(sent)).filter(filter), expected);
+            if (deadline < max) {
+                forgetMissing(pgn, expected, packets);
             }
+            result = toResults(packets, sent, listener, decode);
         } catch (BusException e) {
             severe("Error requesting packet", e);
             result = Collections.emptyList();
@@ -933,6 +1372,61 @@ public class J1939 {
         return result;
     }
 
+    /**
+     * Decodes and logs the responses to a global request, and logs those
+     * that were late.
+     */
+    private <T extends GenericPacket> List<Either<T, AcknowledgmentPacket>> toResults(List<Packet> packets,
+            Packet sent,
+            CommunicationsListener listener,
+            boolean decode) {
+        long lateTime = sent == null ? Long.MAX_VALUE
+                : sent.getTimestampNanos() + MILLISECONDS.toNanos(GLOBAL_WARN_TIMEOUT);
+        List<Packet> lateBam = new ArrayList<>();
+        List<Either<T, AcknowledgmentPacket>> result = packets.stream()
+                // only keep complete and valid packets (not broken TP
+                // packets).
+                .filter(Packet::isValid)
+                .peek(p -> {
+                    /*
+                     * If the first fragment arrived after lateBam, then it
+                     * is late.
+                     */
+                    if (p.getFragments().size() > 0
+                            && p.getFragments().get(0).getTimestampNanos() > lateTime
+                    // only record first one
+                            && !lateBam.contains(p)) {
+                        lateBam.add(p);
+                    }
+                })
+                .map(rawPacket -> {
+                    try {
+                        logResponse(listener, sent, rawPacket);
+                        Either<T, AcknowledgmentPacket> pp = process(rawPacket);
+                        if (decode) {
+                            listener.onResult(pp.resolve().toString());
+                        }
+                        listener.onResult("");
+                        return pp;
+                    } catch (PacketException e) {
+                        // This is not a complete packet. Should be logged
+                        // as a failure elsewhere.
+                        return null;
+                    }
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        /* Log late fragments as raw packets. */
+        lateBam.forEach(p -> {
+            logTiming(listener, LATE_RESPONSE + " " + p.getFragments().get(0).toTimeString());
+        });
+
+        if (result.isEmpty()) {
+            listener.onResult(getDateTimeModule().getTime() + " " + TIMEOUT_MESSAGE);
+        }
+        return result;
+    }
+
     // JUNK
     public <T extends GenericPacket> Stream<T> requestMultiple(Class<T> class1) {
         return requestGlobal(null, class1, getDefaultListener()).getPackets().stream();
@@ -944,6 +1438,22 @@ public class J1939 {
         return requestGlobal.getPackets().stream();
     }
 
+    /**
+     * Global request that returns once every address in expected has
+     * responded. See
+     * {@link #requestGlobal(String, int, Packet, CommunicationsListener, Collection)}
+     */
+    public <T extends GenericPacket> Stream<T> requestMultiple(Class<T> class1,
+            Packet requestPacket,
+            Collection<Integer> expected) {
+        RequestResult<T> requestGlobal = requestGlobal(null,
+                J1939.getPgn(class1),
+                requestPacket,
+                getDefaultListener(),
+                expected);
+        return requestGlobal.getPackets().stream();
+    }
+
     // JUNK -
     public <T extends GenericPacket> Optional<T> requestPacket(Packet packet, Class<T> class1, int addr,
             int times) {
@@ -980,10 +1490,15 @@ public class J1939 {
         String title = "Sending DM7 for DM58 to " + Lookup.getAddressName(address) + " for SPN " + spn;
         listener.onResult(getDateTimeModule().getTime() + " " + title);
 
-        try {
+        // up to three tries, one after the other
+        try (RequestScheduler.Permit permit = scheduler.acquire(address, 3)) {
             BusResult<DM58RationalityFaultSpData> result;
             for (int i = 0; true; i++) {
-                Stream<Packet> packetStream = read(DS_TIMEOUT, MILLISECONDS);
+                PacketFilter filter = dsCommandFilter(DM7CommandTestsPacket.PGN,
+                        DM58RationalityFaultSpData.PGN,
+                        request.getDestination(),
+                        getBusAddress());
+                Stream<Packet> packetStream = read(withRequest(filter, request), DS_TIMEOUT, MILLISECONDS);
                 Packet sent = bus.send(request);
                 if (sent != null) {
                     listener.onResult(sent.toTimeString());
@@ -992,10 +1507,7 @@ public class J1939 {
                 }
 
                 Stream<Either<DM58RationalityFaultSpData, AcknowledgmentPacket>> stream = packetStream
-                        .filter(after(sent).and(dsCommandFilter(DM7CommandTestsPacket.PGN,
-                                DM58RationalityFaultSpData.PGN,
-                                request.getDestination(),
-                                getBusAddress())))
+                        .filter(after(sent).and(filter))
                         .map(this::process);
                 Optional<Either<DM58RationalityFaultSpData, AcknowledgmentPacket>> first = stream.findFirst();
                 result = new BusResult<>(i > 0, first);
@@ -1038,10 +1550,15 @@ public class J1939 {
         String title = "Sending DM7 for DM30 to " + Lookup.getAddressName(address) + " for SPN " + spn;
         listener.onResult(getDateTimeModule().getTime() + " " + title);
 
-        try {
+        // up to three tries, one after the other
+        try (RequestScheduler.Permit permit = scheduler.acquire(address, 3)) {
             BusResult<DM30ScaledTestResultsPacket> result;
             for (int i = 0; true; i++) {
-                Stream<Packet> packetStream = read(DS_TIMEOUT, MILLISECONDS);
+                PacketFilter filter = dsCommandFilter(DM7CommandTestsPacket.PGN,
+                        DM30ScaledTestResultsPacket.PGN,
+                        request.getDestination(),
+                        getBusAddress());
+                Stream<Packet> packetStream = read(withRequest(filter, request), DS_TIMEOUT, MILLISECONDS);
                 Packet sent = bus.send(request);
                 if (sent != null) {
                     listener.onResult(sent.toTimeString());
@@ -1049,10 +1566,7 @@ public class J1939 {
                     logWarning(listener, FAILED_TO_SEND + request);
                 }
                 Stream<Either<DM30ScaledTestResultsPacket, AcknowledgmentPacket>> stream = packetStream
-                        .filter(after(sent).and(dsCommandFilter(DM7CommandTestsPacket.PGN,
-                                DM30ScaledTestResultsPacket.PGN,
-                                request.getDestination(),
-                                getBusAddress())))
+                        .filter(after(sent).and(filter))
                         .map(this::process);
                 Optional<Either<DM30ScaledTestResultsPacket, AcknowledgmentPacket>> first = stream.findFirst();
                 result = new BusResult<>(i > 0, first);
@@ -1084,35 +1598,53 @@ public class J1939 {
         this.logDeltaTime = logDeltaTime;
     }
 
+    /**
+     * Captures every frame on the bus to binary segments in the temp
+     * directory, keeping the last 10 captures. Use
+     * {@link org.etools.j1939tools.bus.CaptureReader#toAsc} to convert a
+     * capture to text, or {@link org.etools.j1939tools.bus.ReplayBus} to play
+     * it back.
+     *
+     * @param  prefix
+     *                    the start of the capture file names
+     * @return        the stream being captured, close it to stop
+     */
     public Stream<Packet> startLogger(String prefix) throws BusException {
-        Instant start = Instant.now();
         // do not crash tests that do not include a raw bus.
         loggerStream = (bus.getRawBus() == null ? bus : bus.getRawBus()).read(Integer.MAX_VALUE, TimeUnit.DAYS);
         new Thread(() -> {
             try {
-                final String SUFFIX = ".asc";
-                File file = File.createTempFile(prefix, SUFFIX);
-                // delete all but last 10 logs
-                Stream.of(file.getParentFile()
-                        .listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(SUFFIX)))
-                        .sorted(Comparator.comparing(f -> -f.lastModified()))
-                        .skip(10)
-                        .forEach(f -> f.delete());
-                try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
-                    out.println("base hex timestamps absolute");
-                    loggerStream.forEach(p -> {
+                File directory = new File(System.getProperty("java.io.tmpdir"));
+                // delete all but last 10 captures
+                CaptureWriter.deleteOldCaptures(directory, prefix, 9);
+                String stem = prefix + System.currentTimeMillis();
+                // written on its own thread, so a slow disk never holds up the
+                // bus
+                try (CaptureLogger out = new CaptureLogger(new CaptureWriter(directory.toPath(),
+                                                                             stem,
+                                                                             CaptureWriter.DEFAULT_SEGMENT_BYTES))) {
+                    Iterator<Packet> it = loggerStream.iterator();
+                    while (true) {
                         try {
-                            out.println(p.toVectorString(start));
-                        } catch (Throwable t) {
-                            out.println(t.getMessage());
-                            J1939_84.getLogger().log(Level.WARNING, "Packet Failure", t);
+                            while (it.hasNext()) {
+                                out.offer(it.next());
+                            }
+                            break;
+                        } catch (OverflowException e) {
+                            // record the gap in the capture and keep going
+                            out.recordDropped(e.getDropped());
+                            J1939_84.getLogger().log(Level.WARNING, "Bus logger fell behind", e);
                         }
-                    });
+                    }
+                    if (out.getDropped() > 0) {
+                        J1939_84.getLogger()
+                                .log(Level.WARNING, "Bus logger dropped " + out.getDropped() + " packets.");
+                    }
                 }
             } catch (Throwable e) {
                 J1939_84.getLogger().log(Level.SEVERE, "Unable to log packets.", e);
             }
-        }).start();
+        }, "Bus logger").start();
         return loggerStream;
     }
 }
@@ -45,16 +45,12 @@ public class J1939DaRepository {
 
     private static final J1939DaRepository instance = new J1939DaRepository();
 
-    private Map<Integer, Slot> slots;
+    private volatile Map<Integer, Slot> slots;
 
     private Map<Integer, PgnDefinition> pgnLut;
 
     public Slot findSLOT(int id, int spn) {
-        if (slots == null) {
-            slots = new HashMap<>();
-            slots.putAll(loadSlots());
-            slots.putAll(loadBitSlots());
-        }
+        Map<Integer, Slot> slots = getSlots();
 
         // first check for overriding custom slot
         Slot slot = slots.get(-spn);
@@ -71,6 +67,17 @@ public class J1939DaRepository {
         return slot;
     }
 
+    /** Loaded once, as packets may be decoded on several threads. */
+    private synchronized Map<Integer, Slot> getSlots() {
+        if (slots == null) {
+            Map<Integer, Slot> map = new HashMap<>();
+            map.putAll(loadSlots());
+            map.putAll(loadBitSlots());
+            slots = map;
+        }
+        return slots;
+    }
+
     private Map<Integer, SpnDefinition> spnLut;
 
     private Map<Integer, Set<Integer>> spnToPgnMap = null;
@@ -6,22 +6,26 @@ import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.etools.j1939tools.bus.Bus;
 import org.etools.j1939tools.bus.BusException;
 import org.etools.j1939tools.bus.EchoBus;
+import org.etools.j1939tools.bus.MultiQueue.OverflowException;
 import org.etools.j1939tools.bus.Packet;
 import org.etools.j1939tools.bus.Packet.PacketException;
+import org.etools.j1939tools.bus.PacketFilter;
+import org.etools.j1939tools.bus.StreamStatistics;
 
 public class J1939TP implements Bus {
 
@@ -62,25 +66,36 @@ public class J1939TP implements Bus {
     /** bus representing CAN bus */
     private final Bus bus;
     /**
-     * Support up to 255 concurrent TP sessions plus main kickoff thread, but we
-     * only expect there to normally be 5, so shut down idle threads after 1 s.
+     * Single dispatcher thread. Every receive session is a state machine
+     * driven by this thread and by the timer wheel, so the number of threads
+     * does not grow with the number of concurrent sessions.
      */
-    private final ExecutorService exec = new ThreadPoolExecutor(5 + 1,
-                                                                255 + 1,
-                                                                1L,
-                                                                TimeUnit.SECONDS,
-                                                                new LinkedBlockingQueue<>(),
-                                                                r -> new Thread(r, "J1939TP"));
+    private final ExecutorService exec = Executors.newSingleThreadExecutor(r -> new Thread(r, "J1939TP"));
     /** Application side bus. */
     private final EchoBus inbound;
 
     private final boolean passAll;
 
+    /**
+     * Sends the CTS and EOM frames of the receive sessions, so neither the
+     * dispatcher nor the timer wheel blocks on the bus holding sessions.
+     */
+    private final ExecutorService sender = Executors.newSingleThreadExecutor(r -> new Thread(r, "J1939TP sender"));
+
+    /**
+     * Receive sessions by source and destination address. Also the lock held
+     * while a session changes state.
+     */
+    private final Map<Integer, Session> sessions = new HashMap<>();
+
     /**
      * The inbound stream that RTS and BAM announcements will be detected on.
      */
     private final Stream<Packet> stream;
 
+    /** T1, T2 timeouts of the receive sessions. */
+    private final TimerWheel timers = new TimerWheel("J1939TP timers", 10, sessions);
+
     public J1939TP(Bus bus) throws BusException {
         this(bus, bus.getAddress());
     }
@@ -95,7 +110,7 @@ public class J1939TP implements Bus {
         stream = bus.read(9999, TimeUnit.DAYS);
         inbound = new EchoBus(address);
         // start processing
-        exec.execute(() -> stream.forEach(p -> receive(p)));
+        exec.execute(this::dispatch);
     }
 
     static private String getAbortError(int code) {
@@ -110,9 +125,19 @@ public class J1939TP implements Bus {
         }
     }
 
+    static private int sessionKey(int source, int destination) {
+        return source << 8 | destination;
+    }
+
     @Override
     public void close() {
         exec.shutdownNow();
+        sender.shutdownNow();
+        timers.close();
+        synchronized (sessions) {
+            // do not leave readers waiting on packets that will never complete
+            new ArrayList<>(sessions.values()).forEach(session -> session.fail());
+        }
         stream.close();
         bus.close();
     }
@@ -126,6 +151,11 @@ public class J1939TP implements Bus {
         return inbound.duplicate(stream, time, unit);
     }
 
+    @Override
+    public Stream<Packet> duplicate(Stream<Packet> stream, PacketFilter filter, int time, TimeUnit unit) {
+        return inbound.duplicate(stream, filter, time, unit);
+    }
+
     @Override
     public int getAddress() {
         return inbound.getAddress();
@@ -136,11 +166,27 @@ public class J1939TP implements Bus {
         return bus.getConnectionSpeed();
     }
 
+    @Override
+    public List<StreamStatistics> getStatistics() {
+        return Stream.concat(inbound.getStatistics().stream(), bus.getStatistics().stream())
+                     .collect(Collectors.toList());
+    }
+
+    @Override
+    public Optional<StreamStatistics> getStatistics(Stream<Packet> stream) {
+        return inbound.getStatistics(stream).or(() -> bus.getStatistics(stream));
+    }
+
     @Override
     public Stream<Packet> read(long timeout, TimeUnit unit) throws BusException {
         return inbound.read(timeout, unit);
     }
 
+    @Override
+    public Stream<Packet> read(PacketFilter filter, long timeout, TimeUnit unit) throws BusException {
+        return inbound.read(filter, timeout, unit);
+    }
+
     @Override
     public void resetTimeout(Stream<Packet> stream, int time, TimeUnit unit) {
         bus.resetTimeout(stream, time, unit);
@@ -161,6 +207,24 @@ public class J1939TP implements Bus {
         return sent;
     }
 
+    /**
+     * Process every packet on the bus. If this falls behind the bus queue
+     * capacity, report the gap and continue with the oldest retained packet.
+     */
+    private void dispatch() {
+        Iterator<Packet> it = stream.iterator();
+        while (true) {
+            try {
+                while (it.hasNext()) {
+                    receive(it.next());
+                }
+                return;
+            } catch (OverflowException e) {
+                error("TP dispatch fell behind the bus.", e);
+            }
+        }
+    }
+
     /** Record an error, which is more than just a warning. */
     private void error(String msg, Throwable e) {
         logger.log(Level.SEVERE, msg, e);
@@ -183,45 +247,19 @@ public class J1939TP implements Bus {
             if (packet.getSource() != getAddress()) {
                 switch (packet.getPgn()) {
                     case CM: // TP connection management
-                        switch (packet.get(0)) {
-                            case CM_RTS: { // Request to send
-                                if (packet.getDestination() == getAddress()) {
-                                    exec.execute(() -> {
-                                        try {
-                                            receiveDestinationSpecific(packet);
-                                        } catch (BusException e) {
-                                            error("Failed to receive destination specific TP:" + packet, e);
-                                        }
-                                    });
-                                }
-                                return;
-                            }
-                            case CM_BAM: {
-                                /*
-                                 * Duplicate the current stream. Opening a new stream starts
-                                 * from "now" and may miss packets already queued up in
-                                 * stream. This is not needed for DA, because DA has a CTS.
-                                 * Timeout is reset inside receiveBam to account for time
-                                 * spent starting this thread.
-                                 */
-                                Stream<Packet> bamStream = bus.duplicate(stream, T2, TimeUnit.MILLISECONDS);
-                                exec.execute(() -> {
-                                    try {
-                                        receiveBam(packet, bamStream);
-                                    } catch (Throwable t) {
-                                        error("Failed to process packet:" + packet, t);
-                                    } finally {
-                                        bamStream.close();
-                                    }
-                                });
+                        synchronized (sessions) {
+                            if (receiveControl(packet)) {
                                 return;
                             }
-                            case CM_ConnAbort:
-                                // handled in receive calls
-                                return;
                         }
                         break;
                     case DT: // data
+                        synchronized (sessions) {
+                            Session session = sessions.get(sessionKey(packet.getSource(), packet.getDestination()));
+                            if (session != null) {
+                                session.receiveData(packet);
+                            }
+                        }
                         return;
                 }
                 // everything else, pass through
@@ -233,166 +271,306 @@ public class J1939TP implements Bus {
         }
     }
 
-    private void receiveBam(Packet bam, Stream<Packet> stream) {
-        fine("rx BAM", bam);
+    /**
+     * Start, or abort, receive sessions. Any TP.CM from the peer of a session
+     * ends that session. Called holding sessions.
+     *
+     * @return true if the packet was consumed by TP
+     */
+    private boolean receiveControl(Packet packet) throws BusException {
+        Session session = sessions.get(sessionKey(packet.getSource(), packet.getDestination()));
+        switch (packet.get(0)) {
+            case CM_RTS: // Request to send
+                if (packet.getDestination() == getAddress()) {
+                    if (session != null) {
+                        session.receiveControl(packet);
+                    }
+                    new RtsSession(packet).start();
+                }
+                return true;
+            case CM_BAM:
+                if (session != null) {
+                    session.receiveControl(packet);
+                }
+                new BamSession(packet).start();
+                return true;
+            case CM_ConnAbort:
+                if (session != null) {
+                    session.receiveControl(packet);
+                }
+                return true;
+            default:
+                if (session != null) {
+                    session.receiveControl(packet);
+                }
+                return false;
+        }
+    }
+
+    /**
+     * State of one TP packet being received. All methods are called holding
+     * sessions, by the dispatcher, the timer wheel or the sender. Frames are
+     * built holding sessions, but only transmitted by the sender after it is
+     * released, so nothing blocks on the bus holding sessions.
+     */
+    private abstract class Session {
+        private final Packet announce;
+        protected final byte[] data;
+        private final int key;
+        protected final int numberOfPackets;
+        protected final Packet packet;
+        protected final BitSet received;
+        private TimerWheel.Timeout timeout;
+
+        Session(Packet announce, int destination) {
+            this.announce = announce;
+            key = sessionKey(announce.getSource(), destination);
+            numberOfPackets = announce.get(3);
+            data = new byte[announce.get16(1)];
+            received = new BitSet(numberOfPackets + 1);
+
+            int pgn = announce.get24(5);
+            int id = pgn < 0xF000 ? pgn | announce.getDestination() : pgn;
+            packet = createEmptyPacket(id, announce.getSource());
+            packet.setFragments(new ArrayList<>());
+            packet.getFragments().add(announce);
+        }
+
+        /** Add a fragment, keeping the fragments in time order. */
+        protected void addFragment(Packet fragment) {
+            List<Packet> fragments = packet.getFragments();
+            int i = fragments.size();
+            while (i > 0 && fragments.get(i - 1).getTimestampNanos() > fragment.getTimestampNanos()) {
+                i--;
+            }
+            fragments.add(i, fragment);
+        }
+
+        /** Restart the session timer. */
+        protected void arm(int duration) {
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            timeout = timers.schedule(duration, this::expire);
+        }
+
+        /** Copy the data of a DT into the packet. */
+        protected void copy(Packet dt) {
+            int sequence = dt.get(0);
+            int offset = (sequence - 1) * 7;
+            if (sequence < 1 || offset > data.length) {
+                warn("Unexpected DT sequence %d: %s", sequence, dt);
+                return;
+            }
+            packet.getFragments().add(dt);
+            received.set(sequence);
+            packet.setTimestamp(dt);
+            dt.copyBytes(1, data, offset, Math.min(offset + 7, data.length) - offset);
+        }
+
+        /** The timer expired. */
+        protected abstract void expire();
+
+        protected void fail() {
+            packet.fail();
+            finish();
+        }
+
+        /** Remove this session. */
+        protected void finish() {
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            sessions.remove(key, this);
+        }
 
-        int numberOfPackets = bam.get(3);
+        /** A TP.CM from the peer ended this session. */
+        protected abstract void receiveControl(Packet cm);
 
-        byte[] data = new byte[bam.get16(1)];
-        BitSet received = new BitSet(numberOfPackets + 1);
-        int dataId = DT | bam.getDestination();
-        int controlId = CM | bam.getId(0xFF);
+        protected abstract void receiveData(Packet dt);
 
-        int pgn = bam.get24(5);
-        int source = bam.getSource();
-        int packetId = pgn < 0xF000 ? pgn | bam.getDestination() : pgn;
-        Packet packet = createEmptyPacket(packetId, source);
-        packet.setFragments(new ArrayList<>());
-        packet.getFragments().add(bam);
-        packet.setTimestamp(bam.getTimestamp());
-        synchronized (packet) {
+        /** Announce the packet and replace any session with the same peer. */
+        void start() throws BusException {
+            sessions.put(key, this);
             inbound.send(packet);
+        }
+
+        @Override
+        public String toString() {
+            return announce.toString();
+        }
+    }
+
+    /** Receive a broadcast. */
+    private class BamSession extends Session {
+        BamSession(Packet bam) {
+            super(bam, bam.getDestination());
+            packet.setTimestamp(bam);
+        }
 
-            bus.resetTimeout(stream, T2, TimeUnit.MILLISECONDS);
-            if (stream
-                      .filter(p -> {
-                          int id = p.getId(0xFFFF);
-                          return p.getSource() == source && (id == dataId || id == controlId);
-                      })
-                      .peek(p -> bus.resetTimeout(stream, T1, TimeUnit.MILLISECONDS))
-                      .map(p -> {
-                          if (p.getId(0xFFFF) == controlId) {
-                              packet.fail();
-                              warn("BAM canceled or aborted: " + bam + " -> " + p);
-                              return true;
-                          }
-                          fine("rx DT", p);
-                          packet.getFragments().add(p);
-                          received.set(p.get(0));
-                          int offset = (p.get(0) - 1) * 7;
-                          System.arraycopy(p.getBytes(), 1, data, offset, Math.min(offset + 7, data.length) - offset);
-                          packet.setTimestamp(p.getTimestamp());
-                          return received.cardinality() == numberOfPackets;
-                      })
-                      .filter(b -> b)
-                      .findFirst()
-                      .orElse(false)
-                    && received.cardinality() == numberOfPackets) {
+        @Override
+        protected void expire() {
+            warn("BAM missing DT %d != %d %s",
+                 received.cardinality(),
+                 numberOfPackets,
+                 packet.getFragments());
+            fail();
+        }
+
+        @Override
+        protected void receiveControl(Packet cm) {
+            warn("BAM canceled or aborted: " + this + " -> " + cm);
+            fail();
+        }
+
+        @Override
+        protected void receiveData(Packet dt) {
+            fine("rx DT", dt);
+            arm(T1);
+            copy(dt);
+            if (received.cardinality() == numberOfPackets) {
                 packet.setData(data);
-            } else {
-                warn("BAM missing DT %d != %d %s",
-                     received.cardinality(),
-                     numberOfPackets,
-                     packet.getFragments());
-                packet.fail();
+                finish();
             }
         }
-    }
 
-    private Packet createEmptyPacket(int id, int source) {
-        return new Packet(LocalDateTime.now(), 7, id, source, false, (int[]) null);
+        @Override
+        void start() throws BusException {
+            fine("rx BAM", packet.getFragments().get(0));
+            super.start();
+            arm(T2);
+        }
     }
 
-    public void receiveDestinationSpecific(Packet rts) throws BusException {
-        fine("rx RTS", rts);
-        int numberOfPackets = rts.get(3);
-        int maxResponsePackets = rts.get(4);
-
-        byte[] data = new byte[rts.get16(1)];
-        BitSet received = new BitSet(numberOfPackets + 1);
-        int receivedNone = 0;
-        int lastCardinality = -1;
-        int cardinality;
-
-        int pgn = rts.get24(5);
-        int source = rts.getSource();
-        int id = pgn < 0xF000 ? pgn | rts.getDestination() : pgn;
-        Packet packet = createEmptyPacket(id, source);
-        packet.setFragments(new ArrayList<>());
-        packet.getFragments().add(rts);
-        synchronized (packet) {
-            inbound.send(packet);
-            while ((cardinality = received.cardinality()) < numberOfPackets) {
-                if (cardinality == lastCardinality) {
-                    if (receivedNone++ > 3) {
-                        packet.fail();
-                        throw new BusException("Failed to receive DT");
-                    }
-                } else {
-                    lastCardinality = cardinality;
-                    receivedNone = 0;
-                }
-                int nextPacket = received.nextClearBit(1);
-                int packetCount = received.nextSetBit(nextPacket) - nextPacket;
-                if (packetCount < 0) {
-                    packetCount = numberOfPackets - nextPacket + 1;
-                }
-                if (packetCount > maxResponsePackets) {
-                    packetCount = maxResponsePackets;
-                }
-                try (Stream<Packet> dataStream = bus.read(T2, TimeUnit.MILLISECONDS);) {
-                    Stream<Packet> stream = dataStream
-                                                      .filter(p -> p.getSource() == source)
-                                                      .peek(p -> {
-                                                          if (p.getId(0xFFFF) == (CM | rts.getId(0xFF))) {
-                                                              if (p.get(0) == CM_ConnAbort) {
-                                                                  warn(getAbortError(p.get(1)), p);
-                                                              }
-                                                              warn("TP canceled", p);
-                                                              packet.fail();
-                                                              throw new PacketException("TP canceled");
-                                                          }
-                                                      })
-                                                      // only consider DT packet that are part of this
-                                                      // connection
-                                                      .filter(p -> p.getId(0xFFFF) == (DT | rts.getId(0xFF)))
-                                                      // After every TP.DT, reset timeout to T1 from now.
-                                                      .peek(p -> bus.resetTimeout(dataStream,
-                                                                                  T1,
-                                                                                  TimeUnit.MILLISECONDS))
-                                                      .limit(packetCount);
-                    Packet cts = createPacket(CM | source,
-                                              getAddress(),
-                                              CM_CTS,
-                                              packetCount,
-                                              nextPacket,
-                                              0xFF,
-                                              0xFF,
-                                              rts.get(5),
-                                              rts.get(6),
-                                              rts.get(7));
-                    fine("tx CTS", cts);
-                    packet.getFragments().add(bus.send(cts));
-                    stream.forEach(p -> {
-                        packet.getFragments().add(p);
-                        fine("rx DT", rts);
-                        received.set(p.get(0));
-                        packet.setTimestamp(p.getTimestamp());
-                        int offset = (p.get(0) - 1) * 7;
-                        System.arraycopy(p.getBytes(), 1, data, offset, Math.min(offset + 7, data.length) - offset);
-                    });
-                } catch (PacketException e) {
-                    // TP failed.
-                    packet.fail();
+    /** Receive a destination specific packet, clearing each window with a CTS. */
+    private class RtsSession extends Session {
+        private int lastCardinality = -1;
+        private final int maxResponsePackets;
+        private int receivedNone;
+        private final Packet rts;
+        /** DTs still expected in the current CTS window. */
+        private int window;
+
+        RtsSession(Packet rts) {
+            super(rts, rts.getDestination());
+            this.rts = rts;
+            maxResponsePackets = rts.get(4);
+        }
+
+        @Override
+        protected void expire() {
+            requestNext();
+        }
+
+        @Override
+        protected void receiveControl(Packet cm) {
+            if (cm.get(0) == CM_ConnAbort) {
+                warn(getAbortError(cm.get(1)), cm);
+            }
+            warn("TP canceled", cm);
+            fail();
+        }
+
+        @Override
+        protected void receiveData(Packet dt) {
+            fine("rx DT", dt);
+            copy(dt);
+            if (--window <= 0) {
+                // window complete, send the next CTS or the EOM now
+                arm(0);
+            } else {
+                // After every TP.DT, reset timeout to T1 from now.
+                arm(T1);
+            }
+        }
+
+        /** Send the CTS for the next missing DTs, or the EOM when done. */
+        private void requestNext() {
+            int cardinality = received.cardinality();
+            if (cardinality >= numberOfPackets) {
+                Packet eom = createPacket(CM | rts.getSource(),
+                                          getAddress(),
+                                          CM_EndOfMessageACK,
+                                          rts.get(1),
+                                          rts.get(2),
+                                          rts.get(3),
+                                          0xFF,
+                                          rts.get(5),
+                                          rts.get(6),
+                                          rts.get(7));
+                fine("tx EOM", eom);
+                finish();
+                // signal done collecting packet data once the EOM is out
+                transmit(eom, () -> packet.setData(data));
+                return;
+            }
+            if (cardinality == lastCardinality) {
+                if (receivedNone++ > 3) {
+                    error("Failed to receive destination specific TP:" + rts,
+                          new BusException("Failed to receive DT"));
+                    fail();
                     return;
                 }
+            } else {
+                lastCardinality = cardinality;
+                receivedNone = 0;
             }
-            Packet eom = createPacket(CM | source,
+            int nextPacket = received.nextClearBit(1);
+            int packetCount = received.nextSetBit(nextPacket) - nextPacket;
+            if (packetCount < 0) {
+                packetCount = numberOfPackets - nextPacket + 1;
+            }
+            if (packetCount > maxResponsePackets) {
+                packetCount = maxResponsePackets;
+            }
+            window = packetCount;
+            Packet cts = createPacket(CM | rts.getSource(),
                                       getAddress(),
-                                      CM_EndOfMessageACK,
-                                      rts.get(1),
-                                      rts.get(2),
-                                      rts.get(3),
+                                      CM_CTS,
+                                      packetCount,
+                                      nextPacket,
+                                      0xFF,
                                       0xFF,
                                       rts.get(5),
                                       rts.get(6),
                                       rts.get(7));
-            fine("tx EOM", eom);
-            packet.getFragments().add(bus.send(eom));
+            fine("tx CTS", cts);
+            arm(T2);
+            transmit(cts, () -> {
+            });
+        }
 
-            // signal done collecting packet data
-            packet.setData(data);
+        /**
+         * Send cm on the sender thread, after the sessions lock is released,
+         * then record the echo and run then holding sessions.
+         */
+        private void transmit(Packet cm, Runnable then) {
+            sender.execute(() -> {
+                try {
+                    Packet sent = bus.send(cm);
+                    synchronized (sessions) {
+                        addFragment(sent);
+                        then.run();
+                    }
+                } catch (BusException e) {
+                    synchronized (sessions) {
+                        error("Failed to receive destination specific TP:" + rts, e);
+                        fail();
+                    }
+                }
+            });
         }
+
+        @Override
+        void start() throws BusException {
+            fine("rx RTS", rts);
+            super.start();
+            arm(0);
+        }
+    }
+
+    private Packet createEmptyPacket(int id, int source) {
+        return new Packet(LocalDateTime.now(), 7, id, source, false, (int[]) null);
     }
 
     private Packet sendBam(Packet packet) throws BusException {
@@ -418,11 +596,7 @@ public class J1939TP implements Bus {
             byte[] buf = new byte[8];
 
             int end = Math.min(packet.getLength() - i * 7, 7);
-            System.arraycopy(packet.getBytes(),
-                             i * 7,
-                             buf,
-                             1,
-                             end);
+            packet.copyBytes(i * 7, buf, 1, end);
             Arrays.fill(buf, end + 1, buf.length, (byte) 0xFF);
             buf[0] = (byte) (i + 1);
             sleep(50);
@@ -437,9 +611,9 @@ public class J1939TP implements Bus {
 
     public Packet sendDestinationSpecific(int destinationAddress, Packet packet) throws BusException {
         int pgn = packet.getPgn();
-        Predicate<Packet> controlMessageFilter = p -> //
-        p.getSource() == destinationAddress
-                && p.getId(0xFFFF) == (CM | packet.getSource());
+        PacketFilter controlMessageFilter = PacketFilter.pgn(CM)
+                                                        .source(destinationAddress)
+                                                        .destination(packet.getSource());
 
         // send RTS
         int totalPacketsToSend = packet.getLength() / 7 + 1;
@@ -455,8 +629,7 @@ public class J1939TP implements Bus {
                                   0xFF & (pgn >> 16));
         fine("tx RTS", rts);
 
-        Stream<Packet> ctsStream = bus.read(T3, TimeUnit.MILLISECONDS)
-                                      .filter(controlMessageFilter);
+        Stream<Packet> ctsStream = bus.read(controlMessageFilter, T3, TimeUnit.MILLISECONDS);
         bus.send(rts);
 
         // wait for CTS
@@ -473,7 +646,7 @@ public class J1939TP implements Bus {
                          cts.toString());
                 }
                 // wait for CTS
-                ctsOptional = bus.read(T4, TimeUnit.MILLISECONDS).filter(controlMessageFilter).findFirst();
+                ctsOptional = bus.read(controlMessageFilter, T4, TimeUnit.MILLISECONDS).findFirst();
             } else {
                 int offset = cts.get(2);
                 if (cts.get16(3) != 0xFFFF) {
@@ -485,11 +658,7 @@ public class J1939TP implements Bus {
                 // send data
                 for (int i = 0; i < packetsToSend; i++) {
                     byte[] buf = new byte[8];
-                    System.arraycopy(packet.getBytes(),
-                                     (i + offset - 1) * 7,
-                                     buf,
-                                     1,
-                                     Math.min(packet.getLength() - i * 7, 7));
+                    packet.copyBytes((i + offset - 1) * 7, buf, 1, Math.min(packet.getLength() - i * 7, 7));
                     buf[0] = (byte) (i + 1);
                     Packet dp = createPacket(DT | destinationAddress, getAddress(), buf);
 
@@ -497,7 +666,7 @@ public class J1939TP implements Bus {
                     bus.send(dp);
                 }
                 // wait for CTS or EOM
-                ctsOptional = bus.read(T3, TimeUnit.MILLISECONDS).filter(controlMessageFilter).findFirst();
+                ctsOptional = bus.read(controlMessageFilter, T3, TimeUnit.MILLISECONDS).findFirst();
             }
         }
         ctsOptional.ifPresent(eom -> fine("rx EOM", eom));
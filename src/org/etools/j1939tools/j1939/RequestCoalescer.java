@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.j1939;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.etools.j1939tools.CommunicationsListener;
+
+/**
+ * The requests on the bus, so an identical request made at the same time
+ * waits for the one already made instead of making its own. Shared by the
+ * J1939s on one bus, so a view polling and a controller asking for the same
+ * PGN at once make one request.
+ */
+public class RequestCoalescer {
+
+    /**
+     * A request on the bus that identical requests wait for, instead of making
+     * their own. Holds what the request logged, so it can be replayed to
+     * them.
+     */
+    private static final class InFlight<R> {
+        private final List<String> log = Collections.synchronizedList(new ArrayList<>());
+        private final CompletableFuture<R> result = new CompletableFuture<>();
+    }
+
+    /** Number of requests that shared one already on the bus. */
+    private final AtomicInteger coalesced = new AtomicInteger();
+
+    /** Requests on the bus, by key. */
+    private final Map<Object, InFlight<?>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Makes request, unless an identical request is already on the bus, in
+     * which case waits for that one and shares its result. Either way,
+     * listener gets the log of the request, so a caller that shared one sees
+     * the same lines as the caller that made it.
+     *
+     * @param  key
+     *                      identifies identical requests
+     * @param  listener
+     *                      the listener for the log, or null
+     * @param  request
+     *                      makes the request, logging to the listener given
+     * @return          the result of the request
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R coalesce(Object key,
+            CommunicationsListener listener,
+            Function<CommunicationsListener, R> request) {
+        InFlight<R> mine = new InFlight<>();
+        InFlight<R> shared = (InFlight<R>) inFlight.putIfAbsent(key, mine);
+        if (shared != null) {
+            coalesced.incrementAndGet();
+            R result;
+            try {
+                result = shared.result.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+            if (listener != null) {
+                shared.log.forEach(listener::onResult);
+            }
+            return result;
+        }
+        try {
+            R result = request.apply(message -> {
+                mine.log.add(message);
+                if (listener != null) {
+                    listener.onResult(message);
+                }
+            });
+            inFlight.remove(key, mine);
+            mine.result.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, mine);
+            mine.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of requests that shared the result of an identical
+     *         request already on the bus
+     */
+    public int getCoalesced() {
+        return coalesced.get();
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.j1939;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides when each request may be sent, so the tool does not flood a busy
+ * vehicle bus and background sweeps do not delay the monitor tracking.
+ *
+ * A request waits for a permit. Permits are given in {@link Priority} order,
+ * first come first served within a priority, and only while:
+ * <ul>
+ * <li>fewer than the in-flight limit of requests to the same destination are
+ * waiting for their responses, and</li>
+ * <li>the token bucket holds a token for each request. The bucket refills at
+ * the request rate, reduced as the measured bus load rises from
+ * {@value #LOAD_LOW}% to {@value #LOAD_HIGH}%, down to a tenth of it.</li>
+ * </ul>
+ * A request that cannot be sent to a busy destination does not hold up
+ * requests to others.
+ *
+ * The priority is that of the calling thread, {@link Priority#INTERACTIVE}
+ * unless set by {@link #setPriority(Priority)}.
+ */
+public class RequestScheduler {
+
+    /** Request priority classes, most urgent first. */
+    public enum Priority {
+        /** Requests of a procedure the user is waiting on. */
+        INTERACTIVE,
+        /** Polling that must keep its period, like monitor tracking. */
+        TRACKING,
+        /** Sweeps and heartbeats that can wait. */
+        BACKGROUND
+    }
+
+    /**
+     * Leave to release the destination when the responses have been read.
+     */
+    public final class Permit implements AutoCloseable {
+        private final int destination;
+        private boolean closed;
+
+        private Permit(int destination) {
+            this.destination = destination;
+        }
+
+        @Override
+        public void close() {
+            synchronized (RequestScheduler.this) {
+                if (!closed) {
+                    closed = true;
+                    inFlight.merge(destination, -1, Integer::sum);
+                    RequestScheduler.this.notifyAll();
+                }
+            }
+        }
+    }
+
+    private static final class Waiter {
+        private final Priority priority;
+        private final long sequence;
+        private final int destination;
+        private final int cost;
+
+        private Waiter(Priority priority, long sequence, int destination, int cost) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.destination = destination;
+            this.cost = cost;
+        }
+    }
+
+    /** Requests that may be sent at once after a quiet period. */
+    public static final int BURST = 5;
+
+    /** Requests to one destination waiting for their responses. */
+    public static final int DEFAULT_IN_FLIGHT = 1;
+
+    /** Requests per second on a quiet bus. */
+    public static final double DEFAULT_RATE = 20;
+
+    /** Bus load, in percent, above which the rate is reduced. */
+    public static final double LOAD_LOW = 50;
+
+    /** Bus load, in percent, at which the rate is lowest. */
+    public static final double LOAD_HIGH = 90;
+
+    private static final ThreadLocal<Priority> PRIORITY = ThreadLocal.withInitial(() -> Priority.INTERACTIVE);
+
+    /**
+     * @return the priority of requests made by this thread
+     */
+    public static Priority getPriority() {
+        return PRIORITY.get();
+    }
+
+    /**
+     * Sets the priority of requests made by this thread.
+     *
+     * @return the previous priority, to be restored when done
+     */
+    public static Priority setPriority(Priority priority) {
+        Priority previous = PRIORITY.get();
+        PRIORITY.set(priority);
+        return previous;
+    }
+
+    private DoubleSupplier busLoad = () -> -1;
+
+    private final LongSupplier clock;
+
+    private long delayed;
+
+    private final Map<Integer, Integer> inFlight = new HashMap<>();
+
+    private int inFlightLimit = DEFAULT_IN_FLIGHT;
+
+    private double rate = DEFAULT_RATE;
+
+    /** When the tokens were last counted, in ns. */
+    private long refilled;
+
+    private long sequence;
+
+    private double tokens = BURST;
+
+    /** Waiting requests, most urgent first. */
+    private final NavigableSet<Waiter> waiting = new TreeSet<>(
+            Comparator.<Waiter, Priority>comparing(w -> w.priority).thenComparingLong(w -> w.sequence));
+
+    public RequestScheduler() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * @param clock
+     *                  the time in ns
+     */
+    public RequestScheduler(LongSupplier clock) {
+        this.clock = clock;
+        refilled = clock.getAsLong();
+    }
+
+    /**
+     * Waits for permission to send requests to destination. If interrupted,
+     * the permit is given at once and the thread left interrupted.
+     *
+     * @param  destination
+     *                         the destination address, or 0xFF for global
+     * @param  requests
+     *                         the number of requests that will be sent to it
+     *                         together
+     * @return             the permit, to be closed when the responses have
+     *                     been read
+     */
+    public synchronized Permit acquire(int destination, int requests) {
+        Waiter waiter = new Waiter(getPriority(), sequence++, destination, Math.min(requests, BURST));
+        waiting.add(waiter);
+        try {
+            boolean waited = false;
+            while (!isNext(waiter)) {
+                waited = true;
+                wait(getWait(waiter));
+            }
+            if (waited) {
+                delayed++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiting.remove(waiter);
+            notifyAll();
+        }
+        tokens -= waiter.cost;
+        inFlight.merge(destination, 1, Integer::sum);
+        return new Permit(destination);
+    }
+
+    /**
+     * @return the number of requests that had to wait
+     */
+    public synchronized long getDelayed() {
+        return delayed;
+    }
+
+    /**
+     * @return the number of requests waiting for a permit
+     */
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * @return the request rate, per second, at the current bus load
+     */
+    public synchronized double getRate() {
+        double load = busLoad.getAsDouble();
+        if (load <= LOAD_LOW) {
+            return rate;
+        }
+        double reduction = Math.min(1, (load - LOAD_LOW) / (LOAD_HIGH - LOAD_LOW)) * 0.9;
+        return rate * (1 - reduction);
+    }
+
+    /** ms until waiter may have enough tokens, or 0 to wait for a release. */
+    private long getWait(Waiter waiter) {
+        if (tokens >= waiter.cost) {
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((waiter.cost - tokens) * 1000 / getRate()));
+    }
+
+    /**
+     * True if waiter is the most urgent request that can be sent to its
+     * destination, and there are tokens for it.
+     */
+    private boolean isNext(Waiter waiter) {
+        long now = clock.getAsLong();
+        tokens = Math.min(BURST, tokens + (now - refilled) * getRate() / TimeUnit.SECONDS.toNanos(1));
+        refilled = now;
+        for (Waiter w : waiting) {
+            if (inFlight.getOrDefault(w.destination, 0) < inFlightLimit) {
+                return w == waiter && tokens >= waiter.cost;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Has the waiting requests check the clock again, as when it moves faster
+     * than their wait, such as a clock driven by a test or a replay.
+     */
+    public synchronized void recheck() {
+        notifyAll();
+    }
+
+    /**
+     * @param busLoad
+     *                    the bus load in percent, or negative if not known,
+     *                    like {@link BusStatistics#getBusLoad()}
+     */
+    public synchronized void setBusLoad(DoubleSupplier busLoad) {
+        this.busLoad = busLoad;
+        notifyAll();
+    }
+
+    /**
+     * @param limit
+     *                  the number of requests to one destination that may
+     *                  wait for responses at once
+     */
+    public synchronized void setInFlightLimit(int limit) {
+        inFlightLimit = limit;
+        notifyAll();
+    }
+
+    /**
+     * @param rate
+     *                 requests per second on a quiet bus
+     */
+    public synchronized void setRate(double rate) {
+        this.rate = rate;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Request rate: %.1f/s waiting: %d delayed: %d", getRate(), waiting.size(), delayed);
+    }
+}
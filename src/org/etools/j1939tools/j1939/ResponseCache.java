@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.j1939;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.etools.j1939tools.bus.Either;
+import org.etools.j1939tools.j1939.packets.AcknowledgmentPacket;
+import org.etools.j1939tools.j1939.packets.ComponentIdentificationPacket;
+import org.etools.j1939tools.j1939.packets.DM19CalibrationInformationPacket;
+import org.etools.j1939tools.j1939.packets.DM56EngineFamilyPacket;
+import org.etools.j1939tools.j1939.packets.GenericPacket;
+import org.etools.j1939tools.j1939.packets.VehicleIdentificationPacket;
+
+/**
+ * Responses to requests for data that does not change while the tool is
+ * connected, like the VIN and the calibrations, keyed by PGN and source
+ * address. Only PGNs given a time to live are cached; by default the VIN,
+ * DM19, DM56 and component identification, for the whole session.
+ *
+ * A global request is answered from the cache only if a global request for
+ * the PGN completed within the time to live, since only then is the set of
+ * responders known. A response from a module missing from that set, to a
+ * later DS request, drops it, so a module that was slow to answer once is
+ * not left out for the whole session. A DS request is answered by the
+ * response of that module, from either kind of request.
+ *
+ * Everything is dropped by {@link #invalidate()}, which J1939 calls when a
+ * DM11 is sent, and the application when the key is turned off, the vehicle
+ * is read again or the adapter is connected.
+ */
+public class ResponseCache {
+
+    private static final class Entry {
+        private final long time;
+        private final Either<? extends GenericPacket, AcknowledgmentPacket> response;
+
+        private Entry(long time, Either<? extends GenericPacket, AcknowledgmentPacket> response) {
+            this.time = time;
+            this.response = response;
+        }
+    }
+
+    /** Time to live of data that does not change during a session. */
+    public static final long SESSION = Long.MAX_VALUE;
+
+    private final LongSupplier clock;
+
+    /** When a global request for each PGN last completed. */
+    private final Map<Integer, Long> globals = new HashMap<>();
+
+    private long hits;
+
+    private long misses;
+
+    /** Responses of each PGN, by source address. */
+    private final Map<Integer, Map<Integer, Entry>> responses = new HashMap<>();
+
+    /** Time to live of each cached PGN in ns. */
+    private final Map<Integer, Long> ttls = new HashMap<>();
+
+    public ResponseCache() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * @param clock
+     *                  the time in ns
+     */
+    public ResponseCache(LongSupplier clock) {
+        this.clock = clock;
+        setTtl(VehicleIdentificationPacket.PGN, SESSION, TimeUnit.NANOSECONDS);
+        setTtl(DM19CalibrationInformationPacket.PGN, SESSION, TimeUnit.NANOSECONDS);
+        setTtl(DM56EngineFamilyPacket.PGN, SESSION, TimeUnit.NANOSECONDS);
+        setTtl(ComponentIdentificationPacket.PGN, SESSION, TimeUnit.NANOSECONDS);
+    }
+
+    private boolean expired(int pgn, long time) {
+        long ttl = ttls.getOrDefault(pgn, 0L);
+        return ttl != SESSION && clock.getAsLong() - time >= ttl;
+    }
+
+    /**
+     * @return the cached response of source to a request for pgn
+     */
+    public synchronized Optional<Either<? extends GenericPacket, AcknowledgmentPacket>> get(int pgn, int source) {
+        if (!isCached(pgn)) {
+            return Optional.empty();
+        }
+        Entry entry = responses.getOrDefault(pgn, Map.of()).get(source);
+        if (entry == null || expired(pgn, entry.time)) {
+            misses++;
+            return Optional.empty();
+        }
+        hits++;
+        return Optional.of(entry.response);
+    }
+
+    /**
+     * @return the cached responses to a global request for pgn, in address
+     *         order
+     */
+    public synchronized Optional<List<Either<? extends GenericPacket, AcknowledgmentPacket>>> getGlobal(int pgn) {
+        if (!isCached(pgn)) {
+            return Optional.empty();
+        }
+        Long time = globals.get(pgn);
+        if (time == null || expired(pgn, time)) {
+            misses++;
+            return Optional.empty();
+        }
+        hits++;
+        List<Either<? extends GenericPacket, AcknowledgmentPacket>> list = new ArrayList<>();
+        responses.getOrDefault(pgn, Map.of()).values().forEach(e -> list.add(e.response));
+        return Optional.of(list);
+    }
+
+    /**
+     * @return the number of requests answered from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of requests for cached PGNs that went to the bus
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Drops all cached responses.
+     */
+    public synchronized void invalidate() {
+        responses.clear();
+        globals.clear();
+    }
+
+    /**
+     * Drops the cached responses of pgn.
+     */
+    public synchronized void invalidate(int pgn) {
+        responses.remove(pgn);
+        globals.remove(pgn);
+    }
+
+    /**
+     * @return true if responses to pgn are cached
+     */
+    public synchronized boolean isCached(int pgn) {
+        return ttls.getOrDefault(pgn, 0L) > 0;
+    }
+
+    /**
+     * Caches the response of source to a request for pgn.
+     */
+    public synchronized void put(int pgn, int source, Either<? extends GenericPacket, AcknowledgmentPacket> response) {
+        if (isCached(pgn)) {
+            Map<Integer, Entry> map = responses.computeIfAbsent(pgn, k -> new TreeMap<>());
+            if (map.put(source, new Entry(clock.getAsLong(), response)) == null) {
+                // the last global request missed source
+                globals.remove(pgn);
+            }
+        }
+    }
+
+    /**
+     * Caches the complete set of responses to a global request for pgn,
+     * replacing those cached before.
+     *
+     * @param sources
+     *                      the source address of each response
+     * @param responses
+     *                      the responses
+     */
+    public synchronized void putGlobal(int pgn,
+            List<Integer> sources,
+            List<? extends Either<? extends GenericPacket, AcknowledgmentPacket>> responses) {
+        if (isCached(pgn)) {
+            long now = clock.getAsLong();
+            Map<Integer, Entry> map = new TreeMap<>();
+            for (int i = 0; i < responses.size(); i++) {
+                map.put(sources.get(i), new Entry(now, responses.get(i)));
+            }
+            this.responses.put(pgn, map);
+            globals.put(pgn, now);
+        }
+    }
+
+    /**
+     * Sets how long responses to pgn are used. 0 stops caching pgn.
+     */
+    public synchronized void setTtl(int pgn, long ttl, TimeUnit unit) {
+        if (ttl <= 0) {
+            ttls.remove(pgn);
+            invalidate(pgn);
+        } else {
+            ttls.put(pgn, ttl == SESSION ? SESSION : unit.toNanos(ttl));
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Response cache hits: " + hits + " misses: " + misses;
+    }
+}
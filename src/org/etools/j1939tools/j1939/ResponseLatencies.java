@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.j1939;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.etools.j1939tools.bus.LatencyHistogram;
+
+/**
+ * The time each module takes to respond to a request for each PGN, from the
+ * request to the first fragment of the response.
+ *
+ * Once every module of a poll has answered a PGN often enough, the poll need
+ * only wait until the slowest of them would have answered: its p99.9 plus a
+ * margin, never more than the maximum the spec allows. A module that misses
+ * that deadline has its history dropped, so the next poll waits the full time
+ * again and learns its new latency.
+ */
+public class ResponseLatencies {
+
+    /** Added to the p99.9 latency, in ns. */
+    public static final long MARGIN = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /** Responses needed from a module before its deadline is trusted. */
+    public static final int MIN_SAMPLES = 10;
+
+    private static long key(int source, int pgn) {
+        return ((long) source << 24) | pgn;
+    }
+
+    private final Map<Long, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Drops the history of source for pgn, after it missed a deadline.
+     */
+    public void forget(int source, int pgn) {
+        histograms.remove(key(source, pgn));
+    }
+
+    /**
+     * @param  pgn
+     *                     the requested PGN
+     * @param  sources
+     *                     the modules expected to respond
+     * @param  max
+     *                     the longest the spec allows, in ms
+     * @return         the time, in ms, by which every one of sources is
+     *                 expected to have responded, or max if any of them has
+     *                 not responded often enough to tell
+     */
+    public long getDeadline(int pgn, Collection<Integer> sources, long max) {
+        if (sources.isEmpty()) {
+            return max;
+        }
+        long deadline = 0;
+        for (int source : sources) {
+            LatencyHistogram histogram = histograms.get(key(source, pgn));
+            if (histogram == null || histogram.getCount() < MIN_SAMPLES) {
+                return max;
+            }
+            deadline = Math.max(deadline, histogram.getPercentile(99.9) + MARGIN);
+        }
+        return Math.min(max, TimeUnit.NANOSECONDS.toMillis(deadline) + 1);
+    }
+
+    /**
+     * @return the latencies of source responding to pgn, or null if it has not
+     *         responded
+     */
+    public LatencyHistogram getHistogram(int source, int pgn) {
+        return histograms.get(key(source, pgn));
+    }
+
+    /**
+     * @param nanos
+     *                  the time from the request to the response
+     */
+    public void record(int source, int pgn, long nanos) {
+        histograms.computeIfAbsent(key(source, pgn), k -> new LatencyHistogram()).record(nanos);
+    }
+
+    /** Drops all history. */
+    public void reset() {
+        histograms.clear();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2021. Equipment & Tool Institute
+ */
+package org.etools.j1939tools.j1939;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A hashed timer wheel shared by many short lived timeouts, like the TP
+ * session timers. A single thread advances the wheel one tick at a time and
+ * runs the expired tasks while holding lock, so tasks never race with other
+ * code that synchronizes on the same lock.
+ *
+ * Scheduling is O(1). Cancelling removes the task from its slot, so it costs
+ * the number of tasks sharing the slot. Both must be done while holding lock.
+ */
+final class TimerWheel implements AutoCloseable {
+
+    /** A scheduled task. */
+    final class Timeout {
+        private boolean cancelled;
+        private final long deadline;
+        /** Slot holding the task, or null once taken out to run. */
+        private List<Timeout> slot;
+        private final Runnable task;
+
+        private Timeout(long deadline, Runnable task, List<Timeout> slot) {
+            this.deadline = deadline;
+            this.task = task;
+            this.slot = slot;
+        }
+
+        /** Cancel the task. Must be called while holding lock. */
+        void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                pending--;
+                if (slot != null) {
+                    slot.remove(this);
+                    slot = null;
+                }
+            }
+        }
+    }
+
+    private static final Logger logger = Logger.getLogger(TimerWheel.class.getName());
+
+    /** Number of slots. Must be a power of 2. */
+    private static final int SLOTS = 512;
+
+    private final Object lock;
+
+    /** Number of tasks neither run nor cancelled. Guarded by lock. */
+    private int pending;
+
+    /** Start time of the wheel. */
+    private final long start = System.currentTimeMillis();
+
+    /** Next tick to process. Guarded by lock. */
+    private long tick;
+
+    private final ScheduledExecutorService ticker;
+
+    private final long tickMs;
+
+    private final List<List<Timeout>> wheel = new ArrayList<>(SLOTS);
+
+    /**
+     * @param name
+     *                   name of the thread advancing the wheel
+     * @param tickMs
+     *                   resolution of the timeouts in ms
+     * @param lock
+     *                   lock held while scheduling, cancelling and running tasks
+     */
+    TimerWheel(String name, long tickMs, Object lock) {
+        this.tickMs = tickMs;
+        this.lock = lock;
+        for (int i = 0; i < SLOTS; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::advance, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Run every task that expired since the last tick. */
+    private void advance() {
+        long now = System.currentTimeMillis();
+        synchronized (lock) {
+            long last = (now - start) / tickMs;
+            for (; tick <= last; tick++) {
+                if (pending == 0) {
+                    tick = last + 1;
+                    break;
+                }
+                List<Timeout> slot = wheel.get((int) (tick & (SLOTS - 1)));
+                List<Timeout> expired = new ArrayList<>();
+                for (Iterator<Timeout> it = slot.iterator(); it.hasNext();) {
+                    Timeout t = it.next();
+                    if (t.deadline <= now) {
+                        it.remove();
+                        t.slot = null;
+                        expired.add(t);
+                    }
+                }
+                for (Timeout t : expired) {
+                    // a task may cancel a later task in this same tick
+                    if (!t.cancelled) {
+                        t.cancel();
+                        try {
+                            t.task.run();
+                        } catch (Throwable e) {
+                            logger.log(Level.SEVERE, "Timer task failed.", e);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+
+    /**
+     * Run task after delayMs. Must be called while holding lock.
+     *
+     * @param  delayMs
+     *                     delay in ms
+     * @param  task
+     *                     the task to run on the wheel thread
+     * @return         the scheduled task
+     */
+    Timeout schedule(long delayMs, Runnable task) {
+        long deadline = System.currentTimeMillis() + delayMs;
+        // round up, so the task never runs early, and never into a tick that
+        // has already been processed
+        long tickOf = Math.max(tick, (deadline - start + tickMs - 1) / tickMs);
+        List<Timeout> slot = wheel.get((int) (tickOf & (SLOTS - 1)));
+        Timeout t = new Timeout(deadline, task, slot);
+        slot.add(t);
+        pending++;
+        return t;
+    }
+}
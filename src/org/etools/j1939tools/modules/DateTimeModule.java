@@ -148,6 +148,39 @@ public class DateTimeModule {
         return TimeUnit.NANOSECONDS.toMillis(now().toLocalTime().toNanoOfDay());
     }
 
+    /**
+     * Appends the time as formatted by {@link #getTimeFormatter()}. The default
+     * formatter is written directly to the {@link StringBuilder} without
+     * creating any intermediate objects.
+     *
+     * @param sb
+     *            the {@link StringBuilder} to append to
+     * @param time
+     *            the {@link LocalDateTime} to format
+     * @return sb
+     */
+    public StringBuilder appendTime(StringBuilder sb, LocalDateTime time) {
+        DateTimeFormatter formatter = getTimeFormatter();
+        if (formatter != timeFormatter) {
+            // overridden
+            formatter.formatTo(time, sb);
+            return sb;
+        }
+        append2(sb, time.getHour()).append(':');
+        append2(sb, time.getMinute()).append(':');
+        append2(sb, time.getSecond()).append('.');
+        int fraction = time.getNano() / 100_000;
+        sb.append((char) ('0' + fraction / 1000))
+          .append((char) ('0' + fraction / 100 % 10))
+          .append((char) ('0' + fraction / 10 % 10))
+          .append((char) ('0' + fraction % 10));
+        return sb;
+    }
+
+    private static StringBuilder append2(StringBuilder sb, int value) {
+        return sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
     /**
      * Returns the formatter used to format the time
      *